@@ -0,0 +1,113 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages and micro-services shared by the message-bus benchmarks.
+ */
+final class BenchmarkServices {
+
+    private BenchmarkServices() {
+    }
+
+    /**
+     * An event nobody needs a result for.
+     */
+    static final class SinkEvent implements Event<Object> {
+    }
+
+    /**
+     * A broadcast carrying no data.
+     */
+    static final class SinkBroadcast implements Broadcast {
+    }
+
+    /**
+     * Tells the benchmark services to terminate.
+     */
+    static final class StopBroadcast implements Broadcast {
+    }
+
+    /**
+     * An event completed with itself by the {@link EchoService}.
+     */
+    static final class EchoEvent implements Event<EchoEvent> {
+    }
+
+    /**
+     * Consumes {@link SinkEvent}s and {@link SinkBroadcast}s and does nothing
+     * with them.
+     */
+    static final class SinkService extends MicroService {
+        private final CountDownLatch subscribed;
+
+        SinkService(String name, CountDownLatch subscribed) {
+            super(name);
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(SinkEvent.class, event -> { });
+            subscribeBroadcast(SinkBroadcast.class, broadcast -> { });
+            subscribeBroadcast(StopBroadcast.class, stop -> terminate());
+            subscribed.countDown();
+        }
+    }
+
+    /**
+     * Counts the {@link SinkBroadcast}s it receives, so a sender can wait for
+     * the subscribers of a bus whose queues are not bounded.
+     */
+    static final class CountingSinkService extends MicroService {
+        private final CountDownLatch subscribed;
+        private final LongAdder received;
+
+        CountingSinkService(String name, MessageBusImpl bus, CountDownLatch subscribed, LongAdder received) {
+            super(name, bus);
+            this.subscribed = subscribed;
+            this.received = received;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeBroadcast(SinkBroadcast.class, broadcast -> received.increment());
+            subscribeBroadcast(StopBroadcast.class, stop -> terminate());
+            subscribed.countDown();
+        }
+    }
+
+    /**
+     * Completes every {@link EchoEvent} with the event itself.
+     */
+    static final class EchoService extends MicroService {
+        private final CountDownLatch subscribed;
+
+        EchoService(CountDownLatch subscribed) {
+            super("echo");
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(EchoEvent.class, event -> complete(event, event));
+            subscribeBroadcast(StopBroadcast.class, stop -> terminate());
+            subscribed.countDown();
+        }
+    }
+
+    /**
+     * A micro-service that is never run; benchmark threads take its messages
+     * directly from the message-bus.
+     */
+    static final class PassiveService extends MicroService {
+        PassiveService(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void initialize() {
+        }
+    }
+}
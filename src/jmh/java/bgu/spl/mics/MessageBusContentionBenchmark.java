@@ -0,0 +1,109 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import bgu.spl.mics.BenchmarkServices.PassiveService;
+import bgu.spl.mics.BenchmarkServices.SinkEvent;
+
+/**
+ * Measures sendOneWayEvent/awaitMessage throughput with N producer threads
+ * and M consumer threads contending on the message-bus. Each group reports
+ * the produce and consume rates separately.
+ * <p>
+ * Consumer queues are bounded with {@link OverflowPolicy#DROP_NEWEST}, so
+ * producers that outrun the consumers never block and never fill the heap;
+ * the consume rate is the delivered throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MessageBusContentionBenchmark {
+
+    private static final AtomicInteger consumerIds = new AtomicInteger();
+
+    /**
+     * A consumer micro-service, one per consumer thread.
+     */
+    @State(Scope.Thread)
+    public static class Consumer {
+        private MessageBusImpl bus;
+        private MicroService service;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            bus = MessageBusImpl.getInstance();
+            bus.setMailboxSettings(PassiveService.class, new MailboxSettings(4096, OverflowPolicy.DROP_NEWEST));
+            service = new PassiveService("consumer" + consumerIds.incrementAndGet());
+            bus.register(service);
+            bus.subscribeEvent(SinkEvent.class, service);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            bus.unregister(service);
+        }
+    }
+
+    private boolean produce() {
+        return MessageBusImpl.getInstance().sendOneWayEvent(new SinkEvent());
+    }
+
+    // Waits briefly, so consumers never block past the end of an iteration
+    private Message consume(Consumer consumer) throws InterruptedException {
+        return consumer.bus.awaitMessage(consumer.service, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public boolean produce1x1() {
+        return produce();
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public Message consume1x1(Consumer consumer) throws InterruptedException {
+        return consume(consumer);
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(4)
+    public boolean produce4x1() {
+        return produce();
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(1)
+    public Message consume4x1(Consumer consumer) throws InterruptedException {
+        return consume(consumer);
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public boolean produce4x4() {
+        return produce();
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public Message consume4x4(Consumer consumer) throws InterruptedException {
+        return consume(consumer);
+    }
+}
@@ -0,0 +1,59 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import bgu.spl.mics.BenchmarkServices.EchoEvent;
+import bgu.spl.mics.BenchmarkServices.EchoService;
+import bgu.spl.mics.BenchmarkServices.StopBroadcast;
+
+/**
+ * Samples the round-trip latency of an event: sendEvent, delivery to a
+ * micro-service running on its own thread, complete, and the sender waking
+ * up in {@link Future#get()}. JMH reports the p50/p90/p99 percentiles for
+ * each {@link WaitStrategy} of the micro-service.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MessageBusLatencyBenchmark {
+
+    @Param({"BLOCKING", "SPIN_YIELD", "TIMED_PARK"})
+    public WaitStrategy waitStrategy;
+
+    private MessageBusImpl bus;
+    private Thread echoThread;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        bus = MessageBusImpl.getInstance();
+        bus.setMailboxSettings(EchoService.class,
+                new MailboxSettings(MailboxSettings.UNBOUNDED, OverflowPolicy.BLOCK, waitStrategy));
+        CountDownLatch subscribed = new CountDownLatch(1);
+        echoThread = new Thread(new EchoService(subscribed));
+        echoThread.start();
+        subscribed.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bus.sendBroadcast(new StopBroadcast());
+        echoThread.join();
+    }
+
+    @Benchmark
+    public EchoEvent eventRoundTrip() {
+        return bus.sendEvent(new EchoEvent()).get();
+    }
+}
@@ -0,0 +1,101 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import bgu.spl.mics.BenchmarkServices.CountingSinkService;
+import bgu.spl.mics.BenchmarkServices.SinkBroadcast;
+import bgu.spl.mics.BenchmarkServices.SinkEvent;
+import bgu.spl.mics.BenchmarkServices.SinkService;
+import bgu.spl.mics.BenchmarkServices.StopBroadcast;
+
+/**
+ * Measures how fast messages can be sent to {@code subscribers} running
+ * micro-services: round-robin event routing, with and without a
+ * {@link Future}, and broadcast fan-out.
+ * <p>
+ * The subscribers run on an {@link ActorScheduler} and have bounded
+ * {@link OverflowPolicy#BLOCK} queues, so the senders are throttled to the
+ * rate the subscribers keep up with instead of filling the heap.
+ * <p>
+ * Bounded queues have broadcasts added to them, so {@link #sendBroadcastToRing()}
+ * measures the fan-out through the broadcast ring instead: its subscribers are
+ * on a bus of their own with unbounded queues, and the senders wait while the
+ * subscribers have more than {@value #RING_BACKLOG} broadcasts each to take.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class MessageBusThroughputBenchmark {
+
+    private static final long RING_BACKLOG = 1024;
+
+    @Param({"1", "4", "16"})
+    public int subscribers;
+
+    private MessageBusImpl bus;
+    private MessageBusImpl ringBus;
+    private ActorScheduler scheduler;
+    private final AtomicLong ringSent = new AtomicLong();
+    private final LongAdder ringReceived = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        bus = MessageBusImpl.getInstance();
+        bus.setMailboxSettings(SinkService.class, new MailboxSettings(1024, OverflowPolicy.BLOCK));
+
+        ringBus = new MessageBusImpl();
+
+        CountDownLatch subscribed = new CountDownLatch(2 * subscribers);
+        scheduler = new ActorScheduler(Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < subscribers; i++) {
+            scheduler.start(new SinkService("sink" + i, subscribed));
+            scheduler.start(new CountingSinkService("ring-sink" + i, ringBus, subscribed, ringReceived));
+        }
+        subscribed.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bus.sendBroadcast(new StopBroadcast());
+        ringBus.sendBroadcast(new StopBroadcast());
+        scheduler.awaitTermination();
+    }
+
+    @Benchmark
+    public boolean sendOneWayEvent() {
+        return bus.sendOneWayEvent(new SinkEvent());
+    }
+
+    @Benchmark
+    public Future<Object> sendEvent() {
+        return bus.sendEvent(new SinkEvent());
+    }
+
+    @Benchmark
+    public void sendBroadcast() {
+        bus.sendBroadcast(new SinkBroadcast());
+    }
+
+    @Benchmark
+    public void sendBroadcastToRing() {
+        long sent = ringSent.incrementAndGet();
+        while ((sent - RING_BACKLOG) * subscribers > ringReceived.sum()) {
+            Thread.yield(); // the subscribers are too far behind
+        }
+        ringBus.sendBroadcast(new SinkBroadcast());
+    }
+}
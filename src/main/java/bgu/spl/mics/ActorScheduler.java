@@ -0,0 +1,135 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The ActorScheduler runs micro-services as actors on a fixed pool of worker
+ * threads, instead of dedicating a thread to each one.
+ * <p>
+ * A micro-service only occupies a worker while its message-queue is not
+ * empty: adding a message to an idle micro-service's queue submits it to the
+ * pool, and the worker then handles up to the micro-service's fairness budget
+ * of messages before handing the worker over to others. A micro-service is
+ * never submitted twice at the same time, so its messages are still handled
+ * one at a time and in order, exactly as with a dedicated thread.
+ */
+public class ActorScheduler {
+
+    //Fields
+    private final ForkJoinPool pool;
+    private final Phaser running; // one party per micro-service that did not terminate yet
+
+    //Constructor
+    /**
+     * @param workers the number of worker threads.
+     */
+    public ActorScheduler(int workers) {
+        // FIFO mode, as actors are submitted as independent tasks
+        this.pool = new ForkJoinPool(workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.running = new Phaser(1);
+    }
+
+    //Methods
+    /**
+     * Starts running {@code service} on the pool. Its {@link MicroService#initialize()}
+     * is called on a worker thread, after which it is scheduled whenever it
+     * has messages to handle, until it terminates.
+     * <p>
+     * @param service the micro-service to run.
+     */
+    public void start(MicroService service) {
+        running.register();
+        pool.execute(() -> new Actor(service).startUp());
+    }
+
+    /**
+     * Waits until every started micro-service has terminated, and then shuts
+     * down the pool.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitTermination() throws InterruptedException {
+        running.awaitAdvanceInterruptibly(running.arriveAndDeregister());
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    // A micro-service together with the state needed to schedule it
+    private final class Actor implements Runnable {
+        private final MicroService service;
+        private final AtomicBoolean scheduled; // submitted to the pool or running
+        private Mailbox queue;
+
+        private Actor(MicroService service) {
+            this.service = service;
+            this.scheduled = new AtomicBoolean(true);
+        }
+
+        // Runs once, on a worker, before the actor is first scheduled
+        private void startUp() {
+            try {
+                service.startUp();
+                queue = service.getBus().getQueues().get(service);
+            } catch (RuntimeException e) {
+                finish(e);
+                return;
+            }
+            if (service.isTerminated()) {
+                finish(null);
+                return;
+            }
+            queue.setActivation(this::schedule);
+            release(); // handles whatever arrived during initialize()
+        }
+
+        @Override
+        public void run() {
+            try {
+                queue.bindConsumer(Thread.currentThread());
+                service.handleWaitingMessages(queue);
+            } catch (RuntimeException e) {
+                finish(e);
+                return;
+            } finally {
+                queue.bindConsumer(null); // the worker moves on to other actors
+            }
+            if (service.isTerminated()) {
+                finish(null);
+                return;
+            }
+            release();
+        }
+
+        // Submits the actor to the pool, unless it is already submitted
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        // Gives up the worker. Messages added before the flag was cleared
+        // did not schedule the actor, so they are checked for here
+        private void release() {
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void finish(RuntimeException failure) {
+            if (failure != null) {
+                StackTraceElement[] stack = failure.getStackTrace();
+                System.err.println(service.getName() + " failed: " + failure
+                        + (stack.length > 0 ? " at " + stack[0] : ""));
+            }
+            if (queue != null) {
+                queue.setActivation(null);
+            }
+            service.shutDown();
+            running.arriveAndDeregister();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package bgu.spl.mics;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ring buffer that a {@link Broadcast} is published to once, instead of
+ * being added to the {@link Mailbox} of every subscriber.
+ * <p>
+ * Every published broadcast gets the next sequence number, and every mailbox
+ * reading the ring has its own {@link Reader} cursor into it. A reader takes
+ * the entries after its cursor in order, skipping the ones of types its
+ * micro-service did not subscribe to when they were published. Senders claim sequence numbers with a
+ * compare-and-set, so any number of threads may publish concurrently.
+ * <p>
+ * The ring never overwrites an entry that a reader has not passed yet: a
+ * sender that would wrap around onto an unread entry waits for the slowest
+ * reader. If the slowest reader does not catch up soon, for example because
+ * it is the sender itself, the sender moves that reader's unread broadcasts
+ * aside to a queue of the reader, which it reads before the ring, and
+ * advances its cursor, so a stalled micro-service can never stall the senders.
+ * That queue is not bounded: it holds every broadcast the reader fell behind
+ * by, as the ring itself would have to. Its entries count in the size of the
+ * reader's {@link Mailbox}, so the depth metrics and the {@link StallWatchdog}
+ * report a reader that keeps spilling like any other growing backlog.
+ */
+final class BroadcastRing {
+
+	/**
+	 * The number of entries of the rings the {@link MessageBusImpl} uses.
+	 */
+	static final int DEFAULT_CAPACITY = 1024;
+
+	//Fields
+	private static final int SPINS_BEFORE_SPILL = 64;
+	private static final Reader[] NO_READERS = new Reader[0];
+	private static final Entry UNWRITTEN = new Entry(-1, null, 0L); // claimed, but its sender did not write it yet
+	private final AtomicReferenceArray<Entry> slots;
+	private final int capacity;
+	private final int mask;
+	private final AtomicLong claimed; // the next sequence number to claim
+	private volatile long gateLimit; // sequences below it can be claimed without checking the readers
+	private volatile Reader[] readers;
+
+	//Constructor
+	/**
+	 * @param capacity the number of entries, a power of two.
+	 */
+	BroadcastRing(int capacity) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		this.slots = new AtomicReferenceArray<>(capacity);
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.claimed = new AtomicLong(0);
+		this.gateLimit = capacity;
+		this.readers = NO_READERS;
+	}
+
+	//Methods
+	/**
+	 * Adds a reader for {@code owner}, whose cursor starts after the entries
+	 * already claimed.
+	 */
+	synchronized Reader join(Mailbox owner) {
+		Reader reader = new Reader(owner, claimed.get());
+		Reader[] current = readers;
+		Reader[] updated = new Reader[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = reader;
+		readers = updated;
+		return reader;
+	}
+
+	/**
+	 * Publishes {@code message} to every reader. Safe to call from any thread.
+	 * May wait for the slowest reader if the ring is full.
+	 * <p>
+	 * @return the sequence number of the published entry.
+	 */
+	long publish(Message message) {
+		long sequence;
+		int spins = 0;
+		while (true) {
+			sequence = claimed.get();
+			if (sequence >= gateLimit) {
+				long slowest = slowestPosition(sequence);
+				if (sequence - slowest >= capacity) {
+					if (++spins < SPINS_BEFORE_SPILL || !spillLaggards(sequence)) {
+						Thread.yield();
+					}
+					continue;
+				}
+				// Cursors only move forward, so the limit stays safe even if stale
+				gateLimit = slowest + capacity;
+			}
+			if (claimed.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
+		long publishedAt = BusMetrics.ENABLED ? System.nanoTime() : 0L;
+		slots.set((int) sequence & mask, new Entry(sequence, message, publishedAt));
+		return sequence;
+	}
+
+	private synchronized void leave(Reader reader) {
+		Reader[] current = readers;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == reader) {
+				Reader[] updated = new Reader[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				readers = updated;
+				return;
+			}
+		}
+	}
+
+	private long slowestPosition(long sequence) {
+		long slowest = sequence;
+		for (Reader reader : readers) {
+			slowest = Math.min(slowest, reader.position.get());
+		}
+		return slowest;
+	}
+
+	// Moves the unread broadcasts of every reader a full ring behind aside.
+	// Returns false if an entry on the way is not written yet
+	private boolean spillLaggards(long sequence) {
+		boolean spilled = true;
+		for (Reader reader : readers) {
+			if (sequence - reader.position.get() >= capacity) {
+				spilled &= reader.spill(sequence);
+			}
+		}
+		return spilled;
+	}
+
+	/**
+	 * The cursor of a single mailbox into the ring. Its owner takes entries
+	 * from it, and a sender relieving a full ring may move them aside, so both
+	 * hold the reader's lock while advancing the cursor. The lock is never
+	 * contended unless the ring is full, and is let go of while waiting for
+	 * the sender of a claimed entry to write it.
+	 */
+	final class Reader {
+		private final Mailbox owner;
+		private final AtomicLong position; // the sequence of the next entry to read
+		private final Queue<Entry> spilled; // entries moved aside, read before the ring
+
+		private Reader(Mailbox owner, long position) {
+			this.owner = owner;
+			this.position = new AtomicLong(position);
+			this.spilled = new ConcurrentLinkedQueue<>();
+		}
+
+		/**
+		 * @return the next published broadcast of a type the owner reads from
+		 *         the ring, or null if there is none.
+		 */
+		Message take() {
+			return takeBefore(Long.MAX_VALUE);
+		}
+
+		/**
+		 * @return the next published broadcast of a type the owner reads from
+		 *         the ring, if its sequence number is below {@code sequence},
+		 *         or null otherwise.
+		 */
+		Message takeBefore(long sequence) {
+			Entry entry;
+			while ((entry = takeEntryBefore(sequence)) == UNWRITTEN) {
+				Thread.yield();
+			}
+			if (entry == null) {
+				return null;
+			}
+			if (BusMetrics.ENABLED) {
+				BusMetrics.getInstance().recordWait(owner.getOwner(), entry.message, System.nanoTime() - entry.publishedAt);
+			}
+			if (BusTracer.ENABLED) {
+				BusTracer.getInstance().instant("dequeue", entry.message, owner.getOwner());
+			}
+			return entry.message;
+		}
+
+		/**
+		 * @return the next published broadcast of a type the owner reads from
+		 *         the ring, without taking it, or null if there is none.
+		 */
+		Message peek() {
+			return peekBefore(Long.MAX_VALUE);
+		}
+
+		/**
+		 * @return the next published broadcast of a type the owner reads from
+		 *         the ring, without taking it, if its sequence number is below
+		 *         {@code sequence}, or null otherwise.
+		 */
+		Message peekBefore(long sequence) {
+			Entry first = spilled.peek();
+			if (first != null) {
+				return first.sequence < sequence ? first.message : null;
+			}
+			long end = Math.min(claimed.get(), sequence);
+			for (long current = position.get(); current < end; current++) {
+				Entry entry = slots.get((int) current & mask);
+				if (entry == null || entry.sequence != current) {
+					return null;
+				}
+				if (owner.readsFromRing(entry.message.getClass(), entry.sequence)) {
+					return entry.message;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return the sequence number the next broadcast published to the ring
+		 *         will get, which orders the ring against other queues.
+		 */
+		long nextSequence() {
+			return claimed.get();
+		}
+
+		/**
+		 * @return the number of published broadcasts the owner reads from the
+		 *         ring and has not read yet, including the ones moved aside.
+		 */
+		int backlog() {
+			int backlog = spilled.size();
+			long end = claimed.get();
+			for (long current = position.get(); current < end; current++) {
+				Entry entry = slots.get((int) current & mask);
+				if (entry != null && entry.sequence == current && owner.readsFromRing(entry.message.getClass(), entry.sequence)) {
+					backlog++;
+				}
+			}
+			return backlog;
+		}
+
+		/**
+		 * Removes the reader from the ring, which stops waiting for it.
+		 */
+		void leave() {
+			BroadcastRing.this.leave(this);
+		}
+
+		// Takes the next entry the owner reads, below the sequence, the spilled
+		// ones first, as they are older than anything left in the ring
+		private synchronized Entry takeEntryBefore(long sequence) {
+			Entry entry = spilled.peek();
+			if (entry != null) {
+				return entry.sequence < sequence ? spilled.poll() : null;
+			}
+			return next(sequence);
+		}
+
+		// Moves the readable entries before the sequence aside, and wakes the
+		// owner. Returns false if it stopped at an entry not written yet
+		private synchronized boolean spill(long limit) {
+			boolean moved = false;
+			Entry entry;
+			while ((entry = next(limit)) != null && entry != UNWRITTEN) {
+				spilled.offer(entry);
+				moved = true;
+			}
+			if (moved) {
+				owner.signal();
+			}
+			return entry == null;
+		}
+
+		// Advances the cursor to the next entry the owner reads, below the
+		// limit. Returns UNWRITTEN, without advancing, at an entry claimed but
+		// not written yet, so the caller waits for it without the lock
+		private Entry next(long limit) {
+			while (true) {
+				long current = position.get();
+				if (current >= limit) {
+					return null;
+				}
+				Entry entry = slots.get((int) current & mask);
+				if (entry == null || entry.sequence < current) {
+					if (current >= claimed.get()) {
+						return null; // nothing more was published
+					}
+					return UNWRITTEN;
+				}
+				position.set(current + 1);
+				if (entry.sequence == current && owner.readsFromRing(entry.message.getClass(), entry.sequence)) {
+					return entry;
+				}
+			}
+		}
+	}
+
+	// A published broadcast, its sequence number, and when it was published
+	// if metrics are on
+	private static final class Entry {
+		private final long sequence;
+		private final Message message;
+		private final long publishedAt;
+
+		private Entry(long sequence, Message message, long publishedAt) {
+			this.sequence = sequence;
+			this.message = message;
+			this.publishedAt = publishedAt;
+		}
+	}
+}
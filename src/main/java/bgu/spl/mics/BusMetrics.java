@@ -0,0 +1,299 @@
+package bgu.spl.mics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Records how the {@link MessageBusImpl} is used, per message type and per
+ * micro-service: how many messages are sent and received, how deep the
+ * queues get, how long messages wait in a queue before they are taken, and
+ * how long their callbacks run.
+ * <p>
+ * The metrics are off unless the JVM is started with
+ * {@code -Dbgu.spl.mics.metrics=true}. Every recording call site checks the
+ * constant {@link #ENABLED} first, so when the metrics are off the JIT removes
+ * the instrumentation altogether. When they are on, the metrics are exported
+ * as MBeans under the {@code bgu.spl.mics} JMX domain, and can be printed
+ * periodically with {@link #startDump(long, TimeUnit)}.
+ */
+public final class BusMetrics implements BusMetricsMBean {
+
+	/**
+	 * Whether the metrics are recorded, fixed when the class is loaded.
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean("bgu.spl.mics.metrics");
+
+	private static final String DOMAIN = "bgu.spl.mics";
+
+	//Fields
+	private final Map<Class<? extends Message>, MessageTypeMetrics> types;
+	private final Map<MicroService, ServiceMetrics> services;
+	private volatile ScheduledExecutorService dumper;
+
+	private static class BusMetricsHolder {
+		private static final BusMetrics instance = new BusMetrics();
+	}
+
+	//Constructor
+	private BusMetrics() {
+		types = new ConcurrentHashMap<>();
+		services = new ConcurrentHashMap<>();
+		register(this, BusMetricsMBean.class, DOMAIN + ":type=MessageBus");
+	}
+
+	//Methods
+	public static BusMetrics getInstance() {
+		return BusMetricsHolder.instance;
+	}
+
+	/**
+	 * Records that a message of type {@code type} was sent.
+	 */
+	void recordSent(Class<? extends Message> type) {
+		of(type).sent.increment();
+	}
+
+	/**
+	 * Records the depth of {@code service}'s queue after a message was added.
+	 */
+	void recordDepth(MicroService service, int depth) {
+		AtomicInteger highWater = of(service).highWater;
+		int current;
+		while (depth > (current = highWater.get()) && !highWater.compareAndSet(current, depth)) {
+			// another sender raised the high-water mark meanwhile, check again
+		}
+	}
+
+	/**
+	 * Records that {@code service} took {@code message} from its queue after
+	 * it waited there for {@code nanos} nanoseconds.
+	 */
+	void recordWait(MicroService service, Message message, long nanos) {
+		MessageTypeMetrics typeMetrics = of(message.getClass());
+		typeMetrics.received.increment();
+		typeMetrics.wait.record(nanos);
+		ServiceMetrics serviceMetrics = of(service);
+		serviceMetrics.received.increment();
+		serviceMetrics.wait.record(nanos);
+	}
+
+	/**
+	 * Records that {@code service}'s callback for {@code message} ran for
+	 * {@code nanos} nanoseconds.
+	 */
+	void recordHandled(MicroService service, Message message, long nanos) {
+		of(message.getClass()).handle.record(nanos);
+		of(service).handle.record(nanos);
+	}
+
+	/**
+	 * Prints {@link #dump()} to the standard output every {@code period}, on a
+	 * daemon thread, until {@link #stopDump()} is called.
+	 */
+	public synchronized void startDump(long period, TimeUnit unit) {
+		stopDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "bus-metrics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> System.out.print(dump()), period, period, unit);
+	}
+
+	/**
+	 * Stops the periodic dump, if it was started.
+	 */
+	public synchronized void stopDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	@Override
+	public String[] getMessageTypes() {
+		return types.keySet().stream().map(Class::getSimpleName).sorted().toArray(String[]::new);
+	}
+
+	@Override
+	public String[] getServices() {
+		return services.keySet().stream().map(MicroService::getName).sorted().toArray(String[]::new);
+	}
+
+	@Override
+	public String dump() {
+		Map<String, MessageTypeMetrics> sortedTypes = new TreeMap<>();
+		types.forEach((type, metrics) -> sortedTypes.put(type.getSimpleName(), metrics));
+		Map<String, ServiceMetrics> sortedServices = new TreeMap<>();
+		services.forEach((service, metrics) -> sortedServices.put(service.getName(), metrics));
+
+		StringBuilder report = new StringBuilder("Message bus metrics (wait and handle times in us: p50/p99/max)\n");
+		sortedTypes.forEach((name, metrics) -> report.append(String.format(
+				"  %-24s sent=%-8d received=%-8d wait=%s handle=%s%n",
+				name, metrics.getSentCount(), metrics.getReceivedCount(),
+				format(metrics.wait), format(metrics.handle))));
+		sortedServices.forEach((name, metrics) -> report.append(String.format(
+				"  %-24s received=%-8d depth=%d/%d wait=%s handle=%s%n",
+				name, metrics.getReceivedCount(), metrics.getQueueDepth(), metrics.getQueueDepthHighWater(),
+				format(metrics.wait), format(metrics.handle))));
+		return report.toString();
+	}
+
+	private MessageTypeMetrics of(Class<? extends Message> type) {
+		MessageTypeMetrics metrics = types.get(type);
+		return metrics != null ? metrics : types.computeIfAbsent(type, MessageTypeMetrics::new);
+	}
+
+	private ServiceMetrics of(MicroService service) {
+		ServiceMetrics metrics = services.get(service);
+		return metrics != null ? metrics : services.computeIfAbsent(service, ServiceMetrics::new);
+	}
+
+	private static String format(LatencyHistogram histogram) {
+		return micros(histogram.percentile(50)) + "/" + micros(histogram.percentile(99)) + "/" + micros(histogram.getMax());
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	// Registers an MBean, adding a suffix to the name if it is already taken
+	private static <T> void register(T bean, Class<T> view, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			for (int i = 2; server.isRegistered(objectName); i++) {
+				objectName = new ObjectName(name + "-" + i);
+			}
+			server.registerMBean(new StandardMBean(bean, view), objectName);
+		} catch (JMException e) {
+			System.err.println("Could not register the metrics MBean " + name + ": " + e);
+		}
+	}
+
+	// The metrics of a single message type
+	private static final class MessageTypeMetrics implements MessageTypeMetricsMBean {
+		private final LongAdder sent = new LongAdder();
+		private final LongAdder received = new LongAdder();
+		private final LatencyHistogram wait = new LatencyHistogram();
+		private final LatencyHistogram handle = new LatencyHistogram();
+
+		private MessageTypeMetrics(Class<? extends Message> type) {
+			register(this, MessageTypeMetricsMBean.class,
+					DOMAIN + ":type=MessageType,name=" + ObjectName.quote(type.getSimpleName()));
+		}
+
+		@Override
+		public long getSentCount() {
+			return sent.sum();
+		}
+
+		@Override
+		public long getReceivedCount() {
+			return received.sum();
+		}
+
+		@Override
+		public long getWaitTimeP50() {
+			return micros(wait.percentile(50));
+		}
+
+		@Override
+		public long getWaitTimeP99() {
+			return micros(wait.percentile(99));
+		}
+
+		@Override
+		public long getWaitTimeMax() {
+			return micros(wait.getMax());
+		}
+
+		@Override
+		public long getHandleTimeP50() {
+			return micros(handle.percentile(50));
+		}
+
+		@Override
+		public long getHandleTimeP99() {
+			return micros(handle.percentile(99));
+		}
+
+		@Override
+		public long getHandleTimeMax() {
+			return micros(handle.getMax());
+		}
+	}
+
+	// The metrics of a single micro-service
+	private static final class ServiceMetrics implements ServiceMetricsMBean {
+		private final MicroService service;
+		private final LongAdder received = new LongAdder();
+		private final AtomicInteger highWater = new AtomicInteger(0);
+		private final LatencyHistogram wait = new LatencyHistogram();
+		private final LatencyHistogram handle = new LatencyHistogram();
+
+		private ServiceMetrics(MicroService service) {
+			this.service = service;
+			register(this, ServiceMetricsMBean.class,
+					DOMAIN + ":type=MicroService,name=" + ObjectName.quote(service.getName()));
+		}
+
+		@Override
+		public long getReceivedCount() {
+			return received.sum();
+		}
+
+		@Override
+		public int getQueueDepth() {
+			Mailbox queue = service.getBus().getQueues().get(service);
+			return queue == null ? 0 : queue.depth();
+		}
+
+		@Override
+		public int getQueueDepthHighWater() {
+			return highWater.get();
+		}
+
+		@Override
+		public long getWaitTimeP50() {
+			return micros(wait.percentile(50));
+		}
+
+		@Override
+		public long getWaitTimeP99() {
+			return micros(wait.percentile(99));
+		}
+
+		@Override
+		public long getWaitTimeMax() {
+			return micros(wait.getMax());
+		}
+
+		@Override
+		public long getHandleTimeP50() {
+			return micros(handle.percentile(50));
+		}
+
+		@Override
+		public long getHandleTimeP99() {
+			return micros(handle.percentile(99));
+		}
+
+		@Override
+		public long getHandleTimeMax() {
+			return micros(handle.getMax());
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics;
+
+/**
+ * The JMX view of the {@link BusMetrics} as a whole.
+ */
+public interface BusMetricsMBean {
+
+    /**
+     * @return the names of the message types seen so far.
+     */
+    String[] getMessageTypes();
+
+    /**
+     * @return the names of the micro-services seen so far.
+     */
+    String[] getServices();
+
+    /**
+     * @return a human readable report of all the metrics.
+     */
+    String dump();
+}
@@ -0,0 +1,219 @@
+package bgu.spl.mics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the life of every message on the {@link MessageBusImpl}: when it is
+ * sent, added to a queue, taken from it, handled by a callback, and when an
+ * event is completed. The trace is written in the Chrome trace-event format,
+ * which chrome://tracing and https://ui.perfetto.dev can load; each thread is
+ * a track, callbacks are slices, and arrows connect a message's sending to its
+ * handling.
+ * <p>
+ * The tracer is off unless the JVM is started with
+ * {@code -Dbgu.spl.mics.trace=<file>}; every call site checks the constant
+ * {@link #ENABLED} first, so it costs nothing when off. Each thread records
+ * into its own fixed-size ring, without any locking, keeping its latest
+ * {@value #EVENTS_PER_THREAD} events. The trace is written by
+ * {@link #write()} once the run is over.
+ */
+public final class BusTracer {
+
+	/**
+	 * The file the trace is written to, or null if tracing is off.
+	 */
+	public static final String TRACE_FILE = System.getProperty("bgu.spl.mics.trace");
+
+	/**
+	 * Whether tracing is on, fixed when the class is loaded.
+	 */
+	public static final boolean ENABLED = TRACE_FILE != null;
+
+	private static final int EVENTS_PER_THREAD = 1 << 16;
+
+	// Chrome trace-event phases
+	static final char INSTANT = 'i';
+	static final char SLICE = 'X';
+	static final char FLOW_START = 's';
+	static final char FLOW_END = 'f';
+
+	//Fields
+	private final Queue<TraceBuffer> buffers;
+	private final ThreadLocal<TraceBuffer> buffer;
+	private final long origin;
+	private volatile int currentTick;
+
+	private static class BusTracerHolder {
+		private static final BusTracer instance = new BusTracer();
+	}
+
+	//Constructor
+	private BusTracer() {
+		buffers = new ConcurrentLinkedQueue<>();
+		buffer = ThreadLocal.withInitial(() -> {
+			TraceBuffer created = new TraceBuffer(Thread.currentThread());
+			buffers.add(created);
+			return created;
+		});
+		origin = System.nanoTime();
+		currentTick = 0;
+	}
+
+	//Methods
+	public static BusTracer getInstance() {
+		return BusTracerHolder.instance;
+	}
+
+	/**
+	 * Sets the tick that events recorded from now on are tagged with.
+	 */
+	public void setCurrentTick(int tick) {
+		currentTick = tick;
+	}
+
+	/**
+	 * Records an instant event on the calling thread.
+	 * <p>
+	 * @param name    what happened, e.g. "send".
+	 * @param message the message it happened to.
+	 * @param service the micro-service involved, or null.
+	 */
+	void instant(String name, Message message, MicroService service) {
+		buffer.get().add(INSTANT, name, message, service, System.nanoTime() - origin, 0L, currentTick);
+	}
+
+	/**
+	 * Records the start of an arrow from the calling thread to the handling
+	 * of {@code message}.
+	 */
+	void flowStart(Message message) {
+		buffer.get().add(FLOW_START, "message", message, null, System.nanoTime() - origin, 0L, currentTick);
+	}
+
+	/**
+	 * Records that {@code service}'s callback for {@code message} ran on the
+	 * calling thread from {@code startNanos} (a {@link System#nanoTime()}) until now.
+	 */
+	void callback(Message message, MicroService service, long startNanos) {
+		long start = startNanos - origin;
+		TraceBuffer current = buffer.get();
+		current.add(SLICE, message.getClass().getSimpleName(), message, service, start, System.nanoTime() - startNanos, currentTick);
+		current.add(FLOW_END, "message", message, service, start, 0L, currentTick);
+	}
+
+	/**
+	 * Writes everything recorded so far to {@link #TRACE_FILE}.
+	 * <p>
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write() throws IOException {
+		try (Writer out = Files.newBufferedWriter(Paths.get(TRACE_FILE), StandardCharsets.UTF_8)) {
+			out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+			boolean first = true;
+			for (TraceBuffer traced : buffers) {
+				if (!first) {
+					out.write(",\n");
+				}
+				first = false;
+				out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + traced.threadId
+						+ ",\"args\":{\"name\":" + quote(traced.threadName) + "}}");
+				for (String event : traced.events()) {
+					out.write(",\n");
+					out.write(event);
+				}
+			}
+			out.write("\n]}\n");
+		}
+	}
+
+	private static String quote(String text) {
+		StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+		for (char c : text.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < ' ') {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	// The latest events of one thread. Only the owning thread adds to it
+	private static final class TraceBuffer {
+		private final long threadId;
+		private final String threadName;
+		private final char[] phases = new char[EVENTS_PER_THREAD];
+		private final String[] names = new String[EVENTS_PER_THREAD];
+		private final String[] types = new String[EVENTS_PER_THREAD];
+		private final int[] ids = new int[EVENTS_PER_THREAD];
+		private final String[] services = new String[EVENTS_PER_THREAD];
+		private final long[] timestamps = new long[EVENTS_PER_THREAD];
+		private final long[] durations = new long[EVENTS_PER_THREAD];
+		private final int[] ticks = new int[EVENTS_PER_THREAD];
+		private long recorded; // the number of events ever added
+
+		private TraceBuffer(Thread thread) {
+			this.threadId = thread.getId();
+			this.threadName = thread.getName();
+		}
+
+		private void add(char phase, String name, Message message, MicroService service,
+				long timestamp, long duration, int tick) {
+			int slot = (int) (recorded++ & (EVENTS_PER_THREAD - 1));
+			phases[slot] = phase;
+			names[slot] = name;
+			types[slot] = message.getClass().getSimpleName();
+			ids[slot] = System.identityHashCode(message);
+			services[slot] = service == null ? null : service.getName();
+			timestamps[slot] = timestamp;
+			durations[slot] = duration;
+			ticks[slot] = tick;
+		}
+
+		// The kept events as trace-event JSON objects, oldest first
+		private List<String> events() {
+			List<String> events = new ArrayList<>();
+			long end = recorded;
+			for (long i = Math.max(0, end - EVENTS_PER_THREAD); i < end; i++) {
+				int slot = (int) (i & (EVENTS_PER_THREAD - 1));
+				StringBuilder event = new StringBuilder(160);
+				event.append("{\"ph\":\"").append(phases[slot]).append("\",\"pid\":1,\"tid\":").append(threadId)
+						.append(",\"ts\":").append(micros(timestamps[slot]));
+				if (phases[slot] == SLICE) {
+					event.append(",\"dur\":").append(micros(durations[slot]));
+				} else if (phases[slot] == INSTANT) {
+					event.append(",\"s\":\"t\"");
+				} else {
+					event.append(",\"cat\":\"message\",\"id\":").append(ids[slot]);
+					if (phases[slot] == FLOW_END) {
+						event.append(",\"bp\":\"e\"");
+					}
+				}
+				event.append(",\"name\":").append(quote(phases[slot] == INSTANT ? names[slot] + " " + types[slot] : names[slot]))
+						.append(",\"args\":{\"type\":").append(quote(types[slot]))
+						.append(",\"id\":").append(ids[slot])
+						.append(",\"tick\":").append(ticks[slot]);
+				if (services[slot] != null) {
+					event.append(",\"service\":").append(quote(services[slot]));
+				}
+				events.add(event.append("}}").toString());
+			}
+			return events;
+		}
+
+		private static String micros(long nanos) {
+			return String.format("%d.%03d", TimeUnit.NANOSECONDS.toMicros(nanos), nanos % 1000);
+		}
+	}
+}
@@ -5,8 +5,16 @@ package bgu.spl.mics;
  * Event message expects to receive a result of type {@code <T>} when a
  * micro-service that received the request has completed handling it.
  * When sending an event, it will be received only by a single subscriber in a
- * Round-Robin fashion.
+ * Round-Robin fashion, unless another {@link RoutingPolicy} is set for its type.
  */
 public interface Event<T> extends Message {
 
+    /**
+     * @return the key that the {@link RoutingPolicy#CONSISTENT_HASH} policy
+     *         routes this event by, or null if it has none. Events with equal
+     *         keys are sent to the same subscriber.
+     */
+    default Object getRoutingKey() {
+        return null;
+    }
 }
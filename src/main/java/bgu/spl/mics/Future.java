@@ -1,64 +1,114 @@
 package bgu.spl.mics;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
 
 /**
  * A Future object represents a promised result - an object that will
  * eventually be resolved to hold a result of some operation. The class allows
- * Retrieving the result once it is available.
- * 
- * Only private methods may be added to this class.
+ * Retrieving the result once it is available, either by waiting for it or by
+ * registering a {@link Callback} that is called with it.
+ * <p>
+ * The Future holds no lock: its state is a single atomic reference, and the
+ * threads waiting for it and the registered callbacks are kept in a lock-free
+ * stack that is emptied exactly once, by the thread that resolves it. A timed
+ * wait that gives up unlinks its node, so a Future that is never resolved
+ * does not accumulate them.
+ * <p>
+ * A callback runs on whichever thread resolves the Future, such as a
+ * micro-service's event loop or a link's reader, so an exception it throws
+ * is reported on the standard error rather than thrown to that thread.
+ *
+ * Only private methods may be added to this class, besides the non-blocking
+ * {@link #onComplete}, {@link #thenApply}, {@link #allOf} and {@link #anyOf},
+ * and the package-private {@link #waiterCount} the tests inspect.
  * No public constructor is allowed except for the empty constructor.
  */
 public class Future<T> {
 	//Fields
-	private T resolvedResult = null;
-	private boolean isResolved = false;
-	
+	private static final Object PENDING = new Object(); // not resolved yet
+	private static final Object NULL_RESULT = new Object(); // resolved with null
+	private static final Node DONE = new Node(null, null); // the stack was already emptied
+
+	private final AtomicReference<Object> outcome = new AtomicReference<>(PENDING);
+	private final AtomicReference<Node> waiters = new AtomicReference<>(null);
+
 	/**
 	 * This should be the the only public constructor in this class.
 	 */
 	public Future() {
 
 	}
-	
+
 	/**
      * retrieves the result the Future object holds if it has been resolved.
      * This is a blocking method! It waits for the computation in case it has
      * not been completed.
      * <p>
      * @return return the result of type T if it is available, if not wait until it is available.
-     * 	       
+     *
      */
-	public synchronized T get() {
-		while (!isResolved) {
-			try {
-				wait(); // waits until another thread notify/interrupt it
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt(); // Restore the interrupted status of the thread,
-			}										// as it gets cleared when InterruptedException is thrown. 										
+	public T get() {
+		if (!isDone()) {
+			boolean interrupted = false;
+			if (push(new Node(Thread.currentThread(), null))) {
+				while (!isDone()) {
+					LockSupport.park(this);
+					interrupted |= Thread.interrupted(); // keep waiting, as before
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt(); // Restore the interrupted status of the thread
+			}
 		}
-		return resolvedResult;
+		return result();
 	}
-	
+
 	/**
      * Resolves the result of this Future object.
+     * Only the first call has an effect. The waiting threads are woken first,
+     * then the callbacks registered with {@link #onComplete(Callback)} are
+     * called on the calling thread, in registration order. A callback that
+     * throws is reported, and does not keep the others from being called.
      */
-	public synchronized void resolve(T result) {
-		if (!isResolved) {
-			this.resolvedResult = result;
-			this.isResolved = true;
-			notifyAll(); 
+	public void resolve(T result) {
+		if (!outcome.compareAndSet(PENDING, result == null ? NULL_RESULT : result)) {
+			return;
+		}
+
+		// Take the whole stack, later registrations see DONE and run directly
+		Node head = waiters.getAndSet(DONE);
+		if (head == null) {
+			return;
+		}
+		List<Node> callbacks = new ArrayList<>();
+		for (Node node = head; node != null; node = node.next) {
+			if (node.thread != null) {
+				LockSupport.unpark(node.thread);
+			} else {
+				callbacks.add(node);
+			}
+		}
+
+		// The stack is newest first, so it is called backwards
+		for (int i = callbacks.size() - 1; i >= 0; i--) {
+			callbacks.get(i).call(result);
 		}
 	}
-	
+
 	/**
      * @return true if this object has been resolved, false otherwise
      */
-	public synchronized boolean isDone() {
-		return isResolved;
+	public boolean isDone() {
+		return outcome.get() != PENDING;
 	}
-	
+
 	/**
      * retrieves the result the Future object holds if it has been resolved,
      * This method is non-blocking, it has a limited amount of time determined
@@ -66,19 +116,208 @@ public class Future<T> {
      * <p>
      * @param timout 	the maximal amount of time units to wait for the result.
      * @param unit		the {@link TimeUnit} time units to wait.
-     * @return return the result of type T if it is available, if not, 
+     * @return return the result of type T if it is available, if not,
      * 	       wait for {@code timeout} TimeUnits {@code unit}. If time has
      *         elapsed, return null.
      */
-	public synchronized T get(long timeout, TimeUnit unit) {
-        if (!isResolved) {
-            try {
-                unit.timedWait(this, timeout); //waits the limited time
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); //handles interruption like before
-            }
-        }
-        return isResolved ? resolvedResult : null; // if the limited time has passed returns null
-    }
+	public T get(long timeout, TimeUnit unit) {
+		Node node;
+		if (!isDone() && push(node = new Node(Thread.currentThread(), null))) {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			long remaining;
+			while (!isDone() && (remaining = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, remaining); //waits the limited time
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt(); //handles interruption like before
+					break;
+				}
+			}
+			if (!isDone()) {
+				remove(node); // gave up, so resolve need not wake it
+			}
+		}
+		return isDone() ? result() : null; // if the limited time has passed returns null
+	}
+
+	/**
+	 * Registers {@code callback} to be called with the result once this Future
+	 * is resolved. This method is non-blocking: the callback is called by the
+	 * thread that resolves the Future, or right away by the calling thread if
+	 * it is already resolved. Either way an exception it throws is reported
+	 * rather than thrown.
+	 * <p>
+	 * @param callback the callback to call with the result.
+	 */
+	public void onComplete(Callback<? super T> callback) {
+		Node node = new Node(null, callback);
+		if (!push(node)) {
+			node.call(result());
+		}
+	}
+
+	/**
+	 * Returns a Future that is resolved with {@code function} applied to the
+	 * result of this Future, once it is resolved. {@code function} runs on the
+	 * thread that resolves this Future. If it throws, the returned Future is
+	 * resolved with null, so no one waits for it forever, and the exception
+	 * is reported as that of any callback.
+	 * <p>
+	 * @param <U>      the type of the new result.
+	 * @param function the function to apply to the result.
+	 * @return a Future of the new result.
+	 */
+	public <U> Future<U> thenApply(Function<? super T, ? extends U> function) {
+		Future<U> applied = new Future<>();
+		onComplete(result -> {
+			U value = null;
+			try {
+				value = function.apply(result);
+			} finally {
+				applied.resolve(value);
+			}
+		});
+		return applied;
+	}
+
+	/**
+	 * Returns a Future that is resolved once all of {@code futures} are
+	 * resolved, with the list of their results in the same order.
+	 * <p>
+	 * @param <T>     the type of the results.
+	 * @param futures the futures to wait for.
+	 * @return a Future of all the results.
+	 */
+	public static <T> Future<List<T>> allOf(List<? extends Future<? extends T>> futures) {
+		Future<List<T>> all = new Future<>();
+		if (futures.isEmpty()) {
+			all.resolve(new ArrayList<>());
+			return all;
+		}
+
+		Object[] results = new Object[futures.size()];
+		AtomicInteger remaining = new AtomicInteger(futures.size());
+		for (int i = 0; i < futures.size(); i++) {
+			int index = i;
+			futures.get(i).onComplete(result -> {
+				results[index] = result;
+				if (remaining.decrementAndGet() == 0) { // the last one publishes all results
+					all.resolve(toList(results));
+				}
+			});
+		}
+		return all;
+	}
+
+	/**
+	 * Returns a Future that is resolved with the result of the first of
+	 * {@code futures} to be resolved.
+	 * <p>
+	 * @param <T>     the type of the results.
+	 * @param futures the futures to wait for.
+	 * @return a Future of the first result.
+	 * @throws IllegalArgumentException if {@code futures} is empty, as there
+	 *         would be no result to resolve it with.
+	 */
+	public static <T> Future<T> anyOf(List<? extends Future<? extends T>> futures) {
+		if (futures.isEmpty()) {
+			throw new IllegalArgumentException("anyOf needs at least one future");
+		}
+		Future<T> any = new Future<>();
+		for (Future<? extends T> future : futures) {
+			future.onComplete(any::resolve);
+		}
+		return any;
+	}
+
+	// Pushes a node on the stack, fails if the Future was already resolved
+	private boolean push(Node node) {
+		while (true) {
+			Node head = waiters.get();
+			if (head == DONE) {
+				return false;
+			}
+			node.next = head;
+			if (waiters.compareAndSet(head, node)) {
+				return true;
+			}
+		}
+	}
+
+	// Unlinks the node of a thread that stopped waiting. Nodes are only ever
+	// pushed at the head, so a pass that met no concurrent removal is final
+	private void remove(Node node) {
+		node.removed = true;
+		retry:
+		while (true) {
+			Node previous = null;
+			Node current = waiters.get();
+			if (current == DONE) {
+				return; // resolve took the stack, and skips nothing but a wake-up
+			}
+			while (current != null) {
+				Node next = current.next;
+				if (!current.removed) {
+					previous = current;
+				} else if (previous != null) {
+					previous.next = next;
+					if (previous.removed) {
+						continue retry; // previous was unlinked meanwhile
+					}
+				} else if (!waiters.compareAndSet(current, next)) {
+					continue retry;
+				}
+				current = next;
+			}
+			return;
+		}
+	}
+
+	/**
+	 * @return the number of threads and callbacks waiting for the result.
+	 */
+	int waiterCount() {
+		int count = 0;
+		Node head = waiters.get();
+		for (Node node = head == DONE ? null : head; node != null; node = node.next) {
+			count++;
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T result() {
+		Object current = outcome.get();
+		return current == NULL_RESULT ? null : (T) current;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(Object[] results) {
+		return new ArrayList<>((List<T>) Arrays.asList(results));
+	}
+
+	// A thread waiting for the result, or a callback to call with it
+	private static final class Node {
+		private final Thread thread;
+		private final Callback<?> callback;
+		private volatile Node next;
+		private volatile boolean removed; // the thread stopped waiting
+
+		private Node(Thread thread, Callback<?> callback) {
+			this.thread = thread;
+			this.callback = callback;
+		}
+
+		// Calls the callback, reporting what it throws on one line
+		@SuppressWarnings("unchecked")
+		private void call(Object result) {
+			try {
+				((Callback<Object>) callback).call(result);
+			} catch (RuntimeException e) {
+				StackTraceElement[] stack = e.getStackTrace();
+				System.err.println("Future callback failed: " + e
+						+ (stack.length > 0 ? " at " + stack[0] : ""));
+			}
+		}
+	}
 
 }
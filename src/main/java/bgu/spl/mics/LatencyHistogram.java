@@ -0,0 +1,84 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with power-of-two buckets.
+ * <p>
+ * Recording a value costs a few atomic increments and never allocates or
+ * locks, so it can be called on every message. Percentiles are reported as
+ * the upper bound of the bucket they fall in, so they are accurate to within
+ * a factor of two.
+ */
+final class LatencyHistogram {
+
+	//Fields
+	private static final int BUCKETS = 64;
+	private final AtomicLongArray buckets; // bucket i holds values below 2^i
+	private final LongAdder count;
+	private final LongAdder total;
+	private final AtomicLong max;
+
+	//Constructor
+	LatencyHistogram() {
+		this.buckets = new AtomicLongArray(BUCKETS);
+		this.count = new LongAdder();
+		this.total = new LongAdder();
+		this.max = new AtomicLong(0);
+	}
+
+	//Methods
+	/**
+	 * Records a duration. Negative durations are recorded as zero.
+	 */
+	void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		buckets.incrementAndGet(Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1));
+		count.increment();
+		total.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+			// another thread raised the maximum meanwhile, check again
+		}
+	}
+
+	/**
+	 * @param percentile a percentile between 0 and 100.
+	 * @return an upper bound of the given percentile of the recorded durations
+	 *         in nanoseconds, or 0 if nothing was recorded.
+	 */
+	long percentile(double percentile) {
+		long recorded = count.sum();
+		if (recorded == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(recorded * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the mean of the recorded durations in nanoseconds, or 0 if
+	 *         nothing was recorded.
+	 */
+	long getMean() {
+		long recorded = count.sum();
+		return recorded == 0 ? 0 : total.sum() / recorded;
+	}
+
+	long getMax() {
+		return max.get();
+	}
+}
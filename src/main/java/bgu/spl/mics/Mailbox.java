@@ -0,0 +1,793 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Mailbox is the message-queue the {@link MessageBusImpl} allocates for a
+ * single registered {@link MicroService}.
+ * <p>
+ * Any number of threads may add messages to a mailbox concurrently, but only
+ * the owning micro-service takes them out (multi-producer, single-consumer).
+ * The queue itself is lock-free, and the consumer parks on the mailbox rather
+ * than on a shared monitor, so adding a message only ever wakes the one thread
+ * that is waiting for it.
+ * <p>
+ * A mailbox may be bounded (see {@link MailboxSettings}), in which case its
+ * {@link OverflowPolicy} decides what happens to messages added while it is
+ * full. Only senders blocked by the {@link OverflowPolicy#BLOCK} policy ever
+ * take a lock.
+ * <p>
+ * Broadcast types can be marked as coalescing: at most one message of such a
+ * type waits in the mailbox at any time, and a newer one replaces it in place,
+ * so a lagging micro-service only ever receives the latest one.
+ * <p>
+ * Messages of {@link MessagePriority#HIGH} priority wait in a separate lane,
+ * and are exempt from the capacity, so control messages are handled right
+ * away however long the data backlog is. Only the broadcasts read from the
+ * ring that were published before a control message are taken before it, so
+ * it never overtakes the broadcast, such as a tick, that caused it. Bounded
+ * mailboxes have their broadcasts added, and taken after control messages.
+ * Nor does a control message overtake the {@link ScheduledTask}s that are due:
+ * the bus announces the tasks due at a tick before adding any of them, and
+ * while an announced task is not taken yet, control messages wait behind the
+ * normal priority lane. So a task due at a tick always runs before the control
+ * messages other micro-services send in reaction to that tick.
+ * <p>
+ * An unbounded mailbox reads the normal priority broadcast types it
+ * subscribed to (without coalescing) from the message-bus's
+ * {@link BroadcastRing} rather than having them added to it, starting with
+ * the broadcasts published after it subscribed. Queued messages are stamped
+ * with the sequence number the next broadcast published to the ring will
+ * get, so a broadcast is taken after the normal priority messages added
+ * before it was published and before the ones added after, as if it had
+ * been added to the mailbox too.
+ * <p>
+ * While the mailbox is empty its consumer waits according to the mailbox's
+ * {@link WaitStrategy}. Only a consumer that parks until woken up publishes
+ * itself as the waiter, so senders to a spinning consumer never pay for an
+ * unpark.
+ * <p>
+ * Instead of a parked consumer thread, a mailbox may have an activation hook
+ * that is run whenever a message is added, which is how the
+ * {@link ActorScheduler} learns that a micro-service has work to do.
+ */
+public class Mailbox {
+
+	//Fields
+	private static final int SPINS_BEFORE_YIELD = 100;
+	private static final long PARK_NANOS = 10_000; // the sleep of TIMED_PARK between polls
+	private final MicroService owner;
+	private final Queue<Message> messages;
+	private final Queue<Message> urgent; // the high priority lane
+	private final AtomicInteger size;
+	private final AtomicInteger dueTasks; // announced scheduled tasks not taken yet
+	private final AtomicInteger unreadBroadcasts; // published to the ring for it, counted after publishing
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final WaitStrategy waitStrategy;
+	private final AtomicLong rejected;
+	private volatile Thread waiter; // the consumer thread, while it is parked
+	private volatile Thread consumer; // the last thread that took a message
+	private volatile long takenCount; // written only by the consumer
+	private volatile Runnable activation; // run on every add, for pooled micro-services
+	private volatile boolean closed;
+	private final Map<Class<? extends Message>, CoalescingSlot> coalescingSlots;
+	private final Map<Class<? extends Message>, Long> ringTypes; // broadcast types read from the ring, by the first sequence read
+	private volatile BroadcastRing.Reader ringReader; // once subscribed
+
+	// Senders waiting for free space under the BLOCK policy
+	private final ReentrantLock spaceLock;
+	private final Condition notFull;
+	private final AtomicInteger blockedSenders;
+
+	//Constructors
+	Mailbox(MicroService owner) {
+		this(owner, MailboxSettings.DEFAULT);
+	}
+
+	Mailbox(MicroService owner, MailboxSettings settings) {
+		this.owner = owner;
+		this.messages = new ConcurrentLinkedQueue<>();
+		this.urgent = new ConcurrentLinkedQueue<>();
+		this.size = new AtomicInteger(0);
+		this.dueTasks = new AtomicInteger(0);
+		this.unreadBroadcasts = new AtomicInteger(0);
+		this.capacity = settings.getCapacity();
+		this.policy = settings.getPolicy();
+		this.waitStrategy = settings.getWaitStrategy();
+		this.rejected = new AtomicLong(0);
+		this.waiter = null;
+		this.consumer = null;
+		this.takenCount = 0;
+		this.activation = null;
+		this.closed = false;
+		this.coalescingSlots = new ConcurrentHashMap<>();
+		this.ringTypes = new ConcurrentHashMap<>();
+		this.ringReader = null;
+		this.spaceLock = new ReentrantLock();
+		this.notFull = spaceLock.newCondition();
+		this.blockedSenders = new AtomicInteger(0);
+	}
+
+	//Methods
+	/**
+	 * Adds {@code message} to the back of the mailbox and wakes the owner if
+	 * it is waiting for a message. Safe to call from any thread.
+	 * <p>
+	 * If the mailbox is full the overflow policy is applied, which may block
+	 * the calling thread or drop a message.
+	 * <p>
+	 * @return the message that was dropped because of the overflow policy or
+	 *         because the mailbox is closed, or null if no message was dropped.
+	 */
+	Message add(Message message) {
+		Message dropped = addToLane(message);
+		if (dropped == message && message instanceof ScheduledTask) {
+			dueTasks.decrementAndGet();
+		}
+		return dropped;
+	}
+
+	/**
+	 * Tells the mailbox that a {@link ScheduledTask} is due and is about to be
+	 * added, so control messages wait until it is taken. Every task added to
+	 * the mailbox must be announced first.
+	 */
+	void announceTask() {
+		dueTasks.incrementAndGet();
+	}
+
+	private Message addToLane(Message message) {
+		CoalescingSlot slot = coalescingSlots.get(message.getClass());
+		if (slot != null) {
+			return addCoalescing(slot, message);
+		}
+		if (message.getPriority() == MessagePriority.HIGH) {
+			return addUrgent(message);
+		}
+
+		// A dropped message hands its room over to the new one, so at most
+		// one message is dropped per message added
+		Message dropped = null;
+		reserve:
+		while (!tryReserve()) {
+			if (closed) {
+				return message;
+			}
+			switch (policy) {
+				case BLOCK:
+					if (!awaitSpace()) {
+						rejected.incrementAndGet();
+						return message;
+					}
+					break;
+				case DROP_OLDEST:
+					Message oldest = messages.poll(); // never drops a high priority message
+					if (oldest != null) {
+						size.incrementAndGet(); // the room taken gives back is kept
+						rejected.incrementAndGet();
+						dropped = taken(oldest, false);
+						break reserve;
+					}
+					if (urgent.isEmpty()) {
+						Thread.yield(); // the room is reserved by a message being added
+					} else if (!awaitSpace()) { // high priority messages fill it, so wait for the consumer
+						rejected.incrementAndGet();
+						return message;
+					}
+					break;
+				case COALESCE:
+					Message sameType = removeOldestOfType(message.getClass());
+					rejected.incrementAndGet();
+					if (sameType == null) {
+						return message;
+					}
+					dropped = sameType;
+					break reserve;
+				default: // DROP_NEWEST
+					rejected.incrementAndGet();
+					return message;
+			}
+		}
+		messages.offer(stamp(message));
+		if (BusMetrics.ENABLED) {
+			BusMetrics.getInstance().recordDepth(owner, depth());
+		}
+		signal();
+		return dropped;
+	}
+
+	/**
+	 * @return the next message in line, high priority messages first, or null
+	 *         if the mailbox is empty. Must only be called by the consumer.
+	 */
+	Message poll() {
+		Message message = pollUrgent();
+		if (message == null) {
+			message = pollNormal();
+		}
+		if (message != null) {
+			takenCount++;
+		}
+		return message;
+	}
+
+	// Takes the next high priority message, unless a broadcast published to
+	// the ring before it was added comes first, or a due task is not taken yet
+	private Message pollUrgent() {
+		Message queued = urgent.peek();
+		if (queued == null || dueTasks.get() > 0) {
+			return null;
+		}
+		BroadcastRing.Reader reader = ringReader;
+		if (reader != null) {
+			Message broadcast = reader.takeBefore(sequenceOf(queued));
+			if (broadcast != null) {
+				unreadBroadcasts.decrementAndGet();
+				return broadcast;
+			}
+		}
+		return taken(urgent.poll(), true);
+	}
+
+	// Takes the next normal priority message: the next broadcast of the ring
+	// if it was published before the head of the lane was added, or that head
+	private Message pollNormal() {
+		BroadcastRing.Reader reader = ringReader;
+		if (reader != null) {
+			Message broadcast = reader.takeBefore(sequenceOf(messages.peek()));
+			if (broadcast != null) {
+				unreadBroadcasts.decrementAndGet();
+				return broadcast;
+			}
+		}
+		return taken(messages.poll(), true);
+	}
+
+	// Accounts for a message removed from one of the lanes, and records how
+	// long it waited if the consumer takes it
+	private Message taken(Message message, boolean consumed) {
+		if (message != null) {
+			size.decrementAndGet();
+			if (blockedSenders.get() > 0) {
+				signalNotFull();
+			}
+			long enqueuedAt = 0;
+			if (message instanceof Envelope) {
+				enqueuedAt = ((Envelope) message).enqueuedAt;
+				message = ((Envelope) message).message;
+			}
+			if (message instanceof CoalescingSlot) {
+				message = ((CoalescingSlot) message).latest.getAndSet(null);
+			}
+			if (message instanceof ScheduledTask) {
+				dueTasks.decrementAndGet();
+			}
+			if (BusMetrics.ENABLED && consumed && message != null) {
+				BusMetrics.getInstance().recordWait(owner, message, System.nanoTime() - enqueuedAt);
+			}
+			if (BusTracer.ENABLED && consumed && message != null) {
+				BusTracer.getInstance().instant("dequeue", message, owner);
+			}
+		}
+		return message;
+	}
+
+	// Wraps the message with the next sequence number of the ring, if the
+	// mailbox reads from it, and the time it was queued at, if metrics are on
+	private Message stamp(Message message) {
+		BroadcastRing.Reader reader = ringReader;
+		if (reader == null && !BusMetrics.ENABLED) {
+			return message;
+		}
+		long sequence = reader == null ? -1 : reader.nextSequence();
+		return new Envelope(message, BusMetrics.ENABLED ? System.nanoTime() : 0L, sequence);
+	}
+
+	private static Message unwrap(Message message) {
+		return message instanceof Envelope ? ((Envelope) message).message : message;
+	}
+
+	// The ring sequence number a queued message was stamped with. A message
+	// added before the mailbox joined the ring precedes all its broadcasts
+	private static long sequenceOf(Message queued) {
+		if (queued == null) {
+			return Long.MAX_VALUE;
+		}
+		return queued instanceof Envelope ? ((Envelope) queued).sequence : -1;
+	}
+
+	/**
+	 * Takes the next message in line, waiting according to the wait strategy
+	 * until one becomes available. Must only be called by the consumer.
+	 * <p>
+	 * @return the next message in line.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	Message take() throws InterruptedException {
+		return await(false, 0L);
+	}
+
+	/**
+	 * Takes the next message in line, waiting according to the wait strategy
+	 * for at most {@code nanos} nanoseconds until one becomes available. Must
+	 * only be called by the consumer.
+	 * <p>
+	 * @return the next message in line, or null if none arrived in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	Message take(long nanos) throws InterruptedException {
+		return await(true, System.nanoTime() + nanos);
+	}
+
+	/**
+	 * Moves up to {@code max} messages into {@code batch}, waiting only if the
+	 * mailbox is empty. Must only be called by the consumer.
+	 * <p>
+	 * @return the number of messages added to {@code batch} (at least one).
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	int drainTo(List<? super Message> batch, int max) throws InterruptedException {
+		batch.add(take());
+		int drained = 1;
+		Message message;
+		while (drained < max && (message = poll()) != null) {
+			batch.add(message);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Marks {@code type} as coalescing: from now on a message of this type
+	 * replaces the one of the same type already waiting in the mailbox, if any,
+	 * instead of being added behind it.
+	 */
+	void coalesce(Class<? extends Message> type) {
+		coalescingSlots.putIfAbsent(type, new CoalescingSlot());
+	}
+
+	/**
+	 * Makes the mailbox read the broadcasts of type {@code type} published to
+	 * {@code ring} from now on. Bounded mailboxes, whose overflow policy must
+	 * see every message, and coalesced types keep having broadcasts added to
+	 * them instead.
+	 * <p>
+	 * @return true if {@code type} is read from the ring.
+	 */
+	synchronized boolean readFromRing(BroadcastRing ring, Class<? extends Message> type) {
+		if (capacity != MailboxSettings.UNBOUNDED || coalescingSlots.containsKey(type) || closed) {
+			return false;
+		}
+		if (ringReader == null) {
+			ringReader = ring.join(this);
+		}
+		ringTypes.putIfAbsent(type, ringReader.nextSequence());
+		return true;
+	}
+
+	/**
+	 * @return true if broadcasts of type {@code type} are read from the ring.
+	 */
+	boolean readsFromRing(Class<? extends Message> type) {
+		return ringTypes.containsKey(type);
+	}
+
+	/**
+	 * @return true if the broadcast of type {@code type} published to the
+	 *         ring with sequence number {@code sequence} is read from there.
+	 *         The sender and the reader of a broadcast both ask, so it is
+	 *         either read from the ring or added to the mailbox, never both.
+	 */
+	boolean readsFromRing(Class<? extends Message> type, long sequence) {
+		Long first = ringTypes.get(type);
+		return first != null && sequence >= first;
+	}
+
+	/**
+	 * Sets the hook run after every message added to the mailbox.
+	 */
+	void setActivation(Runnable activation) {
+		this.activation = activation;
+	}
+
+	/**
+	 * Tells the mailbox which thread is currently consuming it, or with null
+	 * that none is. Called by consumers that do not use {@link #take()}.
+	 */
+	void bindConsumer(Thread thread) {
+		this.consumer = thread;
+	}
+
+	/**
+	 * Closes the mailbox: messages added from now on are dropped, and senders
+	 * blocked on it are released.
+	 */
+	void close() {
+		closed = true;
+		leaveRing();
+		spaceLock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			spaceLock.unlock();
+		}
+	}
+
+	// Waits for a message according to the wait strategy. Returns null only
+	// if the deadline passed
+	private Message await(boolean timed, long deadline) throws InterruptedException {
+		consumer = Thread.currentThread();
+		Message message = poll();
+		if (message != null) {
+			return message;
+		}
+		if (waitStrategy == WaitStrategy.BLOCKING) {
+			return awaitWakeUp(timed, deadline);
+		}
+
+		int spins = 0;
+		while ((message = poll()) == null) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (timed && deadline - System.nanoTime() <= 0) {
+				return null;
+			}
+			switch (waitStrategy) {
+				case BUSY_SPIN:
+					break;
+				case SPIN_YIELD:
+					if (++spins > SPINS_BEFORE_YIELD) {
+						Thread.yield();
+					}
+					break;
+				default: // TIMED_PARK
+					LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+		return message;
+	}
+
+	// Parks until a sender wakes us up
+	private Message awaitWakeUp(boolean timed, long deadline) throws InterruptedException {
+		Message message;
+		// Publish ourselves as the waiter before re-checking the queue, so a
+		// producer that enqueues after our check is guaranteed to unpark us
+		waiter = Thread.currentThread();
+		try {
+			while ((message = poll()) == null) {
+				if (timed) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			waiter = null;
+		}
+		return message;
+	}
+
+	private synchronized void leaveRing() {
+		if (ringReader != null) {
+			ringReader.leave();
+		}
+	}
+
+	// Queues a high priority message in its own lane, regardless of capacity
+	private Message addUrgent(Message message) {
+		if (closed) {
+			return message;
+		}
+		size.incrementAndGet();
+		urgent.offer(stamp(message));
+		if (BusMetrics.ENABLED) {
+			BusMetrics.getInstance().recordDepth(owner, depth());
+		}
+		signal();
+		return null;
+	}
+
+	// Publishes the message in its type's slot. The slot itself is queued only
+	// when it was empty, and is exempt from the capacity as it holds one message
+	private Message addCoalescing(CoalescingSlot slot, Message message) {
+		if (closed) {
+			return message;
+		}
+		if (slot.latest.getAndSet(message) == null) {
+			size.incrementAndGet();
+			messages.offer(stamp(slot));
+			signal();
+		}
+		return null;
+	}
+
+	// Reserves room for one message, fails if the mailbox is full. The consumer
+	// itself is never refused, as it cannot wait for itself to make room.
+	private boolean tryReserve() {
+		while (true) {
+			int current = size.get();
+			if (current >= capacity && Thread.currentThread() != consumer) {
+				return false;
+			}
+			if (size.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	// Blocks a sender until the consumer takes a message. Returns false if the
+	// sender was interrupted while waiting. Inside a ForkJoinPool the pool is
+	// told about the blocked worker, so it can keep the consumer running
+	private boolean awaitSpace() {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					spaceLock.lock();
+					blockedSenders.incrementAndGet();
+					try {
+						while (!isReleasable()) {
+							notFull.await();
+						}
+						return true;
+					} finally {
+						blockedSenders.decrementAndGet();
+						spaceLock.unlock();
+					}
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return closed || size.get() < capacity;
+				}
+			});
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void signalNotFull() {
+		spaceLock.lock();
+		try {
+			notFull.signal();
+		} finally {
+			spaceLock.unlock();
+		}
+	}
+
+	// Removes the oldest waiting message of the given type, if there is one,
+	// keeping its room for the message added in its place
+	private Message removeOldestOfType(Class<? extends Message> type) {
+		for (Message waiting : messages) {
+			if (unwrap(waiting).getClass() == type && messages.remove(waiting)) {
+				if (type == ScheduledTask.class) {
+					dueTasks.decrementAndGet();
+				}
+				return unwrap(waiting);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tells the mailbox that a broadcast it reads was published to the ring,
+	 * and wakes its consumer. Called by the sender after publishing.
+	 */
+	void published() {
+		unreadBroadcasts.incrementAndGet();
+		signal();
+	}
+
+	// Wakes the consumer if it is currently parked on this mailbox, or
+	// activates it if it is scheduled by a pool
+	void signal() {
+		Thread parked = waiter;
+		if (parked != null) {
+			LockSupport.unpark(parked);
+		}
+		Runnable hook = activation;
+		if (hook != null) {
+			hook.run();
+		}
+	}
+
+	//Getters
+	public MicroService getOwner() {
+		return owner;
+	}
+
+	/**
+	 * @return the number of messages currently waiting in the mailbox,
+	 *         including the broadcasts it has yet to read from the rings.
+	 */
+	public int size() {
+		BroadcastRing.Reader reader = ringReader;
+		return size.get() + (reader == null ? 0 : reader.backlog());
+	}
+
+	/**
+	 * @return the number of messages waiting in the mailbox, like
+	 *         {@link #size()} but in constant time, as it counts the
+	 *         broadcasts to read from the ring instead of scanning it. A
+	 *         broadcast being published may be taken before it is counted,
+	 *         so the depth lags behind for that long. Used where every
+	 *         message sent asks for it, i.e. load-based routing and metrics.
+	 */
+	public int depth() {
+		return size.get() + Math.max(0, unreadBroadcasts.get());
+	}
+
+	public boolean isEmpty() {
+		BroadcastRing.Reader reader = ringReader;
+		return size.get() == 0 && (reader == null || reader.peek() == null);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * @return the number of messages the overflow policy has rejected so far.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the message at the head of the mailbox without removing it, or
+	 *         null if the mailbox is empty.
+	 */
+	public Message peek() {
+		BroadcastRing.Reader reader = ringReader;
+		Message message = dueTasks.get() > 0 ? null : urgent.peek();
+		if (message != null) {
+			Message broadcast = reader == null ? null : reader.peekBefore(sequenceOf(message));
+			return broadcast != null ? broadcast : unwrap(message);
+		}
+		Message queued = messages.peek();
+		if (reader != null) {
+			Message broadcast = reader.peekBefore(sequenceOf(queued));
+			if (broadcast != null) {
+				return broadcast;
+			}
+		}
+		message = unwrap(queued);
+		if (message instanceof CoalescingSlot) {
+			message = ((CoalescingSlot) message).latest.get();
+		}
+		return message;
+	}
+
+	/**
+	 * @return up to {@code max} messages from the head of the mailbox in the
+	 *         order they would be taken, without removing them. Only the next
+	 *         broadcast of the ring is included, before or after the normal
+	 *         priority messages. Safe to call from any thread.
+	 */
+	public List<Message> head(int max) {
+		List<Message> head = new ArrayList<>(max);
+		BroadcastRing.Reader reader = ringReader;
+		Message broadcast = reader == null ? null : reader.peek();
+		// The broadcast goes before the first lane whose head was added after
+		// it. Control messages wait behind the due tasks
+		List<Queue<Message>> lanes = dueTasks.get() > 0 ? Arrays.asList(messages, urgent) : Arrays.asList(urgent, messages);
+		for (Queue<Message> lane : lanes) {
+			Message queued = lane.peek();
+			if (broadcast != null && queued != null && reader.peekBefore(sequenceOf(queued)) != null) {
+				addHead(head, broadcast, max);
+				broadcast = null;
+			}
+			addHead(head, lane, max);
+		}
+		addHead(head, broadcast, max);
+		return head;
+	}
+
+	private static void addHead(List<Message> head, Message broadcast, int max) {
+		if (broadcast != null && head.size() < max) {
+			head.add(broadcast);
+		}
+	}
+
+	private static void addHead(List<Message> head, Queue<Message> lane, int max) {
+		for (Message queued : lane) {
+			if (head.size() >= max) {
+				return;
+			}
+			Message message = unwrap(queued);
+			if (message instanceof CoalescingSlot) {
+				message = ((CoalescingSlot) message).latest.get();
+			}
+			if (message != null) {
+				head.add(message);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of messages the consumer has taken so far.
+	 */
+	public long getTakenCount() {
+		return takenCount;
+	}
+
+	/**
+	 * @return the thread that last took a message from the mailbox, or null
+	 *         if none did yet. For a micro-service run by the
+	 *         {@link ActorScheduler}, the worker running it at the moment, or
+	 *         null between runs.
+	 */
+	public Thread getConsumer() {
+		return consumer;
+	}
+
+	/**
+	 * @return true if {@code message} is still waiting in this mailbox.
+	 */
+	boolean contains(Message message) {
+		for (Queue<Message> lane : Arrays.asList(urgent, messages)) {
+			for (Message waiting : lane) {
+				if (unwrap(waiting).equals(message)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// A message together with the ring sequence number it was stamped with,
+	// used while the mailbox reads from the ring, and the time it was queued
+	// at, used while metrics are on
+	private static final class Envelope implements Message {
+		private final Message message;
+		private final long enqueuedAt;
+		private final long sequence;
+
+		private Envelope(Message message, long enqueuedAt, long sequence) {
+			this.message = message;
+			this.enqueuedAt = enqueuedAt;
+			this.sequence = sequence;
+		}
+	}
+
+	// Stands in the queue for the latest waiting message of a coalescing type
+	private static final class CoalescingSlot implements Message {
+		private final AtomicReference<Message> latest = new AtomicReference<>();
+	}
+}
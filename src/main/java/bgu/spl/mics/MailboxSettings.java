@@ -0,0 +1,57 @@
+package bgu.spl.mics;
+
+/**
+ * The settings a {@link Mailbox} is created with: how many messages it may
+ * hold, what happens to new messages once it is full, and how its owner waits
+ * for messages while it is empty.
+ */
+public final class MailboxSettings {
+
+	/**
+	 * The capacity of a mailbox that never rejects messages.
+	 */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	/**
+	 * The settings of a mailbox that never rejects messages.
+	 */
+	public static final MailboxSettings DEFAULT = new MailboxSettings(UNBOUNDED, OverflowPolicy.BLOCK);
+
+	//Fields
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final WaitStrategy waitStrategy;
+
+	//Constructors
+	public MailboxSettings(int capacity, OverflowPolicy policy) {
+		this(capacity, policy, WaitStrategy.BLOCKING);
+	}
+
+	public MailboxSettings(int capacity, OverflowPolicy policy, WaitStrategy waitStrategy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("policy must not be null");
+		}
+		if (waitStrategy == null) {
+			throw new IllegalArgumentException("waitStrategy must not be null");
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.waitStrategy = waitStrategy;
+	}
+
+	//Getters
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+}
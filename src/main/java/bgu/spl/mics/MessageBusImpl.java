@@ -2,33 +2,82 @@ package bgu.spl.mics;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The {@link MessageBusImpl class is the implementation of the MessageBus interface.
  * Write your implementation here!
- * Only private fields and methods can be added to this class.
+ * Only private fields and methods can be added to this class, besides
+ * what the runner and the tools around the bus use: the public constructor
+ * of a bus per simulation, the mailbox settings, routing policies,
+ * quiescence, the clock of scheduled tasks, the rejected counts and the
+ * views of the subscriptions, queues and futures, as well as the
+ * package-private methods {@link MicroService} and {@link Mailbox} call.
+ * <p>
+ * Every registered micro-service owns its own {@link Mailbox}, so delivering a
+ * message never blocks on unrelated micro-services, and only the target
+ * micro-service is woken up. Subscribers of each message type are kept in a
+ * copy-on-write {@link SubscriberTable}, so sending is lock-free as well.
+ * <p>
+ * A normal priority broadcast is published once, to the {@link BroadcastRing},
+ * for all the subscribers whose mailboxes read it from there; it is only
+ * added to the mailboxes of the other subscribers. High priority broadcasts
+ * are rare control messages, added to the mailboxes of all their subscribers.
+ * <p>
+ * {@link #getInstance()} returns the bus shared by the whole JVM, which
+ * micro-services use by default. A simulation that must not share its bus
+ * with others creates its own, and passes it to its micro-services.
+ * <p>
+ * {@link #awaitQuiescence()} tells when every message sent so far has been
+ * handled, which lets a virtual clock advance as soon as a tick is done.
+ * <p>
+ * The bus also keeps the tasks micro-services schedule at future ticks, in a
+ * {@link TimingWheel} advanced by {@link #advanceClock(int)}, and delivers
+ * each to its micro-service's queue once its tick comes.
  */
 public class MessageBusImpl implements MessageBus {
 
 	//Fields
-	private final Map<Class<? extends Message>, List<MicroService>> subscriptions;
-	private final Map<MicroService, Queue<Message>> queues;
+	private final Map<Class<? extends Message>, SubscriberTable> subscriptions;
+	private final Map<MicroService, Mailbox> queues;
 	private final Map<Event<?>, Future<?>> futures;
-	private final Object lock = new Object();
-	private static MessageBusImpl instance;
+	private final Map<Class<? extends MicroService>, MailboxSettings> mailboxSettings;
+	private final Map<OverflowPolicy, LongAdder> rejectedCounts;
+	private final BroadcastRing broadcastRing; // for normal priority broadcasts
+	private final LongAdder retiredTakenCount; // taken from mailboxes since unregistered
+	private final TimingWheel<ScheduledTask> scheduledTasks;
+	private static final int YIELDS_BEFORE_PARK = 100;
+	private static final long PARK_NANOS = 10_000; // the sleep between quiescence checks
+	private static volatile MessageBusImpl instance;
 
 	//Constructor
-	private MessageBusImpl() {
-		subscriptions = new HashMap<>();
-		queues = new HashMap<>();
-		futures = new HashMap<>();
+	/**
+	 * Creates a bus independent of the shared one and of every other bus.
+	 */
+	public MessageBusImpl() {
+		subscriptions = new ConcurrentHashMap<>();
+		queues = new ConcurrentHashMap<>();
+		futures = new ConcurrentHashMap<>();
+		mailboxSettings = new ConcurrentHashMap<>();
+		rejectedCounts = new EnumMap<>(OverflowPolicy.class);
+		for (OverflowPolicy policy : OverflowPolicy.values()) {
+			rejectedCounts.put(policy, new LongAdder());
+		}
+		broadcastRing = new BroadcastRing(BroadcastRing.DEFAULT_CAPACITY);
+		retiredTakenCount = new LongAdder();
+		scheduledTasks = new TimingWheel<>();
 	}
 
 	//Methods
+	/**
+	 * @return the bus shared by the whole JVM.
+	 */
 	public static MessageBusImpl getInstance() {
 		if (instance == null) {
 			synchronized (MessageBusImpl.class) {
@@ -42,52 +91,87 @@ public class MessageBusImpl implements MessageBus {
 
 	@Override
 	public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
-		synchronized (lock) {
-			subscriptions.putIfAbsent(type, new ArrayList<>());
-			if (!subscriptions.get(type).contains(m)) {
-				subscriptions.get(type).add(m); 
-			}
-		}
+		subscribe(type, m);
 	}
 
 	@Override
 	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
-		synchronized (lock) {
-			subscriptions.putIfAbsent(type, new ArrayList<>());
-			if (!subscriptions.get(type).contains(m)) {
-				subscriptions.get(type).add(m);
-			}
+		subscribeBroadcast(type, m, false);
+	}
+
+	/**
+	 * Subscribes {@code m} to receive {@link Broadcast}s of type {@code type},
+	 * optionally coalescing them: while a broadcast of this type is still
+	 * waiting in {@code m}'s queue, a newer one replaces it rather than being
+	 * queued behind it, so a micro-service that fell behind receives only the
+	 * latest one (e.g. "advance to tick N") instead of every stale one.
+	 * <p>
+	 * @param type 	   The type to subscribe to.
+	 * @param m    	   The subscribing micro-service.
+	 * @param coalesce Whether waiting broadcasts of this type are coalesced.
+	 */
+	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m, boolean coalesce) {
+		Mailbox queue = queues.get(m);
+		if (coalesce && queue != null) {
+			queue.coalesce(type);
+		} else if (queue != null) {
+			queue.readFromRing(broadcastRing, type);
 		}
+		subscribe(type, m);
 	}
 
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T> void complete(Event<T> e, T result) {
-		synchronized (lock) {
-			// Gets the future of the event
-			Future<T> future = (Future<T>) futures.get(e);
-
-			// Resolve the future and removes it from the futures map
-			if (future != null) {
-				future.resolve(result);
-				futures.remove(e);
-			}
+		if (BusTracer.ENABLED) {
+			BusTracer.getInstance().instant("complete", e, null);
+		}
+		// Gets the future of the event and removes it from the futures map
+		Future<T> future = (Future<T>) futures.remove(e);
+
+		// Resolve the future
+		if (future != null) {
+			future.resolve(result);
 		}
 	}
 
 	@Override
 	public void sendBroadcast(Broadcast b) {
-		synchronized (lock) {
-			List<MicroService> subscribers = subscriptions.get(b.getClass());
-
-			if (subscribers != null && !subscribers.isEmpty()) {
-				for (MicroService m : subscribers) {
-					Queue<Message> queue = queues.get(m);
-					if (queue != null) {
-						queue.add(b); 
-					}
+		if (BusMetrics.ENABLED) {
+			BusMetrics.getInstance().recordSent(b.getClass());
+		}
+		if (BusTracer.ENABLED) {
+			traceSend(b);
+		}
+		SubscriberTable subscribers = subscriptions.get(b.getClass());
+		if (subscribers == null) {
+			return;
+		}
+
+		// Published at most once, each mailbox wakes only its own micro-service.
+		// A mailbox that started reading the type after the broadcast was
+		// published has it added instead
+		Mailbox[] snapshot = subscribers.snapshot();
+		long sequence = -1;
+		if (b.getPriority() == MessagePriority.NORMAL) {
+			for (Mailbox queue : snapshot) {
+				if (queue.readsFromRing(b.getClass())) {
+					sequence = broadcastRing.publish(b);
+					break;
+				}
+			}
+		}
+		for (Mailbox queue : snapshot) {
+			if (sequence >= 0 && queue.readsFromRing(b.getClass(), sequence)) {
+				queue.published();
+				if (BusMetrics.ENABLED) {
+					BusMetrics.getInstance().recordDepth(queue.getOwner(), queue.depth());
 				}
-				lock.notifyAll();
+				if (BusTracer.ENABLED) {
+					BusTracer.getInstance().instant("enqueue", b, queue.getOwner());
+				}
+			} else {
+				deliver(queue, b);
 			}
 		}
 	}
@@ -95,82 +179,344 @@ public class MessageBusImpl implements MessageBus {
 	
 	@Override
 	public <T> Future<T> sendEvent(Event<T> e) {
-		synchronized (lock) {
-			List<MicroService> subscribers = subscriptions.get(e.getClass());
-			if (subscribers != null && !subscribers.isEmpty()){
-
-				// Round Robin selection
-				MicroService curMicroService = subscribers.remove(0); 
-				subscribers.add(curMicroService); 
-
-				// Get selected MicroService's queue
-				Queue<Message> queue = queues.get(curMicroService); 
-
-				if (queue != null){
-					Future<T> future = new Future<>(); // Create a new future for the event
-					futures.put(e, future);	// Adds future to futures map
-					queue.add(e);	//Adds the event to the selected MicroService's queue
-					lock.notifyAll();
-					return future;
-				}
-			}
+		if (BusMetrics.ENABLED) {
+			BusMetrics.getInstance().recordSent(e.getClass());
+		}
+		if (BusTracer.ENABLED) {
+			traceSend(e);
+		}
+		Mailbox queue = route(e);
+		if (queue == null) {
 			return null; // If no micro-service has subscribed to the event's type
 		}
+
+		Future<T> future = new Future<>(); // Create a new future for the event
+		futures.put(e, future);	// Adds future to futures map
+		deliver(queue, e);	//Adds the event to the selected MicroService's queue
+		return future;
+	}
+
+	/**
+	 * Adds the {@link Event} {@code e} to the message queue of one of the
+	 * micro-services subscribed to {@code e.getClass()}, chosen by the type's
+	 * {@link RoutingPolicy} like {@link #sendEvent(Event)}, for a sender that does not need
+	 * the result. No {@link Future} is created, and the event is not tracked
+	 * by the message-bus at all. This method is non-blocking.
+	 * <p>
+	 * @param e The event to add to the queue.
+	 * @return true if the event was added to a queue, false in case no
+	 *         micro-service has subscribed to {@code e.getClass()}.
+	 */
+	public boolean sendOneWayEvent(Event<?> e) {
+		if (BusMetrics.ENABLED) {
+			BusMetrics.getInstance().recordSent(e.getClass());
+		}
+		if (BusTracer.ENABLED) {
+			traceSend(e);
+		}
+		Mailbox queue = route(e);
+		if (queue == null) {
+			return false;
+		}
+		return deliver(queue, e);
+	}
+
+	/**
+	 * Notifies the MessageBus that the micro-service that received {@code e}
+	 * is done handling it. If {@code e} was not completed by then, its
+	 * {@link Future} is resolved with null, so abandoned futures are never
+	 * left behind in the message-bus.
+	 * <p>
+	 * @param e The handled event.
+	 */
+	public void release(Event<?> e) {
+		if (futures.containsKey(e)) { // Events sent one-way or completed already are left alone
+			complete(e, null);
+		}
 	}
 	
 
 	@Override
 	public void register(MicroService m) {
-    	synchronized (lock) {
-        	if (!queues.containsKey(m)) {
-            	queues.put(m, new LinkedList<>()); // creates a new queue for the micro-service in the queues map
-        	}
-    	}
+		// creates a new queue for the micro-service in the queues map
+		queues.computeIfAbsent(m, service -> new Mailbox(service, mailboxSettings.getOrDefault(service.getClass(), MailboxSettings.DEFAULT)));
 	}
 
 	@Override
 	public void unregister(MicroService m) {
-		synchronized (lock) {
-			queues.remove(m); // removing the micro-service from the queues map 
-			
-			for (List<MicroService> subscriberList : subscriptions.values()) { // removing the micro-service from the subscription map
-				subscriberList.remove(m);
-			} 
+		Mailbox queue = queues.remove(m); // removing the micro-service from the queues map 
+		if (queue == null) {
+			return;
+		}
+		retiredTakenCount.add(queue.getTakenCount());
+		queue.close(); // releasing senders blocked on the queue
 
-			// Removing all futures that relates to the Micro-Service
-			futures.keySet().removeIf(event -> isEventRelatedToMicroService(event, m));
+		for (SubscriberTable subscribers : subscriptions.values()) { // removing the micro-service from the subscription map
+			subscribers.remove(queue);
+		} 
+
+		// Resolving the futures of events still waiting in the Micro-Service's queue with null
+		for (Event<?> e : futures.keySet()) {
+			if (queue.contains(e)) {
+				complete(e, null);
+			}
 		}
 	}
 
 	@Override
 	public Message awaitMessage(MicroService m) throws InterruptedException {
-		synchronized (lock) {
-			// Checks if the Micro-Service is registered, throws an exception if not
-			Queue<Message> queue = queues.get(m);
-			if (queue == null) {
-				throw new IllegalStateException("MicroService is not registered");
+		// Checks if the Micro-Service is registered, throws an exception if not
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			throw new IllegalStateException("MicroService is not registered");
+		}
+
+		// Waits until there's a message in the queue and returns the first message in line
+		return queue.take();
+	}
+
+	/**
+	 * Using this method, a <b>registered</b> micro-service can take message
+	 * from its allocated queue, like {@link #awaitMessage(MicroService)},
+	 * but waiting no longer than {@code timeout}.
+	 * <p>
+	 * @param m       The micro-service requesting to take a message from its
+	 *                message queue.
+	 * @param timeout The maximal amount of time units to wait for a message.
+	 * @param unit    The {@link TimeUnit} time units to wait.
+	 * @return The next message in the {@code m}'s queue, or null if no message
+	 *         became available in time.
+	 * @throws InterruptedException if interrupted while waiting for a message
+	 *                              to became available.
+	 */
+	public Message awaitMessage(MicroService m, long timeout, TimeUnit unit) throws InterruptedException {
+		// Checks if the Micro-Service is registered, throws an exception if not
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			throw new IllegalStateException("MicroService is not registered");
+		}
+		return queue.take(unit.toNanos(timeout));
+	}
+
+	/**
+	 * Using this method, a <b>registered</b> micro-service can take a batch of
+	 * messages from its allocated queue in a single call.
+	 * Like {@link #awaitMessage(MicroService)} this method blocks, but only
+	 * while the queue is empty. Once a message is available it moves up to
+	 * {@code max} waiting messages, in order, into {@code batch}.
+	 * <p>
+	 * @param m     The micro-service requesting to take messages from its queue.
+	 * @param batch The list to add the taken messages to.
+	 * @param max   The maximal number of messages to take.
+	 * @return The number of messages added to {@code batch} (at least one).
+	 * @throws InterruptedException if interrupted while waiting for a message
+	 *                              to became available.
+	 */
+	public int drainMessages(MicroService m, List<? super Message> batch, int max) throws InterruptedException {
+		if (max < 1) {
+			throw new IllegalArgumentException("max must be positive");
+		}
+
+		// Checks if the Micro-Service is registered, throws an exception if not
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			throw new IllegalStateException("MicroService is not registered");
+		}
+		return queue.drainTo(batch, max);
+	}
+
+	/**
+	 * Sets the capacity and overflow policy of the queues allocated from now
+	 * on to micro-services of type {@code type}. Queues of other micro-services
+	 * are unbounded.
+	 * <p>
+	 * @param type     The type of micro-services the settings apply to.
+	 * @param settings The settings of their queues.
+	 */
+	public void setMailboxSettings(Class<? extends MicroService> type, MailboxSettings settings) {
+		mailboxSettings.put(type, settings);
+	}
+
+	/**
+	 * Sets how events of type {@code type} are spread among their subscribers.
+	 * Event types are routed round-robin unless set otherwise.
+	 * <p>
+	 * @param type   The type of events the policy applies to.
+	 * @param policy The routing policy.
+	 */
+	public void setRoutingPolicy(Class<? extends Event<?>> type, RoutingPolicy policy) {
+		subscriptions.computeIfAbsent(type, t -> new SubscriberTable()).setPolicy(policy);
+	}
+
+	/**
+	 * Waits until the bus is quiescent: every registered micro-service is
+	 * idle, with an empty queue. Since micro-services only send messages while
+	 * handling one, nothing will happen on the bus after that until a thread
+	 * outside of the micro-services, like a clock, sends a message.
+	 * <p>
+	 * The queues are checked one after another, so the bus is only deemed
+	 * quiescent once two checks in a row find it idle with no message taken
+	 * in between; a message that was in flight during the first check would
+	 * have been taken before the second.
+	 * <p>
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void awaitQuiescence() throws InterruptedException {
+		long previous = -1;
+		for (int checks = 0; ; checks++) {
+			long taken = takenCountIfIdle();
+			if (taken >= 0 && taken == previous) {
+				return;
+			}
+			previous = taken;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
 			}
+			if (checks < YIELDS_BEFORE_PARK) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+	}
 
-			// Waits until there's a message in the queue
-			while (queue.isEmpty()){
-				lock.wait(); 
+	/**
+	 * Advances the clock of the scheduled tasks to {@code tick}, and adds the
+	 * tasks due by then to the queues of the micro-services that scheduled
+	 * them. Called by the micro-service keeping time, after every tick it
+	 * broadcasts, so tasks are queued behind the tick; ticks it skipped are
+	 * caught up on.
+	 * <p>
+	 * Every due task is announced to its queue before any is added, so no
+	 * control message a micro-service sends from its task overtakes the task
+	 * of another micro-service due at the same tick.
+	 * <p>
+	 * @param tick The current tick.
+	 */
+	public void advanceClock(int tick) {
+		List<ScheduledTask> due = new ArrayList<>();
+		scheduledTasks.advanceTo(tick, due);
+		List<Mailbox> targets = new ArrayList<>(due.size());
+		for (ScheduledTask task : due) {
+			targets.add(announceTask(task));
+		}
+		for (int i = 0; i < due.size(); i++) {
+			if (targets.get(i) != null) {
+				deliver(targets.get(i), due.get(i));
 			}
+		}
+	}
+
+	/**
+	 * @param policy An overflow policy.
+	 * @return The number of messages rejected by queues using {@code policy}
+	 *         since the message-bus was created.
+	 */
+	public long getRejectedCount(OverflowPolicy policy) {
+		return rejectedCounts.get(policy).sum();
+	}
 
-			//returns the first message in line
-			return queue.poll();
+	// Helper method adding a message to a queue and settling the future of an
+	// event the queue dropped. Returns false if the message itself was dropped
+	private boolean deliver(Mailbox queue, Message message) {
+		Message dropped = queue.add(message);
+		if (BusTracer.ENABLED) {
+			BusTracer.getInstance().instant(dropped == message ? "drop" : "enqueue", message, queue.getOwner());
+		}
+		if (dropped == null) {
+			return true;
+		}
+		if (!queue.isClosed()) {
+			rejectedCounts.get(queue.getPolicy()).increment();
 		}
+		if (dropped instanceof Event) {
+			complete((Event<?>) dropped, null);
+		}
+		return dropped != message;
 	}
-	// Helper method to check if an event is related to a Micro-Service
-	private boolean isEventRelatedToMicroService(Event<?> event, MicroService m) {
-		return queues.containsKey(m) && futures.get(event) != null;
+
+	// Helper method keeping a task until its tick, or delivering it right away
+	// if the clock has already reached it. Used by MicroService.scheduleAtTick
+	void schedule(ScheduledTask task, int tick) {
+		if (!scheduledTasks.schedule(tick, task)) {
+			enqueueTask(task);
+		}
+	}
+
+	// Helper method adding a task to the queue of its micro-service right
+	// away, behind the messages already in it. Used by MicroService.runAfterQueued
+	void enqueueTask(ScheduledTask task) {
+		Mailbox queue = announceTask(task);
+		if (queue != null) {
+			deliver(queue, task);
+		}
+	}
+
+	// Helper method announcing a due task to the queue of its micro-service,
+	// and returning the queue, or null if the micro-service has unregistered
+	private Mailbox announceTask(ScheduledTask task) {
+		Mailbox queue = queues.get(task.getOwner());
+		if (queue != null) {
+			queue.announceTask();
+		}
+		return queue;
+	}
+
+	// Helper method returning the number of messages ever taken from the
+	// queues, or -1 if a micro-service is handling a message or has some
+	// waiting. The handled count is read first, so equal counts mean the
+	// micro-service was idle when its taken count was read
+	private long takenCountIfIdle() {
+		long total = retiredTakenCount.sum();
+		for (Mailbox queue : queues.values()) {
+			long handled = queue.getOwner().getHandledCount();
+			long taken = queue.getTakenCount();
+			if (taken != handled || !queue.isEmpty()) {
+				return -1;
+			}
+			total += taken;
+		}
+		return total;
+	}
+
+	// Helper method tracing the sending of a message, and starting its arrow
+	private void traceSend(Message message) {
+		BusTracer tracer = BusTracer.getInstance();
+		tracer.instant("send", message, null);
+		tracer.flowStart(message);
+	}
+
+	// Helper method selecting the queue an event is sent to, according to its type's routing policy
+	private Mailbox route(Event<?> e) {
+		SubscriberTable subscribers = subscriptions.get(e.getClass());
+		return subscribers == null ? null : subscribers.next(e.getRoutingKey());
+	}
+
+	// Helper method adding a registered Micro-Service to the subscribers of a message type
+	private void subscribe(Class<? extends Message> type, MicroService m) {
+		Mailbox queue = queues.get(m);
+		if (queue != null) {
+			subscriptions.computeIfAbsent(type, t -> new SubscriberTable()).add(queue);
+		}
 	}
 
 	//Getters
+	/**
+	 * @return a snapshot of the current subscribers of every message type.
+	 */
 	public Map<Class<? extends Message>, List<MicroService>> getSubscriptions() {
-		return subscriptions;
+		Map<Class<? extends Message>, List<MicroService>> snapshot = new HashMap<>();
+		for (Map.Entry<Class<? extends Message>, SubscriberTable> entry : subscriptions.entrySet()) {
+			List<MicroService> subscribers = new ArrayList<>();
+			for (Mailbox queue : entry.getValue().snapshot()) {
+				subscribers.add(queue.getOwner());
+			}
+			snapshot.put(entry.getKey(), subscribers);
+		}
+		return snapshot;
 	}
 
-	public Map<MicroService, Queue<Message>> getQueues() {
+	public Map<MicroService, Mailbox> getQueues() {
 		return queues;
 	}
 
@@ -0,0 +1,18 @@
+package bgu.spl.mics;
+
+/**
+ * The priority class of a {@link Message}, which decides the lane of the
+ * {@link Mailbox} it waits in.
+ * Possible priorities:
+ * - HIGH: Control messages, such as termination and crash notices. They wait
+ *   in a separate lane, taken from before the events and other messages
+ *   already waiting, but after the broadcasts published before them, so a
+ *   termination never overtakes the tick that caused it, nor the scheduled
+ *   tasks that are due, so it never overtakes the work due at that tick
+ *   either. They are never subject to the mailbox's capacity or overflow
+ *   policy.
+ * - NORMAL: Data messages and ticks, taken in the order they were sent.
+ */
+public enum MessagePriority {
+    HIGH, NORMAL
+}
@@ -0,0 +1,24 @@
+package bgu.spl.mics;
+
+/**
+ * The JMX view of the {@link BusMetrics} of a single message type. Durations
+ * are in microseconds.
+ */
+public interface MessageTypeMetricsMBean {
+
+    long getSentCount();
+
+    long getReceivedCount();
+
+    long getWaitTimeP50();
+
+    long getWaitTimeP99();
+
+    long getWaitTimeMax();
+
+    long getHandleTimeP50();
+
+    long getHandleTimeP99();
+
+    long getHandleTimeMax();
+}
@@ -1,12 +1,16 @@
 package bgu.spl.mics;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 
 /**
  * The MicroService is an abstract class that any micro-service in the system
  * must extend. The abstract MicroService class is responsible to get and
- * manipulate the singleton {@link MessageBus} instance.
+ * manipulate the singleton {@link MessageBus} instance, or the bus it was
+ * constructed with, so that several independent simulations can share a JVM.
  * <p>
  * Derived classes of MicroService should never directly touch the message-bus.
  * Instead, they have a set of internal protected wrapping methods (e.g.,
@@ -23,9 +27,29 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public abstract class MicroService implements Runnable {
 
+    /**
+     * The default maximal number of messages taken from the message-queue
+     * at once.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    /**
+     * The default number of messages handled back to back before the
+     * micro-service yields its thread to others.
+     */
+    public static final int DEFAULT_FAIRNESS_BUDGET = 256;
+
+    // Runs the tasks scheduled with scheduleAtTick, as the callback of their messages
+    private static final Callback<Message> RUN_TASK = task -> ((ScheduledTask) task).run();
+
     private boolean terminated = false;
     private final String name;
+    private final MessageBusImpl bus;
     private final ConcurrentHashMap<Class<? extends Message>, Callback<?>> callbackMap; 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fairnessBudget = DEFAULT_FAIRNESS_BUDGET;
+    private volatile long handledCount = 0; // written only by the thread running the event loop
+    private final CountDownLatch initialized;
 
 
     /**
@@ -33,8 +57,20 @@ public abstract class MicroService implements Runnable {
      *             does not have to be unique)
      */
     public MicroService(String name) {
+        this(name, MessageBusImpl.getInstance());
+    }
+
+    /**
+     * @param name the micro-service name (used mainly for debugging purposes -
+     *             does not have to be unique)
+     * @param bus  the message-bus the micro-service registers with and sends
+     *             its messages through.
+     */
+    public MicroService(String name, MessageBusImpl bus) {
         this.name = name;
+        this.bus = bus;
         this.callbackMap = new ConcurrentHashMap<>();
+        this.initialized = new CountDownLatch(1);
     }
 
     /**
@@ -59,8 +95,8 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Callback<E> callback) {
-        MessageBusImpl.getInstance().register(this); // Register the MicroService
-        MessageBusImpl.getInstance().subscribeEvent(type, this); // Subscribe to event
+        bus.register(this); // Register the MicroService
+        bus.subscribeEvent(type, this); // Subscribe to event
         callbackMap.put(type, callback); // Store the callback for later use
     }
 
@@ -85,11 +121,33 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
-        MessageBusImpl.getInstance().register(this); // Register the MicroService
-        MessageBusImpl.getInstance().subscribeBroadcast(type, this); // Subscribe to broadcast
+        bus.register(this); // Register the MicroService
+        bus.subscribeBroadcast(type, this); // Subscribe to broadcast
         callbackMap.put(type, callback); // Store the callback for later use
     }
 
+    /**
+     * Subscribes to broadcast message of type {@code type} with the callback
+     * {@code callback}, like {@link #subscribeBroadcast(Class, Callback)}.
+     * If {@code coalesce} is true, a broadcast that is still waiting in the
+     * message-queue is replaced by a newer broadcast of the same type, so
+     * after falling behind the callback is called once, with the latest
+     * broadcast, rather than once for every stale one.
+     * <p>
+     * @param <B>      The type of broadcast message to subscribe to
+     * @param type     The {@link Class} representing the type of broadcast
+     *                 message to subscribe to.
+     * @param callback The callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     * @param coalesce Whether waiting broadcasts of this type are coalesced.
+     */
+    protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback, boolean coalesce) {
+        bus.register(this); // Register the MicroService
+        callbackMap.put(type, callback); // Store the callback before messages can arrive
+        bus.subscribeBroadcast(type, this, coalesce); // Subscribe to broadcast
+    }
+
     /**
      * Sends the event {@code e} using the message-bus and receive a {@link Future<T>}
      * object that may be resolved to hold a result. This method must be Non-Blocking since
@@ -103,7 +161,20 @@ public abstract class MicroService implements Runnable {
      * 	       			null in case no micro-service has subscribed to {@code e.getClass()}.
      */
     protected final <T> Future<T> sendEvent(Event<T> e) {
-        return MessageBusImpl.getInstance().sendEvent(e);
+        return bus.sendEvent(e);
+    }
+
+    /**
+     * Sends the event {@code e} using the message-bus without expecting a
+     * result. Unlike {@link #sendEvent(bgu.spl.mics.Event)} no {@link Future}
+     * is created, so this is the cheaper choice for events nobody completes.
+     * <p>
+     * @param e         The event to send
+     * @return  		true if the event was sent, false in case no micro-service
+     *         			has subscribed to {@code e.getClass()}.
+     */
+    protected final boolean sendOneWayEvent(Event<?> e) {
+        return bus.sendOneWayEvent(e);
     }
 
     /**
@@ -113,7 +184,7 @@ public abstract class MicroService implements Runnable {
      * @param b The broadcast message to send
      */
     protected final void sendBroadcast(Broadcast b) {
-        MessageBusImpl.getInstance().sendBroadcast(b);
+        bus.sendBroadcast(b);
     }
 
     /**
@@ -127,7 +198,37 @@ public abstract class MicroService implements Runnable {
      *               {@code e}.
      */
     protected final <T> void complete(Event<T> e, T result) {
-        MessageBusImpl.getInstance().complete(e, result);
+        bus.complete(e, result);
+    }
+
+    /**
+     * Runs {@code task} on the event loop of this micro-service once the
+     * clock reaches tick {@code tick}, or as soon as possible if it already
+     * has. The task is added to the message-queue like a message, so it never
+     * runs concurrently with the callbacks, and a micro-service that only acts
+     * at a few known ticks need not handle every {@link Broadcast} of the
+     * clock.
+     * <p>
+     * @param tick The tick to run the task at.
+     * @param task The task to run.
+     */
+    protected final void scheduleAtTick(int tick, Runnable task) {
+        bus.register(this); // Register the MicroService
+        bus.schedule(new ScheduledTask(this, task), tick);
+    }
+
+    /**
+     * Runs {@code task} on the event loop of this micro-service once the
+     * messages already in its message-queue are handled. A callback of a
+     * message of {@link MessagePriority#HIGH} priority uses it to act only
+     * after the messages that message overtook, e.g. to terminate once the
+     * work already queued is done.
+     * <p>
+     * @param task The task to run.
+     */
+    protected final void runAfterQueued(Runnable task) {
+        bus.register(this); // Register the MicroService
+        bus.enqueueTask(new ScheduledTask(this, task));
     }
 
     /**
@@ -152,33 +253,184 @@ public abstract class MicroService implements Runnable {
     }
 
     /**
-     * The entry point of the micro-service. TODO: you must complete this code
-     * otherwise you will end up in an infinite loop.
+     * Sets the maximal number of messages the event loop takes from the
+     * message-queue per wake-up. Must be called before the micro-service starts.
+     * <p>
+     * @param batchSize a positive number of messages.
+     */
+    public final void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of messages the event loop handles back to back,
+     * without its message-queue running empty, before yielding its thread so
+     * other micro-services get to run. Must be called before the micro-service
+     * starts.
+     * <p>
+     * @param fairnessBudget a positive number of messages.
+     */
+    public final void setFairnessBudget(int fairnessBudget) {
+        if (fairnessBudget < 1) {
+            throw new IllegalArgumentException("fairnessBudget must be positive");
+        }
+        this.fairnessBudget = fairnessBudget;
+    }
+
+    /**
+     * The entry point of the micro-service.
+     * <p>
+     * Messages are taken from the message-bus in batches of up to
+     * {@code batchSize}, and the loop only blocks when the message-queue is
+     * empty. Messages left in a batch after {@link #terminate()} is called
+     * are not handled, but the futures of the events among them are resolved
+     * with null, like those of the events still waiting in the queue.
      */
 
     @Override
-    @SuppressWarnings("unchecked")
     public final void run() {
-        MessageBusImpl messageBus = MessageBusImpl.getInstance(); // Get the message bus instance
-        messageBus.register(this); // Register the MicroService
-        initialize();
+        MessageBusImpl messageBus = bus; // The message bus this micro-service uses
+        startUp();
 
+        List<Message> batch = new ArrayList<>(batchSize);
+        int handledInRow = 0; // messages handled since the queue was last empty
         while (!terminated) {
             try {
-                // Get the message from the message bus
-                Message message = messageBus.awaitMessage(this); 
-                
-                // Get the callback for the message
-                Callback<Message> callback = (Callback<Message>) callbackMap.get(message.getClass());
-                
-                // Call the callback
-                if (callback != null) {
-                    callback.call(message);
+                // Get the next batch of messages from the message bus
+                int taken = messageBus.drainMessages(this, batch, batchSize);
+
+                int handled = 0;
+                while (handled < taken && !terminated) {
+                    dispatch(batch.get(handled++));
+                }
+                // Nothing waits forever for the events the loop stopped short of
+                for (int i = handled; i < taken; i++) {
+                    if (batch.get(i) instanceof Event) {
+                        messageBus.release((Event<?>) batch.get(i));
+                    }
+                }
+                batch.clear();
+
+                // A full batch means more messages are probably waiting, so let
+                // other threads run once in a while before continuing
+                handledInRow = taken < batchSize ? 0 : handledInRow + taken;
+                if (handledInRow >= fairnessBudget) {
+                    handledInRow = 0;
+                    Thread.yield();
                 }
-                
+
             } catch (InterruptedException e) {
+                batch.clear();
                 Thread.currentThread().interrupt(); 
             }
         }
+
+        shutDown();
+    }
+
+    /**
+     * Registers the micro-service and calls {@link #initialize()}. Used by
+     * {@link #run()} and by the {@link ActorScheduler}.
+     */
+    final void startUp() {
+        bus.register(this); // Register the MicroService
+        try {
+            initialize();
+        } finally {
+            initialized.countDown();
+        }
+    }
+
+    /**
+     * Waits until the micro-service has run {@link #initialize()}, and so has
+     * subscribed to the messages it handles.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public final void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    /**
+     * Handles the messages waiting in {@code queue} without blocking, until it
+     * is empty, {@code fairnessBudget} messages were handled, or the
+     * micro-service terminates. Used by the {@link ActorScheduler}.
+     * <p>
+     * @param queue the message-queue of this micro-service.
+     * @return the number of messages handled.
+     */
+    final int handleWaitingMessages(Mailbox queue) {
+        int handled = 0;
+        Message message;
+        while (handled < fairnessBudget && !terminated && (message = queue.poll()) != null) {
+            dispatch(message);
+            handled++;
+        }
+        return handled;
+    }
+
+    /**
+     * @return the message-bus this micro-service uses.
+     */
+    final MessageBusImpl getBus() {
+        return bus;
+    }
+
+    /**
+     * @return the number of messages the micro-service has finished handling,
+     *         which the bus compares to the number it took to tell whether the
+     *         micro-service is idle.
+     */
+    final long getHandledCount() {
+        return handledCount;
+    }
+
+    /**
+     * @return true once the micro-service has called {@link #terminate()}.
+     */
+    final boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Releases the micro-service's queue, so senders are never blocked by a
+     * terminated service. Used by {@link #run()} and by the {@link ActorScheduler}.
+     */
+    final void shutDown() {
+        bus.unregister(this);
+    }
+
+    // Calls the callback registered for the message's type, if any
+    @SuppressWarnings("unchecked")
+    private void dispatch(Message message) {
+        // Get the callback for the message
+        Callback<Message> callback = message instanceof ScheduledTask
+                ? RUN_TASK
+                : (Callback<Message>) callbackMap.get(message.getClass());
+
+        // Call the callback, timing it if the bus metrics or tracer are on
+        if (callback != null) {
+            if (BusMetrics.ENABLED || BusTracer.ENABLED) {
+                long start = System.nanoTime();
+                callback.call(message);
+                if (BusMetrics.ENABLED) {
+                    BusMetrics.getInstance().recordHandled(this, message, System.nanoTime() - start);
+                }
+                if (BusTracer.ENABLED) {
+                    BusTracer.getInstance().callback(message, this, start);
+                }
+            } else {
+                callback.call(message);
+            }
+        }
+
+        // Resolve the event's future if the callback did not complete it
+        if (message instanceof Event) {
+            bus.release((Event<?>) message);
+        }
+        handledCount++;
     }
 }
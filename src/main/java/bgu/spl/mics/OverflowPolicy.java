@@ -0,0 +1,20 @@
+package bgu.spl.mics;
+
+/**
+ * Decides what a bounded {@link Mailbox} does with a new message when it is
+ * already holding as many messages as its capacity allows.
+ * Possible policies:
+ * - BLOCK: The sender waits until the micro-service takes a message.
+ * - DROP_OLDEST: The oldest normal priority message is dropped. High priority
+ *   messages are never dropped, so while only they fill the mailbox the
+ *   sender waits for room as with BLOCK.
+ * - DROP_NEWEST: The new message is dropped.
+ * - COALESCE: The oldest waiting message of the same type as the new one is
+ *   dropped, and the new one takes its place at the back of the mailbox. If
+ *   no message of that type is waiting, the new message is dropped.
+ * <p>
+ * A dropped {@link Event} is completed with a null result.
+ */
+public enum OverflowPolicy {
+    BLOCK, DROP_OLDEST, DROP_NEWEST, COALESCE
+}
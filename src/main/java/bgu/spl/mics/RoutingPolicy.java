@@ -0,0 +1,20 @@
+package bgu.spl.mics;
+
+/**
+ * Decides which of the subscribers of an {@link Event} type receives the next
+ * event of that type.
+ * Possible policies:
+ * - ROUND_ROBIN: The subscribers take turns, regardless of their backlog.
+ * - LEAST_LOADED: The subscriber with the fewest waiting messages is chosen.
+ *   Ties are broken in a round-robin fashion.
+ * - POWER_OF_TWO_CHOICES: Two subscribers are picked at random and the one
+ *   with fewer waiting messages is chosen. Nearly as balanced as LEAST_LOADED,
+ *   but looks at two queues instead of all of them.
+ * - CONSISTENT_HASH: Events with the same {@link Event#getRoutingKey()} are
+ *   always sent to the same subscriber, so they are handled in order and by
+ *   one micro-service. When a subscriber unregisters, only the keys it owned
+ *   move to others. Events without a key are routed round-robin.
+ */
+public enum RoutingPolicy {
+    ROUND_ROBIN, LEAST_LOADED, POWER_OF_TWO_CHOICES, CONSISTENT_HASH
+}
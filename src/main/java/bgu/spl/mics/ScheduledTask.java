@@ -0,0 +1,30 @@
+package bgu.spl.mics;
+
+/**
+ * A task a micro-service scheduled at a tick (see
+ * {@link MicroService#scheduleAtTick(int, Runnable)}), delivered to its
+ * message-queue once the tick comes, or behind the messages already queued
+ * (see {@link MicroService#runAfterQueued(Runnable)}), so it runs on the
+ * micro-service's event loop like any callback.
+ */
+final class ScheduledTask implements Message {
+
+	//Fields
+	private final MicroService owner;
+	private final Runnable task;
+
+	//Constructor
+	ScheduledTask(MicroService owner, Runnable task) {
+		this.owner = owner;
+		this.task = task;
+	}
+
+	//Methods
+	void run() {
+		task.run();
+	}
+
+	MicroService getOwner() {
+		return owner;
+	}
+}
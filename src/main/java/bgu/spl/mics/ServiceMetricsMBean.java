@@ -0,0 +1,26 @@
+package bgu.spl.mics;
+
+/**
+ * The JMX view of the {@link BusMetrics} of a single micro-service. Durations
+ * are in microseconds.
+ */
+public interface ServiceMetricsMBean {
+
+    long getReceivedCount();
+
+    int getQueueDepth();
+
+    int getQueueDepthHighWater();
+
+    long getWaitTimeP50();
+
+    long getWaitTimeP99();
+
+    long getWaitTimeMax();
+
+    long getHandleTimeP50();
+
+    long getHandleTimeP99();
+
+    long getHandleTimeMax();
+}
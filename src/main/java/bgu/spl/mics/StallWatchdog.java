@@ -0,0 +1,205 @@
+package bgu.spl.mics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the {@link Mailbox} of every registered {@link MicroService} for
+ * stalls: a micro-service stalls when messages wait in its mailbox but it
+ * takes none of them for longer than the threshold, for example because its
+ * callback blocks forever on a {@link Future} or a lock.
+ * <p>
+ * The watchdog samples each mailbox's depth and the number of messages its
+ * consumer took so far. When a micro-service stalls, the watchdog reports it
+ * once, until it makes progress again, together with the state and stack of
+ * its consumer thread and the messages at the head of its mailbox. Sampling
+ * only reads counters the mailboxes keep anyway, so the watchdog adds no cost
+ * to sending or taking messages.
+ * <p>
+ * The thread is described from its {@link ThreadInfo} where the JVM keeps
+ * one, and from the {@link Thread} itself for virtual threads, which it does
+ * not. A micro-service run by the {@link ActorScheduler} has no thread
+ * between runs, and is reported as waiting for a worker.
+ */
+public final class StallWatchdog {
+
+	private static final int HEAD_LENGTH = 5;
+	private static final Method THREAD_ID = threadIdMethod(); // Thread.threadId(), from Java 19 on
+
+	//Fields
+	private final MessageBusImpl bus;
+	private final long thresholdNanos;
+	private final Map<Mailbox, Progress> progress;
+	private ScheduledExecutorService sampler;
+
+	//Constructor
+	/**
+	 * Watches the mailboxes of the shared {@link MessageBusImpl}.
+	 * <p>
+	 * @param threshold how long a micro-service may take no message while
+	 *                  messages wait for it before it is reported.
+	 */
+	public StallWatchdog(long threshold, TimeUnit unit) {
+		this(MessageBusImpl.getInstance(), threshold, unit);
+	}
+
+	/**
+	 * @param bus       the bus whose mailboxes are watched.
+	 * @param threshold how long a micro-service may take no message while
+	 *                  messages wait for it before it is reported.
+	 */
+	public StallWatchdog(MessageBusImpl bus, long threshold, TimeUnit unit) {
+		this.bus = bus;
+		this.thresholdNanos = unit.toNanos(threshold);
+		this.progress = new HashMap<>();
+		this.sampler = null;
+	}
+
+	//Methods
+	/**
+	 * Starts sampling the mailboxes four times per threshold, on a daemon
+	 * thread, printing every stall to the standard error, until
+	 * {@link #stop()} is called.
+	 */
+	public synchronized void start() {
+		stop();
+		sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "stall-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(thresholdNanos / 4, TimeUnit.MILLISECONDS.toNanos(1));
+		sampler.scheduleAtFixedRate(() -> {
+			for (String report : sample(System.nanoTime())) {
+				System.err.print(report);
+			}
+		}, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops sampling, if it was started.
+	 */
+	public synchronized void stop() {
+		if (sampler != null) {
+			sampler.shutdownNow();
+			sampler = null;
+		}
+	}
+
+	/**
+	 * Samples every mailbox once.
+	 * <p>
+	 * @param now the time of the sample, as a {@link System#nanoTime()}.
+	 * @return a report for each micro-service that stalled since the last
+	 *         sample.
+	 */
+	synchronized List<String> sample(long now) {
+		List<String> reports = new ArrayList<>();
+		Map<MicroService, Mailbox> queues = bus.getQueues();
+		for (Map.Entry<MicroService, Mailbox> entry : queues.entrySet()) {
+			Mailbox queue = entry.getValue();
+			long taken = queue.getTakenCount();
+			int depth = queue.size();
+			Progress last = progress.get(queue);
+			if (last == null || last.taken != taken || depth == 0) {
+				progress.put(queue, new Progress(taken, depth, now));
+			} else if (!last.reported && now - last.since >= thresholdNanos) {
+				last.reported = true;
+				reports.add(report(entry.getKey(), queue, depth, last, now));
+			}
+		}
+		// Forgets the mailboxes of micro-services that unregistered
+		progress.keySet().retainAll(queues.values());
+		return reports;
+	}
+
+	private static String report(MicroService service, Mailbox queue, int depth, Progress last, long now) {
+		StringBuilder report = new StringBuilder(String.format(
+				"Stall: %s took no message for %d ms while %d waited (%d when it stopped)%n",
+				service.getName(), TimeUnit.NANOSECONDS.toMillis(now - last.since), depth, last.depth));
+		Thread consumer = queue.getConsumer();
+		if (consumer == null && queue.getTakenCount() == 0) {
+			report.append("  no thread took a message from it yet\n");
+		} else if (consumer == null) {
+			report.append("  no thread is running it, it waits to be scheduled on a worker\n");
+		} else {
+			appendThread(report, consumer);
+		}
+		report.append("  head of its queue:");
+		for (Message message : queue.head(HEAD_LENGTH)) {
+			report.append(' ').append(message.getClass().getSimpleName());
+		}
+		return report.append('\n').toString();
+	}
+
+	private static void appendThread(StringBuilder report, Thread thread) {
+		ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(idOf(thread), Integer.MAX_VALUE);
+		StackTraceElement[] stack;
+		if (info != null) {
+			report.append("  thread ").append(info.getThreadName()).append(" is ").append(info.getThreadState());
+			if (info.getLockName() != null) {
+				report.append(" on ").append(info.getLockName());
+			}
+			if (info.getLockOwnerName() != null) {
+				report.append(" held by ").append(info.getLockOwnerName());
+			}
+			stack = info.getStackTrace();
+		} else if (thread.isAlive()) { // a virtual thread, unknown to the thread MXBean
+			String name = thread.getName().isEmpty() ? thread.toString() : thread.getName();
+			report.append("  thread ").append(name).append(" is ").append(thread.getState());
+			stack = thread.getStackTrace();
+		} else {
+			report.append("  thread ").append(thread.getName()).append(" is no longer alive\n");
+			return;
+		}
+		report.append('\n');
+		for (StackTraceElement frame : stack) {
+			report.append("    at ").append(frame).append('\n');
+		}
+	}
+
+	// Thread.getId() is deprecated from Java 19 on, in favor of threadId(),
+	// which is looked up reflectively so the code still builds on Java 8
+	@SuppressWarnings("deprecation")
+	private static long idOf(Thread thread) {
+		if (THREAD_ID != null) {
+			try {
+				return (Long) THREAD_ID.invoke(thread);
+			} catch (ReflectiveOperationException e) {
+				// falls back to getId(), which returns the same id
+			}
+		}
+		return thread.getId();
+	}
+
+	private static Method threadIdMethod() {
+		try {
+			return Thread.class.getMethod("threadId");
+		} catch (NoSuchMethodException e) {
+			return null; // before Java 19
+		}
+	}
+
+	// What a sample saw of a mailbox, since its consumer last made progress
+	private static final class Progress {
+		private final long taken;
+		private final int depth;
+		private final long since;
+		private boolean reported;
+
+		private Progress(long taken, int depth, long since) {
+			this.taken = taken;
+			this.depth = depth;
+			this.since = since;
+			this.reported = false;
+		}
+	}
+}
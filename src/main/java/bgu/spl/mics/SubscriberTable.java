@@ -0,0 +1,240 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The subscribers of a single message type, kept as an immutable array of
+ * {@link Mailbox}es that is replaced as a whole whenever a micro-service
+ * subscribes or unregisters (copy-on-write).
+ * <p>
+ * Subscription changes are rare, while every sent message reads the table,
+ * so readers never lock: they take the current array and work on it.
+ * Events are routed according to the table's {@link RoutingPolicy}; the
+ * round-robin policy uses an atomic cursor instead of rotating a shared list.
+ * <p>
+ * For the consistent-hash policy the table also keeps a hash ring, built
+ * from the array the first time a key is routed after it changed, so tables
+ * of other policies never build one. Every subscriber owns
+ * {@value #VIRTUAL_NODES} points on the ring, at positions that depend only on
+ * the name of its micro-service, so when one unsubscribes only the keys it
+ * owned move to other subscribers, and the same keys go to the same services
+ * in every run. Services sharing a name are told apart by their order of
+ * subscription among them, so each still owns points of its own; when one
+ * of them unsubscribes, the keys of those subscribed after it move as well.
+ */
+final class SubscriberTable {
+
+	//Fields
+	private static final Mailbox[] NO_SUBSCRIBERS = new Mailbox[0];
+	private static final int VIRTUAL_NODES = 64;
+	private volatile Mailbox[] subscribers;
+	private volatile HashRing ring; // null until a key is routed
+	private final AtomicInteger cursor;
+	private volatile RoutingPolicy policy;
+
+	//Constructor
+	SubscriberTable() {
+		this.subscribers = NO_SUBSCRIBERS;
+		this.ring = null;
+		this.cursor = new AtomicInteger(0);
+		this.policy = RoutingPolicy.ROUND_ROBIN;
+	}
+
+	//Methods
+	/**
+	 * Adds {@code mailbox} to the table, if it is not already subscribed.
+	 */
+	synchronized void add(Mailbox mailbox) {
+		Mailbox[] current = subscribers;
+		for (Mailbox subscriber : current) {
+			if (subscriber == mailbox) {
+				return;
+			}
+		}
+		Mailbox[] updated = new Mailbox[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = mailbox;
+		subscribers = updated;
+	}
+
+	/**
+	 * Removes {@code mailbox} from the table, if it is subscribed.
+	 */
+	synchronized void remove(Mailbox mailbox) {
+		Mailbox[] current = subscribers;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == mailbox) {
+				Mailbox[] updated = new Mailbox[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				subscribers = updated;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the subscriber chosen by the routing policy, or null if there
+	 *         are no subscribers.
+	 */
+	Mailbox next() {
+		return next(null);
+	}
+
+	/**
+	 * @param key the routing key of the event, or null if it has none.
+	 * @return the subscriber chosen by the routing policy, or null if there
+	 *         are no subscribers. Under the consistent-hash policy, events with
+	 *         equal keys get the same subscriber for as long as it is subscribed.
+	 */
+	Mailbox next(Object key) {
+		Mailbox[] current = subscribers;
+		if (current.length == 0) {
+			return null;
+		}
+		if (current.length == 1) {
+			return current[0];
+		}
+		switch (policy) {
+			case LEAST_LOADED:
+				return leastLoaded(current);
+			case POWER_OF_TWO_CHOICES:
+				return betterOfTwo(current);
+			case CONSISTENT_HASH:
+				if (key != null) {
+					return ringOf(current).owner(key);
+				}
+				return current[nextIndex(current.length)];
+			default: // ROUND_ROBIN
+				return current[nextIndex(current.length)];
+		}
+	}
+
+	/**
+	 * Sets the policy used by {@link #next()} from now on.
+	 */
+	void setPolicy(RoutingPolicy policy) {
+		this.policy = policy;
+	}
+
+	RoutingPolicy getPolicy() {
+		return policy;
+	}
+
+	// Scans all subscribers, starting from the round-robin position so that
+	// equally loaded subscribers still take turns
+	private Mailbox leastLoaded(Mailbox[] current) {
+		int start = nextIndex(current.length);
+		Mailbox best = current[start];
+		int bestSize = best.depth();
+		for (int i = 1; i < current.length && bestSize > 0; i++) {
+			Mailbox candidate = current[(start + i) % current.length];
+			int size = candidate.depth();
+			if (size < bestSize) {
+				best = candidate;
+				bestSize = size;
+			}
+		}
+		return best;
+	}
+
+	// Samples two distinct subscribers and keeps the less loaded one
+	private Mailbox betterOfTwo(Mailbox[] current) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(current.length);
+		int second = random.nextInt(current.length - 1);
+		if (second >= first) {
+			second++;
+		}
+		return current[second].depth() < current[first].depth() ? current[second] : current[first];
+	}
+
+	// The ring of the given subscribers, built if the subscribers changed
+	// since the last one. Concurrent senders may both build it, which is
+	// harmless as the rings are equal
+	private HashRing ringOf(Mailbox[] current) {
+		HashRing built = ring;
+		if (built == null || built.subscribers != current) {
+			built = HashRing.of(current);
+			ring = built;
+		}
+		return built;
+	}
+
+	// Masking the sign bit keeps the index valid once the cursor overflows
+	private int nextIndex(int length) {
+		return (cursor.getAndIncrement() & Integer.MAX_VALUE) % length;
+	}
+
+	/**
+	 * @return the current subscribers. The returned array must not be modified.
+	 */
+	Mailbox[] snapshot() {
+		return subscribers;
+	}
+
+	// Murmur3's finalizer, spreads similar hash codes across the whole ring
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	// An immutable hash ring: sorted points, each owned by a subscriber
+	private static final class HashRing {
+		private final Mailbox[] subscribers; // the array the ring was built from
+		private final int[] points;
+		private final Mailbox[] owners;
+
+		private HashRing(Mailbox[] subscribers, int[] points, Mailbox[] owners) {
+			this.subscribers = subscribers;
+			this.points = points;
+			this.owners = owners;
+		}
+
+		private static HashRing of(Mailbox[] subscribers) {
+			long[] entries = new long[subscribers.length * VIRTUAL_NODES];
+			Map<String, Integer> occurrences = new HashMap<>(); // of each name so far
+			for (int i = 0; i < subscribers.length; i++) {
+				int base = seed(subscribers[i].getOwner().getName(), occurrences);
+				for (int replica = 0; replica < VIRTUAL_NODES; replica++) {
+					int point = mix(base * 31 + replica);
+					// The point in the high bits, for sorting, and the subscriber in the low bits
+					entries[i * VIRTUAL_NODES + replica] = ((long) point << 32) | i;
+				}
+			}
+			Arrays.sort(entries);
+
+			int[] points = new int[entries.length];
+			Mailbox[] owners = new Mailbox[entries.length];
+			for (int i = 0; i < entries.length; i++) {
+				points[i] = (int) (entries[i] >> 32);
+				owners[i] = subscribers[(int) entries[i]];
+			}
+			return new HashRing(subscribers, points, owners);
+		}
+
+		// The seed of a subscriber's points: its name, and for the second and
+		// later subscribers of that name, how many came before it
+		private static int seed(String name, Map<String, Integer> occurrences) {
+			int occurrence = occurrences.merge(name, 1, Integer::sum) - 1;
+			return occurrence == 0 ? name.hashCode() : (name + '#' + occurrence).hashCode();
+		}
+
+		// The owner of the first point at or after the key's hash, wrapping around
+		private Mailbox owner(Object key) {
+			int index = Arrays.binarySearch(points, mix(key.hashCode()));
+			if (index < 0) {
+				index = -index - 1;
+			}
+			return owners[index == points.length ? 0 : index];
+		}
+	}
+}
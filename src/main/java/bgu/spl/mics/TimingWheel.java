@@ -0,0 +1,194 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel, holding entries until the clock reaches the
+ * tick they are due at.
+ * <p>
+ * Each level is a ring of 64 slots: a slot of level 0 spans a single tick, a
+ * slot of level 1 spans 64 ticks, and so on. An entry is kept in the lowest
+ * level whose ring still reaches its tick, so scheduling and firing take
+ * constant time however far ahead entries are. When the clock enters the span
+ * of a slot of a higher level, the slot's entries move down to the levels
+ * below. Entries beyond the reach of the top level wait in an overflow list,
+ * looked at whenever the top level wraps around.
+ * <p>
+ * Each level keeps a bitmap of its occupied slots, so advancing the clock
+ * jumps straight to the next tick an entry fires or moves down at, and a
+ * long jump costs no more than the entries on the way.
+ * <p>
+ * All methods are synchronized: entries are scheduled by many threads, but
+ * rarely, and the clock is advanced by a single one.
+ */
+final class TimingWheel<T> {
+
+	//Fields
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int LEVELS = 4; // reaches 2^24 ticks ahead
+	private final List<List<Timer<T>>> slots; // level by level, SLOTS each
+	private final List<Timer<T>> overflow;
+	private final long[] occupied; // a bit per non-empty slot, for each level
+	private long currentTick;
+	private int size;
+
+	//Constructor
+	TimingWheel() {
+		this.slots = new ArrayList<>(LEVELS * SLOTS);
+		for (int i = 0; i < LEVELS * SLOTS; i++) {
+			slots.add(new ArrayList<>());
+		}
+		this.overflow = new ArrayList<>();
+		this.occupied = new long[LEVELS];
+		this.currentTick = 0;
+		this.size = 0;
+	}
+
+	//Methods
+	/**
+	 * Schedules {@code value} at {@code tick}.
+	 * <p>
+	 * @return false if the clock has already reached {@code tick}, in which
+	 *         case the value is due now and is not kept.
+	 */
+	synchronized boolean schedule(long tick, T value) {
+		if (tick <= currentTick) {
+			return false;
+		}
+		place(new Timer<>(tick, value));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Advances the clock to {@code tick}, adding the values due by then to
+	 * {@code due}, in the order of their ticks.
+	 */
+	synchronized void advanceTo(long tick, List<? super T> due) {
+		while (currentTick < tick) {
+			long next = nextChange();
+			if (next > tick) { // nothing to fire or move on the way
+				currentTick = tick;
+				return;
+			}
+			currentTick = next;
+
+			// Move down the entries whose span the clock enters, top level first
+			if ((currentTick & mask(LEVELS)) == 0) {
+				List<Timer<T>> farther = new ArrayList<>(overflow);
+				overflow.clear();
+				replace(farther, due);
+			}
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((currentTick & mask(level)) == 0) {
+					int index = slotOf(currentTick, level);
+					List<Timer<T>> slot = slot(level, index);
+					if (!slot.isEmpty()) {
+						List<Timer<T>> moved = new ArrayList<>(slot);
+						slot.clear();
+						occupied[level] &= ~(1L << index);
+						replace(moved, due);
+					}
+				}
+			}
+
+			// Fire the entries of the tick
+			int index = slotOf(currentTick, 0);
+			List<Timer<T>> slot = slot(0, index);
+			if (!slot.isEmpty()) {
+				for (Timer<T> timer : slot) {
+					due.add(timer.value);
+				}
+				size -= slot.size();
+				slot.clear();
+				occupied[0] &= ~(1L << index);
+			}
+		}
+	}
+
+	/**
+	 * @return the tick the clock has reached.
+	 */
+	synchronized long getCurrentTick() {
+		return currentTick;
+	}
+
+	/**
+	 * @return the number of entries not due yet.
+	 */
+	synchronized int size() {
+		return size;
+	}
+
+	// The next tick at which an entry fires or moves down, or Long.MAX_VALUE
+	// if the wheel is empty. Entries of a level all lie in the current span
+	// of the level above, after the slot of the current tick, so the first
+	// occupied slot of the lowest level that has one comes first
+	private long nextChange() {
+		for (int level = 0; level < LEVELS; level++) {
+			int current = slotOf(currentTick, level);
+			long later = current == SLOTS - 1 ? 0 : occupied[level] & (-1L << (current + 1));
+			if (later != 0) {
+				long span = currentTick & ~mask(level + 1);
+				return span | ((long) Long.numberOfTrailingZeros(later) << (SLOT_BITS * level));
+			}
+		}
+		if (!overflow.isEmpty()) {
+			return (currentTick & ~mask(LEVELS)) + (1L << (SLOT_BITS * LEVELS));
+		}
+		return Long.MAX_VALUE;
+	}
+
+	// Puts timers moving down back in the wheel, firing those due right now
+	private void replace(List<Timer<T>> timers, List<? super T> due) {
+		for (Timer<T> timer : timers) {
+			if (timer.tick <= currentTick) {
+				due.add(timer.value);
+				size--;
+			} else {
+				place(timer);
+			}
+		}
+	}
+
+	// Puts a timer in the lowest level whose ring reaches its tick
+	private void place(Timer<T> timer) {
+		for (int level = 0; level < LEVELS; level++) {
+			if ((timer.tick >>> (SLOT_BITS * (level + 1))) == (currentTick >>> (SLOT_BITS * (level + 1)))) {
+				int index = slotOf(timer.tick, level);
+				slot(level, index).add(timer);
+				occupied[level] |= 1L << index;
+				return;
+			}
+		}
+		overflow.add(timer);
+	}
+
+	// The slots are kept in a typed list rather than an array of lists, which
+	// Java cannot create without an unchecked cast
+	private List<Timer<T>> slot(int level, int index) {
+		return slots.get(level * SLOTS + index);
+	}
+
+	private static int slotOf(long tick, int level) {
+		return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+	}
+
+	// The bits of a tick below the slots of the given level
+	private static long mask(int level) {
+		return (1L << (SLOT_BITS * level)) - 1;
+	}
+
+	// An entry together with its tick
+	private static final class Timer<T> {
+		private final long tick;
+		private final T value;
+
+		private Timer(long tick, T value) {
+			this.tick = tick;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package bgu.spl.mics;
+
+/**
+ * Decides how a micro-service's thread waits in
+ * {@link MessageBus#awaitMessage(MicroService)} while its {@link Mailbox} is
+ * empty. The strategies trade CPU time for how fast the thread notices a new
+ * message.
+ * Possible strategies:
+ * - BUSY_SPIN: The thread keeps polling the mailbox. Lowest latency, but it
+ *   occupies a whole core even while idle; only for machines with cores to spare.
+ * - SPIN_YIELD: The thread polls for a short while, then keeps yielding its
+ *   core between polls.
+ * - TIMED_PARK: The thread polls, sleeping for a few microseconds in between.
+ *   Senders never have to wake it up.
+ * - BLOCKING: The thread parks until a sender wakes it up. No CPU is used
+ *   while idle, but every wake-up costs a round trip through the OS scheduler.
+ * <p>
+ * Micro-services run by the {@link ActorScheduler} never wait on their
+ * mailbox, so the strategy has no effect on them.
+ */
+public enum WaitStrategy {
+    BUSY_SPIN, SPIN_YIELD, TIMED_PARK, BLOCKING
+}
@@ -3,8 +3,25 @@ package bgu.spl.mics.application;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.ArrayList;
-import java.util.LinkedList;
-
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.LongSummaryStatistics;
+import java.util.TreeSet;
+
+import bgu.spl.mics.ActorScheduler;
+import bgu.spl.mics.BusMetrics;
+import bgu.spl.mics.BusTracer;
+import bgu.spl.mics.MailboxSettings;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.RoutingPolicy;
+import bgu.spl.mics.StallWatchdog;
+import bgu.spl.mics.WaitStrategy;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
 import bgu.spl.mics.application.services.*;
 import bgu.spl.mics.application.objects.*;
 import com.google.gson.Gson;
@@ -14,9 +31,12 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.reflect.Method;
 
 /**
  * The main entry point for the GurionRock Pro Max Ultra Over 9000 simulation.
@@ -37,7 +57,6 @@ public class GurionRockRunner {
      */
     public static void main(String[] args) {
         System.out.println(args[0]);
-        Map<String, String> idToDescription = new HashMap<>();
         System.out.println("Starting the GurionRock Pro Max Ultra Over 9000 simulation...");
         
         if (args.length != 1) {
@@ -45,225 +64,289 @@ public class GurionRockRunner {
         return;
         }
 
-        String relativePath = args[0].substring(0, args[0].lastIndexOf("/"));
-        String configFilePath = args[0];
-
         try {
-            System.out.println("Parsing configuration file...");
-            // Parse the configuration file using GSON
-            JsonObject config = parseJsonConfig(configFilePath);
-
-            System.out.println("Initializing services...");
-            /***********************************
-             * Initialize TimeService
-             ***********************************/
-            int tickDuration = config.get("TickTime").getAsInt();
-            int duration = config.get("Duration").getAsInt();
-            TimeService timeService = new TimeService(tickDuration, duration);
-
-            /***********************************
-             * Initialize CameraServices
-             ***********************************/
-            // Getting the relevant JSON objects
-            JsonObject cameras = config.getAsJsonObject("Cameras");
-            JsonArray camerasConfigurations = cameras.getAsJsonArray("CamerasConfigurations");
-            String camDataPath = relativePath + cameras.get("camera_datas_path").getAsString().substring(1);
-            JsonObject camerasData = parseJsonConfig(camDataPath); // Try to change that
-
-            // loop over all cameras
-            CameraService[] cameraServices = new CameraService[camerasConfigurations.size()];
-            for (int i = 0; i < camerasConfigurations.size(); i++) {
-
-                // getting camera data from config
-                JsonObject cameraConfig = camerasConfigurations.get(i).getAsJsonObject();
-                int id = cameraConfig.get("id").getAsInt();
-                int frequency = cameraConfig.get("frequency").getAsInt();
-                String camera_key = cameraConfig.get("camera_key").getAsString();
-
-                // creating a list of detected objects and a list of StampedDetectedObjects
-
-                List<StampedDetectedObjects> StampedDetectedObjectsList = new ArrayList<>();
-
-                // getting current camera data from camera file
-                JsonArray currentCamera = camerasData.getAsJsonArray(camera_key);
-                for (JsonElement element : currentCamera) {
-                    List<DetectedObject> detectedObjectsList = new ArrayList<>();
-                    JsonObject object = element.getAsJsonObject();
-                    int time = object.get("time").getAsInt();
-                    JsonArray currentCameraDetectedObjects = object.getAsJsonArray("detectedObjects");
-
-                    // going over all detected objects and creating a list of StampedDetectedObjects
-                    // with time
-                    if (currentCameraDetectedObjects != null) {
-                        for (int j = 0; (j < currentCameraDetectedObjects.size()); j++) {
-                            JsonObject detectedObject = currentCameraDetectedObjects.get(j).getAsJsonObject();
-                            String detectedObjectID = detectedObject.get("id").getAsString();
-                            String detectedObjectDescription = detectedObject.get("description").getAsString();
-                            idToDescription.put(detectedObjectID, detectedObjectDescription);
-                            detectedObjectsList.add(new DetectedObject(detectedObjectID, detectedObjectDescription));
-                        }
-                        StampedDetectedObjectsList.add(new StampedDetectedObjects(time, detectedObjectsList));
-                    }
-                }
+            run(args[0], ".", SimulationContext.global());
+        } catch (IOException e) {
+            System.err.println("Error reading configuration file: " + e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("An error occurred during the simulation.");
+        }
+    }
 
-                // creating a camera and a camera service
-                Camera camera = new Camera(id, frequency, StampedDetectedObjectsList);
-                cameraServices[i] = new CameraService(camera);
-            }
+    /**
+     * Runs a single simulation to completion and writes its output file.
+     * Simulations with separate contexts and output directories may run
+     * concurrently in the same JVM.
+     *
+     * @param configFilePath  The path to the configuration file.
+     * @param outputDirectory The directory the output file is written to.
+     * @param context         The bus, map, statistics and database the
+     *                        simulation's services use.
+     * @throws IOException if a configuration or data file cannot be read, or
+     *                     the output file cannot be written.
+     * @throws InterruptedException if interrupted while waiting for the
+     *                              services.
+     */
+    public static void run(String configFilePath, String outputDirectory, SimulationContext context)
+            throws IOException, InterruptedException {
+        Map<String, String> idToDescription = new HashMap<>();
+        String relativePath = configFilePath.substring(0, configFilePath.lastIndexOf("/"));
+        MessageBusImpl bus = context.getMessageBus();
+
+        System.out.println("Parsing configuration file...");
+        // Parse the configuration file using GSON
+        JsonObject config = parseJsonConfig(configFilePath);
+
+        System.out.println("Initializing services...");
+        /***********************************
+         * Initialize TimeService
+         ***********************************/
+        int tickDuration = config.get("TickTime").getAsInt();
+        int duration = config.get("Duration").getAsInt();
+        TimeService timeService = new TimeService(tickDuration, duration, context);
+        timeService.setVirtualTime(config.has("VirtualTime") && config.get("VirtualTime").getAsBoolean());
+        if (config.has("TickTimeUnit")) {
+            timeService.setTickUnit(TimeUnit.valueOf(config.get("TickTimeUnit").getAsString()));
+        }
 
-            /***********************************
-             * Initialize LiDarServices
-             ***********************************/
-            JsonObject lidars = config.getAsJsonObject("LiDarWorkers");
-            JsonArray lidarsConfigurations = lidars.getAsJsonArray("LidarConfigurations");
-            String liDarDataPath = relativePath + lidars.get("lidars_data_path").getAsString().substring(1);
-            LiDarDataBase lidarDataBase = LiDarDataBase.getInstance(liDarDataPath);
-
-            // loop over all lidars
-            LiDarService[] lidarServices = new LiDarService[lidarsConfigurations.size()];
-            for (int i = 0; i < lidarsConfigurations.size(); i++) {
-
-                // getting lidar data from config(id and frequency)
-                JsonObject lidarConfig = lidarsConfigurations.get(i).getAsJsonObject();
-                int id = lidarConfig.get("id").getAsInt();
-                int frequency = lidarConfig.get("frequency").getAsInt();
-
-                // creating a list of tracked objects for the lidar
-                List<TrackedObject> trackedObjectsList = new ArrayList<>();
-
-                // going over the lidarDataBase and adding the tracked objects to the trackedObjectsList
-                List<StampedCloudPoints> stampedCloudPoints = lidarDataBase.getCloudPoints();
-                for (StampedCloudPoints point : stampedCloudPoints) {
-                    List<CloudPoint> cloudPointList = new ArrayList<>();
-                    for (List<Double> pointList : point.getCloudPoints()) {
-                        cloudPointList.add(new CloudPoint(pointList.get(0), pointList.get(1)));
+        /***********************************
+         * Initialize CameraServices
+         ***********************************/
+        // Getting the relevant JSON objects
+        JsonObject cameras = config.getAsJsonObject("Cameras");
+        JsonArray camerasConfigurations = cameras.getAsJsonArray("CamerasConfigurations");
+        String camDataPath = relativePath + cameras.get("camera_datas_path").getAsString().substring(1);
+        JsonObject camerasData = parseJsonConfig(camDataPath); // Try to change that
+
+        // loop over all cameras
+        CameraService[] cameraServices = new CameraService[camerasConfigurations.size()];
+        for (int i = 0; i < camerasConfigurations.size(); i++) {
+
+            // getting camera data from config
+            JsonObject cameraConfig = camerasConfigurations.get(i).getAsJsonObject();
+            int id = cameraConfig.get("id").getAsInt();
+            int frequency = cameraConfig.get("frequency").getAsInt();
+            String camera_key = cameraConfig.get("camera_key").getAsString();
+
+            // creating a list of detected objects and a list of StampedDetectedObjects
+
+            List<StampedDetectedObjects> StampedDetectedObjectsList = new ArrayList<>();
+
+            // getting current camera data from camera file
+            JsonArray currentCamera = camerasData.getAsJsonArray(camera_key);
+            for (JsonElement element : currentCamera) {
+                List<DetectedObject> detectedObjectsList = new ArrayList<>();
+                JsonObject object = element.getAsJsonObject();
+                int time = object.get("time").getAsInt();
+                JsonArray currentCameraDetectedObjects = object.getAsJsonArray("detectedObjects");
+
+                // going over all detected objects and creating a list of StampedDetectedObjects
+                // with time
+                if (currentCameraDetectedObjects != null) {
+                    for (int j = 0; (j < currentCameraDetectedObjects.size()); j++) {
+                        JsonObject detectedObject = currentCameraDetectedObjects.get(j).getAsJsonObject();
+                        String detectedObjectID = detectedObject.get("id").getAsString();
+                        String detectedObjectDescription = detectedObject.get("description").getAsString();
+                        idToDescription.put(detectedObjectID, detectedObjectDescription);
+                        detectedObjectsList.add(new DetectedObject(detectedObjectID, detectedObjectDescription));
                     }
-                    trackedObjectsList.add(new TrackedObject(point.getID(), point.getTime(),
-                            idToDescription.get(point.getID()), cloudPointList));
+                    StampedDetectedObjectsList.add(new StampedDetectedObjects(time, detectedObjectsList));
                 }
+            }
+
+            // creating a camera and a camera service
+            Camera camera = new Camera(id, frequency, StampedDetectedObjectsList);
+            cameraServices[i] = new CameraService(camera, context);
+        }
 
-                // creating a lidar and a lidar service
-                LiDarWorkerTracker lidar = new LiDarWorkerTracker(id, frequency, trackedObjectsList);
-                lidarServices[i] = new LiDarService(lidar);
+        /***********************************
+         * Initialize LiDarServices
+         ***********************************/
+        JsonObject lidars = config.getAsJsonObject("LiDarWorkers");
+        JsonArray lidarsConfigurations = lidars.getAsJsonArray("LidarConfigurations");
+        String liDarDataPath = relativePath + lidars.get("lidars_data_path").getAsString().substring(1);
+        LiDarDataBase lidarDataBase = context.getLiDarDataBase(liDarDataPath);
+
+        // loop over all lidars
+        LiDarService[] lidarServices = new LiDarService[lidarsConfigurations.size()];
+        for (int i = 0; i < lidarsConfigurations.size(); i++) {
+
+            // getting lidar data from config(id and frequency)
+            JsonObject lidarConfig = lidarsConfigurations.get(i).getAsJsonObject();
+            int id = lidarConfig.get("id").getAsInt();
+            int frequency = lidarConfig.get("frequency").getAsInt();
+
+            // creating a list of tracked objects for the lidar
+            List<TrackedObject> trackedObjectsList = new ArrayList<>();
+
+            // going over the lidarDataBase and adding the tracked objects to the trackedObjectsList
+            List<StampedCloudPoints> stampedCloudPoints = lidarDataBase.getCloudPoints();
+            for (StampedCloudPoints point : stampedCloudPoints) {
+                List<CloudPoint> cloudPointList = new ArrayList<>();
+                for (List<Double> pointList : point.getCloudPoints()) {
+                    cloudPointList.add(new CloudPoint(pointList.get(0), pointList.get(1)));
+                }
+                trackedObjectsList.add(new TrackedObject(point.getID(), point.getTime(),
+                        idToDescription.get(point.getID()), cloudPointList));
             }
 
-            /***********************************
-             * Initialize PoseService
-             ***********************************/
-            String poseDataPath = relativePath + config.get("poseJsonFile").getAsString().substring(1);
-            JsonArray poseData = parseJsonArrayConfig(poseDataPath); // Try to change that
-            List<Pose> poseList = new LinkedList<>();
+            // creating a lidar and a lidar service
+            LiDarWorkerTracker lidar = new LiDarWorkerTracker(id, frequency, trackedObjectsList);
+            lidarServices[i] = new LiDarService(lidar, context);
+        }
 
-            // loop over all poses
-            for (int i = 0; i < poseData.size(); i++) {
+        /***********************************
+         * Initialize PoseService
+         ***********************************/
+        String poseDataPath = relativePath + config.get("poseJsonFile").getAsString().substring(1);
+        JsonArray poseData = parseJsonArrayConfig(poseDataPath); // Try to change that
+        List<Pose> poseList = new LinkedList<>();
 
-                // getting pose data from config
-                JsonObject poseConfig = poseData.get(i).getAsJsonObject();
-                int time = poseConfig.get("time").getAsInt();
-                float x = poseConfig.get("x").getAsFloat();
-                float y = poseConfig.get("y").getAsFloat();
-                float yaw = poseConfig.get("yaw").getAsFloat();
+        // loop over all poses
+        for (int i = 0; i < poseData.size(); i++) {
 
-                poseList.add(new Pose(x, y, yaw, time));
-            }
+            // getting pose data from config
+            JsonObject poseConfig = poseData.get(i).getAsJsonObject();
+            int time = poseConfig.get("time").getAsInt();
+            float x = poseConfig.get("x").getAsFloat();
+            float y = poseConfig.get("y").getAsFloat();
+            float yaw = poseConfig.get("yaw").getAsFloat();
 
-            // Initialize GPSIMU with the pose data
-            GPSIMU gpsimu = new GPSIMU();
-            for (Pose pose : poseList) {
-                gpsimu.updateTick(pose.getX(), pose.getY(), pose.getYaw(), pose.getTime());
-            }
+            poseList.add(new Pose(x, y, yaw, time));
+        }
 
-            // Create the PoseService
-            PoseService poseService = new PoseService(gpsimu);
-
-            /***********************************
-             * Initialize FusionSlamService
-             ***********************************/
-            FusionSlam fusionSlam = FusionSlam.getInstance();
-            FusionSlamService fusionSlamService = new FusionSlamService(fusionSlam);
-
-            System.out.println("Starting simulation...");
-            // Start the simulation
-            startSimulation(timeService, cameraServices, lidarServices, poseService, fusionSlamService);
-            System.out.println("Simulation completed.");
-
-            System.out.println("Building output file...");
-            // build the output file
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            StatisticalFolder stats = StatisticalFolder.getInstance();
-
-            List<LandMark> landMarks = fusionSlam.getLandMarks();
-            //Get the error msg and the faulty sensor
-            String error = null;
-            String faultySensor = null;
-            //loop that finds the first camera that crashed and saves the error msg
-            for (CameraService cameraService : cameraServices){
-                if(cameraService.getCamera().getStatus() == STATUS.ERROR){
-                    Camera faultyCamera = cameraService.getCamera();
-                    error = faultyCamera.getErrorObject().getDescription();
-                    faultySensor = "Camera " + faultyCamera.getID();
-                }        
-            }
+        // Initialize GPSIMU with the pose data
+        GPSIMU gpsimu = new GPSIMU();
+        for (Pose pose : poseList) {
+            gpsimu.updateTick(pose.getX(), pose.getY(), pose.getYaw(), pose.getTime());
+        }
 
-            //loop that finds the first lidar that crashed and saves the error msg
-            for (LiDarService lidarService : lidarServices){
-                if(lidarService.getLiDarWorkerTracker().getStatus() == STATUS.ERROR){
-                    LiDarWorkerTracker faultyLiDar = lidarService.getLiDarWorkerTracker();
-                    error = faultyLiDar.getErrorObject().getDescription();
-                    faultySensor = "LiDar " + faultyLiDar.getID();
-                }        
-            }
+        // Create the PoseService
+        PoseService poseService = new PoseService(gpsimu, context);
 
-            //getting the poses until the error
-            List<Pose> poses = new LinkedList<>();
-            if(error != null){
-                for(int i = 0; i < stats.getSystemRuntime(); i++){
-                    poses.add(poseList.get(i)); 
-                }
-            }
+        // Skip the ticks nothing is due at, if asked to
+        if (config.has("SkipIdleTicks") && config.get("SkipIdleTicks").getAsBoolean()) {
+            timeService.setTicks(computeDueTicks(duration, cameraServices, lidarServices, poseList));
+        }
 
-            //getting the last camera frames
-            Map<String, LastFrameData> lastCameraFrames = new HashMap<>();
-            for(CameraService cameraService : cameraServices){
-                List<DetectedObject> detectedObjects = new ArrayList<>();
-                StampedDetectedObjects lastFrame = cameraService.getLastFrame();
-                if(lastFrame != null){
-                    for(DetectedObject detectedObject : lastFrame.getDetectedObjects()){
-                        detectedObjects.add(detectedObject);
-                    }
-                    lastCameraFrames.put("Camera " + cameraService.getCamera().getID(), new LastFrameData(lastFrame.getTime(), detectedObjects));
-                }
-            }
+        /***********************************
+         * Initialize FusionSlamService
+         ***********************************/
+        FusionSlam fusionSlam = context.getFusionSlam();
+        FusionSlamService fusionSlamService = new FusionSlamService(context);
+
+        /***********************************
+         * Configure the services' event loops
+         ***********************************/
+        List<MicroService> services = new ArrayList<>();
+        services.add(timeService);
+        services.addAll(Arrays.asList(cameraServices));
+        services.addAll(Arrays.asList(lidarServices));
+        services.add(poseService);
+        services.add(fusionSlamService);
+        configureEventLoops(config, services);
+        configureMailboxes(config, bus);
+        configureEventRouting(config, bus);
+        startMetricsDump(config);
+        StallWatchdog watchdog = startStallWatchdog(config, bus);
+
+        System.out.println("Starting simulation...");
+        // Start the simulation
+        String executionMode = getExecutionMode(config);
+        if (executionMode.equals("POOLED")) {
+            int workers = config.has("WorkerThreads")
+                    ? config.get("WorkerThreads").getAsInt()
+                    : Runtime.getRuntime().availableProcessors();
+            startPooledSimulation(workers, timeService, cameraServices, lidarServices, poseService, fusionSlamService);
+        } else {
+            boolean virtual = executionMode.equals("VIRTUAL");
+            startSimulation(virtual, timeService, cameraServices, lidarServices, poseService, fusionSlamService);
+        }
+        if (watchdog != null) {
+            watchdog.stop();
+        }
+        System.out.println("Simulation completed.");
+        printTickLateness(timeService);
+        printRejectedMessages(bus);
+        if (BusMetrics.ENABLED) {
+            BusMetrics.getInstance().stopDump();
+            System.out.print(BusMetrics.getInstance().dump());
+        }
+        if (BusTracer.ENABLED) {
+            writeTrace();
+        }
 
-            // Getting the last lidar frames
-            Map<String, List<TrackedObject>> lastLidarFrames = new HashMap<>();
-            for (LiDarService lidarService : lidarServices) {
-                List<TrackedObject> trackedObjects = new ArrayList<>(lidarService.getLiDarWorkerTracker().getTrackedObjectsList());
-                lastLidarFrames.put("LiDar " + lidarService.getLiDarWorkerTracker().getID(), trackedObjects);
-            }
+        System.out.println("Building output file...");
+        // build the output file
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        StatisticalFolder stats = context.getStatisticalFolder();
+
+        List<LandMark> landMarks = fusionSlam.getLandMarks();
+        //Get the error msg and the faulty sensor
+        String error = null;
+        String faultySensor = null;
+        //loop that finds the first camera that crashed and saves the error msg
+        for (CameraService cameraService : cameraServices){
+            if(cameraService.getCamera().getStatus() == STATUS.ERROR){
+                Camera faultyCamera = cameraService.getCamera();
+                error = faultyCamera.getErrorObject().getDescription();
+                faultySensor = "Camera " + faultyCamera.getID();
+            }        
+        }
 
-            
-            OutputData outputData = new OutputData(stats, landMarks);
-            ErrorOutputData errorOutputData = new ErrorOutputData(error, faultySensor,lastCameraFrames ,lastLidarFrames, poses, outputData);
+        //loop that finds the first lidar that crashed and saves the error msg
+        for (LiDarService lidarService : lidarServices){
+            if(lidarService.getLiDarWorkerTracker().getStatus() == STATUS.ERROR){
+                LiDarWorkerTracker faultyLiDar = lidarService.getLiDarWorkerTracker();
+                error = faultyLiDar.getErrorObject().getDescription();
+                faultySensor = "LiDar " + faultyLiDar.getID();
+            }        
+        }
 
-            
-            if(error == null){
-                try (FileWriter writer = new FileWriter("output_file.json")) {
-                gson.toJson(outputData, writer);
+        //getting the poses until the error
+        List<Pose> poses = new LinkedList<>();
+        if(error != null){
+            for(int i = 0; i < stats.getSystemRuntime(); i++){
+                poses.add(poseList.get(i)); 
             }
-            System.out.println("Output file created: output_file.json");
-            }else{
-                try (FileWriter writer = new FileWriter("OutputError.json")) {
-                gson.toJson(errorOutputData, writer);
+        }
+
+        //getting the last camera frames
+        Map<String, LastFrameData> lastCameraFrames = new HashMap<>();
+        for(CameraService cameraService : cameraServices){
+            List<DetectedObject> detectedObjects = new ArrayList<>();
+            StampedDetectedObjects lastFrame = cameraService.getLastFrame();
+            if(lastFrame != null){
+                for(DetectedObject detectedObject : lastFrame.getDetectedObjects()){
+                    detectedObjects.add(detectedObject);
                 }
-                System.out.println("Output file created: OutputError.json");
+                lastCameraFrames.put("Camera " + cameraService.getCamera().getID(), new LastFrameData(lastFrame.getTime(), detectedObjects));
             }
+        }
 
-        } catch (IOException e) {
-            System.err.println("Error reading configuration file: " + e.getMessage());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("An error occurred during the simulation.");
+        // Getting the last lidar frames
+        Map<String, List<TrackedObject>> lastLidarFrames = new HashMap<>();
+        for (LiDarService lidarService : lidarServices) {
+            List<TrackedObject> trackedObjects = new ArrayList<>(lidarService.getLiDarWorkerTracker().getTrackedObjectsList());
+            lastLidarFrames.put("LiDar " + lidarService.getLiDarWorkerTracker().getID(), trackedObjects);
+        }
+
+        
+        OutputData outputData = new OutputData(stats, landMarks);
+        ErrorOutputData errorOutputData = new ErrorOutputData(error, faultySensor,lastCameraFrames ,lastLidarFrames, poses, outputData);
+
+        
+        if(error == null){
+            try (FileWriter writer = new FileWriter(new File(outputDirectory, "output_file.json"))) {
+            gson.toJson(outputData, writer);
+        }
+        System.out.println("Output file created: output_file.json");
+        }else{
+            try (FileWriter writer = new FileWriter(new File(outputDirectory, "OutputError.json"))) {
+            gson.toJson(errorOutputData, writer);
+            }
+            System.out.println("Output file created: OutputError.json");
         }
     }
 
@@ -286,9 +369,276 @@ public class GurionRockRunner {
         }
     }
 
+    /**
+     * Computes the ticks anything is due at, so the others can be skipped
+     * while the output stays the same: the ticks a camera frame is sent at
+     * (its time plus the camera's frequency), the times of the camera frames
+     * and LiDAR records (so the poses of those times reach FusionSlam before
+     * the objects do), and the tick the simulation ends at (the first tick
+     * without a pose, or the last tick of the duration). LiDAR workers only
+     * act on camera events, so their own frequencies add no tick.
+     *
+     * @param duration       The "Duration" of the simulation.
+     * @param cameraServices Array of CameraService instances.
+     * @param lidarServices  Array of LiDarWorkerService instances.
+     * @param poseList       The poses of the robot.
+     * @return The due ticks, in increasing order.
+     */
+    static int[] computeDueTicks(int duration, CameraService[] cameraServices,
+            LiDarService[] lidarServices, List<Pose> poseList) {
+        // The simulation ends at the first tick without a pose
+        TreeSet<Integer> poseTimes = new TreeSet<>();
+        for (Pose pose : poseList) {
+            poseTimes.add(pose.getTime());
+        }
+        int lastTick = 1;
+        while (lastTick < duration && poseTimes.contains(lastTick)) {
+            lastTick++;
+        }
+
+        TreeSet<Integer> ticks = new TreeSet<>();
+        for (CameraService cameraService : cameraServices) {
+            Camera camera = cameraService.getCamera();
+            for (StampedDetectedObjects frame : camera.getDetectedObjectsList()) {
+                ticks.add(frame.getTime());
+                ticks.add(frame.getTime() + camera.getFrequency());
+            }
+        }
+        for (LiDarService lidarService : lidarServices) {
+            for (TrackedObject record : lidarService.getLiDarWorkerTracker().getTrackedObjectsList()) {
+                ticks.add(record.getTime());
+            }
+        }
+        ticks.add(lastTick);
+
+        return ticks.subSet(1, true, lastTick, true).stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Applies the optional event loop settings of the configuration file to
+     * all services: "MessageBatchSize" is the maximal number of messages a
+     * service takes from its queue at once, and "FairnessBudget" the number of
+     * messages it handles back to back before yielding its thread.
+     *
+     * @param config   The parsed configuration file.
+     * @param services All the services of the simulation.
+     */
+    private static void configureEventLoops(JsonObject config, List<MicroService> services) {
+        for (MicroService service : services) {
+            if (config.has("MessageBatchSize")) {
+                service.setBatchSize(config.get("MessageBatchSize").getAsInt());
+            }
+            if (config.has("FairnessBudget")) {
+                service.setFairnessBudget(config.get("FairnessBudget").getAsInt());
+            }
+        }
+    }
+
+    /**
+     * Applies the optional "Mailboxes" section of the configuration file, which
+     * bounds the message queues of each service type and sets how the service
+     * waits for messages. For example:
+     * <pre>
+     * "Mailboxes": {
+     *   "FusionSlamService": { "capacity": 1000, "policy": "BLOCK", "waitStrategy": "SPIN_YIELD" },
+     *   "LiDarService": { "capacity": 200, "policy": "DROP_OLDEST" }
+     * }
+     * </pre>
+     * The capacity defaults to unbounded. The policy is one of the
+     * {@link OverflowPolicy} names, and defaults to BLOCK. The wait strategy is
+     * one of the {@link WaitStrategy} names, and defaults to BLOCKING.
+     *
+     * @param config The parsed configuration file.
+     * @param bus    The message bus of the simulation.
+     */
+    private static void configureMailboxes(JsonObject config, MessageBusImpl bus) {
+        if (!config.has("Mailboxes")) {
+            return;
+        }
+        Map<String, Class<? extends MicroService>> serviceTypes = new HashMap<>();
+        serviceTypes.put("TimeService", TimeService.class);
+        serviceTypes.put("CameraService", CameraService.class);
+        serviceTypes.put("LiDarService", LiDarService.class);
+        serviceTypes.put("PoseService", PoseService.class);
+        serviceTypes.put("FusionSlamService", FusionSlamService.class);
+
+        for (Map.Entry<String, JsonElement> entry : config.getAsJsonObject("Mailboxes").entrySet()) {
+            Class<? extends MicroService> type = serviceTypes.get(entry.getKey());
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown service type in Mailboxes: " + entry.getKey());
+            }
+            JsonObject mailboxConfig = entry.getValue().getAsJsonObject();
+            int capacity = mailboxConfig.has("capacity")
+                    ? mailboxConfig.get("capacity").getAsInt()
+                    : MailboxSettings.UNBOUNDED;
+            OverflowPolicy policy = mailboxConfig.has("policy")
+                    ? OverflowPolicy.valueOf(mailboxConfig.get("policy").getAsString())
+                    : OverflowPolicy.BLOCK;
+            WaitStrategy waitStrategy = mailboxConfig.has("waitStrategy")
+                    ? WaitStrategy.valueOf(mailboxConfig.get("waitStrategy").getAsString())
+                    : WaitStrategy.BLOCKING;
+            bus.setMailboxSettings(type, new MailboxSettings(capacity, policy, waitStrategy));
+        }
+    }
+
+    /**
+     * Applies the optional "EventRouting" section of the configuration file,
+     * which chooses how each event type is spread among its subscribers. For
+     * example:
+     * <pre>
+     * "EventRouting": { "DetectObjectsEvent": "LEAST_LOADED" }
+     * </pre>
+     * The policy is one of the {@link RoutingPolicy} names. Detections are
+     * routed CONSISTENT_HASH unless listed, which keeps those of each camera
+     * on one LiDAR worker, so which worker tracks a frame does not depend on
+     * the order the cameras send in. Other event types not listed are routed
+     * round-robin.
+     *
+     * @param config The parsed configuration file.
+     * @param bus    The message bus of the simulation.
+     */
+    private static void configureEventRouting(JsonObject config, MessageBusImpl bus) {
+        bus.setRoutingPolicy(DetectObjectsEvent.class, RoutingPolicy.CONSISTENT_HASH);
+        if (!config.has("EventRouting")) {
+            return;
+        }
+        Map<String, Class<? extends Event<?>>> eventTypes = new HashMap<>();
+        eventTypes.put("DetectObjectsEvent", DetectObjectsEvent.class);
+        eventTypes.put("TrackedObjectsEvent", TrackedObjectsEvent.class);
+        eventTypes.put("PoseEvent", PoseEvent.class);
+
+        for (Map.Entry<String, JsonElement> entry : config.getAsJsonObject("EventRouting").entrySet()) {
+            Class<? extends Event<?>> type = eventTypes.get(entry.getKey());
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown event type in EventRouting: " + entry.getKey());
+            }
+            RoutingPolicy policy = RoutingPolicy.valueOf(entry.getValue().getAsString());
+            bus.setRoutingPolicy(type, policy);
+        }
+    }
+
+    /**
+     * Starts printing the message-bus metrics every "MetricsDumpPeriod"
+     * seconds, if the configuration file sets it and the metrics are on
+     * (see {@link BusMetrics}). The metrics are always printed once the
+     * simulation completes while they are on.
+     *
+     * @param config The parsed configuration file.
+     */
+    private static void startMetricsDump(JsonObject config) {
+        if (BusMetrics.ENABLED && config.has("MetricsDumpPeriod")) {
+            long period = config.get("MetricsDumpPeriod").getAsLong();
+            BusMetrics.getInstance().startDump(period, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Starts a {@link StallWatchdog} reporting micro-services that take no
+     * message for "StallThreshold" seconds while messages wait for them, if
+     * the configuration file sets it.
+     *
+     * @param config The parsed configuration file.
+     * @param bus    The message bus of the simulation.
+     * @return The started watchdog, or null if none was configured.
+     */
+    private static StallWatchdog startStallWatchdog(JsonObject config, MessageBusImpl bus) {
+        if (!config.has("StallThreshold")) {
+            return null;
+        }
+        StallWatchdog watchdog = new StallWatchdog(bus, config.get("StallThreshold").getAsLong(), TimeUnit.SECONDS);
+        watchdog.start();
+        return watchdog;
+    }
+
+    /**
+     * Writes the message trace recorded by the {@link BusTracer}. A failure
+     * only loses the trace, so it is reported and the run goes on.
+     */
+    private static void writeTrace() {
+        try {
+            BusTracer.getInstance().write();
+            System.out.println("Message trace written to " + BusTracer.TRACE_FILE);
+        } catch (IOException e) {
+            System.err.println("Could not write the message trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints how late the ticks were broadcast after they were due, unless
+     * they followed a virtual clock.
+     *
+     * @param timeService The TimeService of the simulation.
+     */
+    private static void printTickLateness(TimeService timeService) {
+        LongSummaryStatistics lateness = timeService.getTickLateness();
+        if (lateness.getCount() > 0) {
+            System.out.printf("Tick lateness (us): mean=%.1f max=%d over %d ticks%n",
+                    lateness.getAverage() / 1000, TimeUnit.NANOSECONDS.toMicros(lateness.getMax()),
+                    lateness.getCount());
+        }
+    }
+
+    /**
+     * Prints how many messages each overflow policy rejected, if any.
+     *
+     * @param bus The message bus of the simulation.
+     */
+    private static void printRejectedMessages(MessageBusImpl bus) {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            long rejected = bus.getRejectedCount(policy);
+            if (rejected > 0) {
+                System.out.println("Messages rejected by " + policy + " mailboxes: " + rejected);
+            }
+        }
+    }
+
+    /**
+     * Reads the optional "ExecutionMode" of the configuration file: "THREADS"
+     * (the default) runs every service on a platform thread of its own,
+     * "VIRTUAL" runs every service on a virtual thread of its own (requires
+     * Java 21, see the jdk21 Maven profile), while "POOLED" schedules the
+     * services as actors on a pool of "WorkerThreads" threads.
+     *
+     * @param config The parsed configuration file.
+     * @return The execution mode.
+     */
+    private static String getExecutionMode(JsonObject config) {
+        String mode = config.has("ExecutionMode") ? config.get("ExecutionMode").getAsString() : "THREADS";
+        switch (mode) {
+            case "THREADS":
+            case "VIRTUAL":
+            case "POOLED":
+                return mode;
+            default:
+                throw new IllegalArgumentException("Unknown ExecutionMode: " + mode);
+        }
+    }
+
+    /**
+     * Creates an unstarted thread running {@code service}. Virtual threads are
+     * created reflectively, so the code still builds and runs on Java 8.
+     *
+     * @param service The service to run.
+     * @param virtual Whether to create a virtual thread.
+     * @return The new thread.
+     */
+    private static Thread newServiceThread(Runnable service, boolean virtual) {
+        if (!virtual) {
+            return new Thread(service);
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            return (Thread) unstarted.invoke(builder, service);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The VIRTUAL execution mode requires Java 21 or later", e);
+        }
+    }
+
     /**
      * Starts the simulation by running all services.
      *
+     * @param virtual           Whether to run the services on virtual threads.
      * @param timeService       The TimeService instance.
      * @param cameraServices    Array of CameraService instances.
      * @param lidarServices     Array of LiDarWorkerService instances.
@@ -296,6 +646,7 @@ public class GurionRockRunner {
      * @param fusionSlamService The FusionSlamService instance.
      */
     private static void startSimulation(
+            boolean virtual,
             TimeService timeService,
             CameraService[] cameraServices,
             LiDarService[] lidarServices,
@@ -307,24 +658,27 @@ public class GurionRockRunner {
 
         // add camera and LiDAR services to the threads list
         for (CameraService camera : cameraServices) {
-            threads.add(new Thread(camera));
+            threads.add(newServiceThread(camera, virtual));
         }
 
         for (LiDarService lidar : lidarServices) {
-            threads.add(new Thread(lidar));
+            threads.add(newServiceThread(lidar, virtual));
         }
 
         // add PoseService and FusionSlamService to the threads list
-        threads.add(new Thread(poseService));
-        threads.add(new Thread(fusionSlamService));
+        threads.add(newServiceThread(poseService, virtual));
+        threads.add(newServiceThread(fusionSlamService, virtual));
 
         // Start all threads except TimeService
         for (Thread thread : threads) {
             thread.start();
         }
 
+        // The first tick must find every service subscribed
+        awaitInitialized(cameraServices, lidarServices, poseService, fusionSlamService);
+
         // Add TimeService to the threads list
-        Thread timeThread = new Thread(timeService);
+        Thread timeThread = newServiceThread(timeService, virtual);
         threads.add(timeThread);
 
         // Start TimeService thread
@@ -335,6 +689,70 @@ public class GurionRockRunner {
             thread.join();
         }
     }
+
+    /**
+     * Waits until all services but TimeService have subscribed to their
+     * messages, so no service misses the first ticks. With a virtual clock
+     * the first ticks would otherwise be over before the services start.
+     *
+     * @param cameraServices    Array of CameraService instances.
+     * @param lidarServices     Array of LiDarWorkerService instances.
+     * @param poseService       The PoseService instance.
+     * @param fusionSlamService The FusionSlamService instance.
+     */
+    private static void awaitInitialized(
+            CameraService[] cameraServices,
+            LiDarService[] lidarServices,
+            PoseService poseService,
+            FusionSlamService fusionSlamService) throws InterruptedException {
+        for (CameraService camera : cameraServices) {
+            camera.awaitInitialized();
+        }
+        for (LiDarService lidar : lidarServices) {
+            lidar.awaitInitialized();
+        }
+        poseService.awaitInitialized();
+        fusionSlamService.awaitInitialized();
+    }
+
+    /**
+     * Starts the simulation by running all services as actors on a pool of
+     * worker threads, rather than on a thread each.
+     *
+     * @param workers           The number of worker threads.
+     * @param timeService       The TimeService instance.
+     * @param cameraServices    Array of CameraService instances.
+     * @param lidarServices     Array of LiDarWorkerService instances.
+     * @param poseService       The PoseService instance.
+     * @param fusionSlamService The FusionSlamService instance.
+     */
+    private static void startPooledSimulation(
+            int workers,
+            TimeService timeService,
+            CameraService[] cameraServices,
+            LiDarService[] lidarServices,
+            PoseService poseService,
+            FusionSlamService fusionSlamService) throws InterruptedException {
+
+        ActorScheduler scheduler = new ActorScheduler(workers);
+
+        // Start all services except TimeService
+        for (CameraService camera : cameraServices) {
+            scheduler.start(camera);
+        }
+        for (LiDarService lidar : lidarServices) {
+            scheduler.start(lidar);
+        }
+        scheduler.start(poseService);
+        scheduler.start(fusionSlamService);
+        awaitInitialized(cameraServices, lidarServices, poseService, fusionSlamService);
+
+        // Start TimeService last, as with threads
+        scheduler.start(timeService);
+
+        // Wait for all services to terminate before returning
+        scheduler.awaitTermination();
+    }
 }
 
 @SuppressWarnings("unused")
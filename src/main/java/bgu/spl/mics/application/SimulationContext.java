@@ -0,0 +1,96 @@
+package bgu.spl.mics.application;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+
+/**
+ * Holds everything a single simulation shares between its services: the
+ * message bus, the FusionSlam map, the statistics and the LiDAR database.
+ * <p>
+ * Services are given the context they belong to, so simulations with
+ * separate contexts can run in the same JVM, even concurrently, without
+ * seeing each other's messages or results. The {@link #global()} context
+ * holds the JVM-wide singletons, and is what services constructed without a
+ * context use.
+ * </p>
+ */
+public class SimulationContext {
+
+    // Fields
+    private final MessageBusImpl messageBus;
+    private final StatisticalFolder stats;
+    private final FusionSlam fusionSlam;
+    private final boolean shared; // whether it holds the singletons
+    private LiDarDataBase lidarDataBase;
+    private Path lidarDataPath; // the file the database was loaded from
+
+    // Singleton instance holder
+    private static class GlobalContextHolder {
+        private static final SimulationContext instance = new SimulationContext(
+                MessageBusImpl.getInstance(), StatisticalFolder.getInstance(), FusionSlam.getInstance(), true);
+    }
+
+    // Constructor
+    /**
+     * Creates a context with its own bus, map, statistics and database.
+     */
+    public SimulationContext() {
+        this(new MessageBusImpl(), new StatisticalFolder(), null, false);
+    }
+
+    private SimulationContext(MessageBusImpl messageBus, StatisticalFolder stats, FusionSlam fusionSlam, boolean shared) {
+        this.messageBus = messageBus;
+        this.stats = stats;
+        this.fusionSlam = fusionSlam != null ? fusionSlam : new FusionSlam(stats);
+        this.shared = shared;
+        this.lidarDataBase = null;
+        this.lidarDataPath = null;
+    }
+
+    // Methods
+    /**
+     * @return The context holding the JVM-wide singletons.
+     */
+    public static SimulationContext global() {
+        return GlobalContextHolder.instance;
+    }
+
+    public MessageBusImpl getMessageBus() {
+        return messageBus;
+    }
+
+    public StatisticalFolder getStatisticalFolder() {
+        return stats;
+    }
+
+    public FusionSlam getFusionSlam() {
+        return fusionSlam;
+    }
+
+    /**
+     * Returns the context's LiDAR database, loading it on the first call.
+     * A context holds the database of a single file, so later calls must
+     * name the same file.
+     *
+     * @param filePath The path to the LiDAR data file.
+     * @return The LiDAR database of this context.
+     * @throws IllegalArgumentException if the database was loaded from
+     *         another file.
+     */
+    public synchronized LiDarDataBase getLiDarDataBase(String filePath) {
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        if (lidarDataBase == null) {
+            lidarDataBase = shared ? LiDarDataBase.getInstance(filePath) : new LiDarDataBase(filePath);
+            lidarDataPath = path;
+        } else if (!lidarDataPath.equals(path)) {
+            throw new IllegalArgumentException("The LiDAR database of this context was loaded from "
+                    + lidarDataPath + ", not " + path);
+        }
+        return lidarDataBase;
+    }
+}
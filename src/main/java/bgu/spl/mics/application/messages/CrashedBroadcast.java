@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.messages;
 
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MessagePriority;
 
 public class CrashedBroadcast implements Broadcast{
     private String faultySensor; // Faulty sensor ID or name
@@ -12,6 +13,10 @@ public class CrashedBroadcast implements Broadcast{
     public String getFaultySensor(){ // Getter
         return faultySensor;
     }
-}
-    
 
+    // Crash notices overtake any data waiting in the mailboxes
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.HIGH;
+    }
+}
@@ -8,6 +8,9 @@ import bgu.spl.mics.Event;
 
 public class DetectObjectsEvent implements Event<List<DetectedObject>> {
 
+    // The ID of the camera that detected the objects.
+    private final int cameraId;
+
     // The time at which the objects were detected.
     private final int detectionTime;
 
@@ -15,12 +18,17 @@ public class DetectObjectsEvent implements Event<List<DetectedObject>> {
     private final StampedDetectedObjects stampedDetectedObjects;
 
     // Constructor
-    public DetectObjectsEvent(int detectionTime, StampedDetectedObjects stampedDetectedObjects) {
+    public DetectObjectsEvent(int cameraId, int detectionTime, StampedDetectedObjects stampedDetectedObjects) {
+        this.cameraId = cameraId;
         this.detectionTime = detectionTime;
         this.stampedDetectedObjects = stampedDetectedObjects;
     }
 
     // Getters
+    public int getCameraId() {
+        return cameraId;
+    }
+
     public int getDetectionTime() {
         return detectionTime;
     }
@@ -28,4 +36,10 @@ public class DetectObjectsEvent implements Event<List<DetectedObject>> {
     public StampedDetectedObjects getStampedDetectedObjects() {
         return stampedDetectedObjects;
     }
+
+    // Routes the detections of each camera to the same LiDAR worker
+    @Override
+    public Object getRoutingKey() {
+        return cameraId;
+    }
 }
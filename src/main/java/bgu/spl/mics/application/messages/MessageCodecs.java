@@ -0,0 +1,135 @@
+package bgu.spl.mics.application.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.TrackedObject;
+import bgu.spl.mics.remote.Codec;
+import bgu.spl.mics.remote.CodecRegistry;
+
+/**
+ * The binary codecs of the simulation's messages, so they can be sent between
+ * processes (see {@link bgu.spl.mics.remote.BusHub}).
+ */
+public final class MessageCodecs {
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Registers the codecs of all the simulation's messages. Every process of
+     * a simulation must call it on its registry.
+     *
+     * @param registry The registry to register them in.
+     * @return The registry.
+     */
+    public static CodecRegistry registerAll(CodecRegistry registry) {
+        return registry
+                .register(1, TickBroadcast.class, Codec.of(
+                        (tick, out) -> {
+                            out.writeInt(tick.getCurrentTick());
+                            out.writeInt(tick.getElapsedTicks());
+                        },
+                        in -> new TickBroadcast(in.readInt(), in.readInt())))
+                .register(2, TerminatedBroadcast.class, Codec.of(
+                        (terminated, out) -> { },
+                        in -> new TerminatedBroadcast()))
+                .register(3, CrashedBroadcast.class, Codec.of(
+                        (crashed, out) -> writeString(crashed.getFaultySensor(), out),
+                        in -> new CrashedBroadcast(readString(in))))
+                .register(4, DetectObjectsEvent.class, Codec.of(
+                        MessageCodecs::writeDetectObjects,
+                        MessageCodecs::readDetectObjects))
+                .register(5, TrackedObjectsEvent.class, Codec.of(
+                        MessageCodecs::writeTrackedObjects,
+                        MessageCodecs::readTrackedObjects))
+                .register(6, PoseEvent.class, Codec.of(
+                        (poseEvent, out) -> writePose(poseEvent.getPose(), out),
+                        in -> new PoseEvent(readPose(in))));
+    }
+
+    private static void writeDetectObjects(DetectObjectsEvent event, DataOutput out) throws IOException {
+        out.writeInt(event.getCameraId());
+        out.writeInt(event.getDetectionTime());
+        StampedDetectedObjects stamped = event.getStampedDetectedObjects();
+        out.writeInt(stamped.getTime());
+        out.writeInt(stamped.getDetectedObjects().size());
+        for (DetectedObject object : stamped.getDetectedObjects()) {
+            writeString(object.getId(), out);
+            writeString(object.getDescription(), out);
+        }
+    }
+
+    private static DetectObjectsEvent readDetectObjects(DataInput in) throws IOException {
+        int cameraId = in.readInt();
+        int detectionTime = in.readInt();
+        int time = in.readInt();
+        int count = in.readInt();
+        List<DetectedObject> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            objects.add(new DetectedObject(readString(in), readString(in)));
+        }
+        return new DetectObjectsEvent(cameraId, detectionTime, new StampedDetectedObjects(time, objects));
+    }
+
+    private static void writeTrackedObjects(TrackedObjectsEvent event, DataOutput out) throws IOException {
+        out.writeInt(event.getTrackedObjects().size());
+        for (TrackedObject object : event.getTrackedObjects()) {
+            writeString(object.getID(), out);
+            out.writeInt(object.getTime());
+            writeString(object.getDescription(), out);
+            out.writeInt(object.getCoordinates().size());
+            for (CloudPoint point : object.getCoordinates()) {
+                out.writeDouble(point.getX());
+                out.writeDouble(point.getY());
+            }
+        }
+    }
+
+    private static TrackedObjectsEvent readTrackedObjects(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<TrackedObject> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = readString(in);
+            int time = in.readInt();
+            String description = readString(in);
+            int points = in.readInt();
+            List<CloudPoint> coordinates = new ArrayList<>(points);
+            for (int j = 0; j < points; j++) {
+                coordinates.add(new CloudPoint(in.readDouble(), in.readDouble()));
+            }
+            objects.add(new TrackedObject(id, time, description, coordinates));
+        }
+        return new TrackedObjectsEvent(objects);
+    }
+
+    private static void writePose(Pose pose, DataOutput out) throws IOException {
+        out.writeFloat(pose.getX());
+        out.writeFloat(pose.getY());
+        out.writeFloat(pose.getYaw());
+        out.writeInt(pose.getTime());
+    }
+
+    private static Pose readPose(DataInput in) throws IOException {
+        return new Pose(in.readFloat(), in.readFloat(), in.readFloat(), in.readInt());
+    }
+
+    // Strings may be null, e.g. the description of an object no camera saw
+    private static void writeString(String value, DataOutput out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
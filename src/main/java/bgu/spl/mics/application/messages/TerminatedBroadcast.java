@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.messages;
 
 import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MessagePriority;
 
 public class TerminatedBroadcast implements Broadcast {
 
@@ -11,5 +12,10 @@ public class TerminatedBroadcast implements Broadcast {
     public TerminatedBroadcast() {
         // No fields required; this is a simple signal message.
     }
-}
 
+    // Termination notices overtake any data waiting in the mailboxes
+    @Override
+    public MessagePriority getPriority() {
+        return MessagePriority.HIGH;
+    }
+}
@@ -5,14 +5,33 @@ import bgu.spl.mics.Broadcast;
 public class TickBroadcast implements Broadcast{
     // Fields
     private final int currentTick;
+    private final int elapsedTicks;
 
     // Constructor
     public TickBroadcast(int currentTick) {
+        this(currentTick, 1);
+    }
+
+    /**
+     * A tick broadcast after skipping ticks nothing was due at.
+     *
+     * @param currentTick  The current tick.
+     * @param elapsedTicks The number of ticks since the previous broadcast,
+     *                     including this one.
+     */
+    public TickBroadcast(int currentTick, int elapsedTicks) {
         this.currentTick = currentTick;
+        this.elapsedTicks = elapsedTicks;
     }
 
     // Methods
     public int getCurrentTick() {
         return currentTick;
     }
+
+    // Subscribers counting ticks must not coalesce them, or they lose the
+    // elapsed ticks of the replaced broadcasts
+    public int getElapsedTicks() {
+        return elapsedTicks;
+    }
 }
@@ -7,22 +7,28 @@ import java.util.LinkedList;
 /**
  * Manages the fusion of sensor data for simultaneous localization and mapping (SLAM).
  * Combines data from multiple sensors (e.g., LiDAR, camera) to build and update a global map.
- * Implements the Singleton pattern to ensure a single instance of FusionSlam exists.
+ * Implements the Singleton pattern to ensure a single instance of FusionSlam exists,
+ * though a simulation that must not share its map creates its own instance.
  */
 public class FusionSlam {
     // Singleton instance holder
     private static class FusionSlamHolder {
-        private static FusionSlam instance = new FusionSlam();
+        private static FusionSlam instance = new FusionSlam(StatisticalFolder.getInstance());
     }
 
     // Fields
     private List<LandMark> landMarks; // Global map
     private List<Pose> poses; // Robot poses
+    private final StatisticalFolder stats; // Where new landmarks are counted
 
     // Constructor
-    private FusionSlam() {
+    /**
+     * @param stats The statistics new landmarks are counted in.
+     */
+    public FusionSlam(StatisticalFolder stats) {
         this.landMarks = new ArrayList<>();
         this.poses = new LinkedList<>();
+        this.stats = stats;
     }
 
     // Methods 
@@ -32,10 +38,12 @@ public class FusionSlam {
     }
 
 
-    public synchronized void updatePose(Pose pose) { // Update the global map with a new pose
+    public void updatePose(Pose pose) { // Update the global map with a new pose
         if (pose != null) {
-            poses.add(pose);
-            System.out.println("FusionSlam updated with new pose."); // Debug
+            synchronized (this) {
+                poses.add(pose);
+            }
+            System.out.println("FusionSlam updated with new pose."); // Debug, printed outside the lock
         }
     }
 
@@ -47,6 +55,19 @@ public class FusionSlam {
         return new ArrayList<>(poses); // Return a copy to maintain encapsulation
     }
 
+    /**
+     * @param time The tick to look the pose up for.
+     * @return whether the pose of the robot at {@code time} is known.
+     */
+    public synchronized boolean hasPose(int time) {
+        for (Pose pose : poses) {
+            if (pose.getTime() == time) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public synchronized Pose getCurrentPose(){
         if (!poses.isEmpty())
             return poses.get(poses.size()-1);
@@ -109,7 +130,7 @@ public class FusionSlam {
         }else{
             //add the new object to the map
             landMarks.add(new LandMark(id, description, relativeCoordinates));
-            StatisticalFolder.getInstance().incrementNumLandmarks();
+            stats.incrementNumLandmarks();
         }
 
     }
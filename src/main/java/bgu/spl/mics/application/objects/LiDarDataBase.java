@@ -11,6 +11,7 @@ import java.util.List;
 /**
  * LiDarDataBase is a singleton class responsible for managing LiDAR data.
  * It provides access to cloud point data and other relevant information for tracked objects.
+ * A simulation that must not share its data loads its own instance.
  */
 public class LiDarDataBase {
 
@@ -19,7 +20,12 @@ public class LiDarDataBase {
     private List<StampedCloudPoints> cloudPoints;
 
     //Constructor
-    private LiDarDataBase(String filePath) {
+    /**
+     * Loads a database independent of the singleton instance.
+     *
+     * @param filePath The path to the LiDAR data file.
+     */
+    public LiDarDataBase(String filePath) {
         loadData(filePath);
     }
 
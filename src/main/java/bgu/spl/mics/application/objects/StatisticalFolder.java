@@ -49,22 +49,22 @@ public class StatisticalFolder {
     }
 
     // Other methods
-    public synchronized void logDetectedObjects(int cameraID, int tick, StampedDetectedObjects objects) { // Logs
-                                                                                                          // detected
-                                                                                                          // objects and
-                                                                                                          // updates the
-                                                                                                          // count.
+    // Logs detected objects and updates the count. Printing happens outside the
+    // lock, so threads never block on the output while holding it.
+    public void logDetectedObjects(int cameraID, int tick, StampedDetectedObjects objects) {
+        synchronized (this) {
+            numDetectedObjects += objects.getDetectedObjects().size();
+        }
         System.out.println(
                 "Camera " + cameraID + " detected " + objects.getDetectedObjects().size() + " objects at tick " + tick);
-        numDetectedObjects += objects.getDetectedObjects().size();
     }
 
-    public synchronized void logTrackedObjects(int LiDarID, int tick, List<TrackedObject> objects) { // Logs tracked
-                                                                                                     // objects and
-                                                                                                     // updates the
-                                                                                                     // count.
+    // Logs tracked objects and updates the count.
+    public void logTrackedObjects(int LiDarID, int tick, List<TrackedObject> objects) {
+        synchronized (this) {
+            numTrackedObjects += objects.size();
+        }
         System.out.println("LiDar " + LiDarID + " tracked " + objects.size() + " objects at tick " + tick);
-        numTrackedObjects += objects.size();
     }
 
     public void incrementNumLandmarks() {
@@ -74,4 +74,9 @@ public class StatisticalFolder {
     public void incrementSystemRuntime() {
         this.systemRuntime++;
     }
+
+    // Adds the ticks elapsed at once, when idle ticks are skipped.
+    public void addSystemRuntime(int ticks) {
+        this.systemRuntime += ticks;
+    }
 }
\ No newline at end of file
@@ -1,12 +1,13 @@
 package bgu.spl.mics.application.services;
 
+import java.util.TreeSet;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.SimulationContext;
 import bgu.spl.mics.application.objects.Camera;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
-import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.objects.STATUS;
 import bgu.spl.mics.application.objects.StampedDetectedObjects;
 import bgu.spl.mics.application.objects.StatisticalFolder;
@@ -22,6 +23,7 @@ public class CameraService extends MicroService {
     private Camera camera;
     private int cameraFrequency;
     private StampedDetectedObjects lastFrame;
+    private final StatisticalFolder stats;
 
     // private int prevTick;
 
@@ -31,45 +33,47 @@ public class CameraService extends MicroService {
      * @param camera The Camera object that this service will use to detect objects.
      */
     public CameraService(Camera camera) {
-        super("CameraService" + camera.getID());
+        this(camera, SimulationContext.global());
+    }
+
+    /**
+     * Constructor for a CameraService of a given simulation.
+     *
+     * @param camera  The Camera object that this service will use to detect objects.
+     * @param context The simulation the service belongs to.
+     */
+    public CameraService(Camera camera, SimulationContext context) {
+        super("CameraService" + camera.getID(), context.getMessageBus());
         this.camera = camera;
         this.cameraFrequency = camera.getFrequency();
         this.lastFrame = null;
+        this.stats = context.getStatisticalFolder();
         // prevTick = 0;
     }
 
     /**
      * Initializes the CameraService.
-     * Registers the service to handle TickBroadcasts and sets up callbacks for
-     * sending
-     * DetectObjectsEvents.
+     * Schedules the sending of DetectObjectsEvents at the ticks the frames
+     * become ready, rather than checking for ready frames on every tick.
      */
     @Override
     protected void initialize() {
-        // Subscribe to TickBroadcasts
-        subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
-            if (camera.getStatus() == STATUS.UP) {
-                StampedDetectedObjects stampedObject = camera.getNextObjectToProcess(tickBroadcast.getCurrentTick(), cameraFrequency);
-        
-                if (stampedObject == null) {
-                    if (camera.getStatus() == STATUS.ERROR) {
-                        sendBroadcast(new CrashedBroadcast("CameraService" + camera.getID()));
-                        terminate();
-                    }
-                } else {
-                    sendEvent(new DetectObjectsEvent(stampedObject.getTime(), stampedObject));
-                    this.lastFrame = stampedObject;
-                    // Log the detected objects in the StatisticalFolder
-                    StatisticalFolder.getInstance().logDetectedObjects(camera.getID(), tickBroadcast.getCurrentTick(), stampedObject);
-                }
-            }
-        });
-        
+        // Schedule each tick a frame becomes ready at, once
+        TreeSet<Integer> readyTicks = new TreeSet<>();
+        for (StampedDetectedObjects frame : camera.getDetectedObjectsList()) {
+            readyTicks.add(frame.getTime() + cameraFrequency);
+        }
+        for (int readyTick : readyTicks) {
+            scheduleAtTick(readyTick, () -> sendReadyFrames(readyTick));
+        }
+
 
         // Subscribe to TerminatedBroadcast
+        // The termination overtakes the frames already due, so it is queued
+        // behind them
         subscribeBroadcast(TerminatedBroadcast.class, terminatedBroadcast -> {
             System.out.println("terminate camera");
-            terminate();
+            runAfterQueued(this::terminate);
         });
 
         // Subscribe to CrashedBroadcast
@@ -80,6 +84,29 @@ public class CameraService extends MicroService {
 
     }
 
+    /**
+     * Sends the frames ready by {@code currentTick}, or a CrashedBroadcast if
+     * one of them holds an error.
+     *
+     * @param currentTick The current tick.
+     */
+    private void sendReadyFrames(int currentTick) {
+        if (camera.getStatus() == STATUS.UP) {
+            StampedDetectedObjects stampedObject;
+            while ((stampedObject = camera.getNextObjectToProcess(currentTick, cameraFrequency)) != null) {
+                sendOneWayEvent(new DetectObjectsEvent(camera.getID(), stampedObject.getTime(), stampedObject));
+                this.lastFrame = stampedObject;
+                // Log the detected objects in the StatisticalFolder
+                stats.logDetectedObjects(camera.getID(), currentTick, stampedObject);
+            }
+
+            if (camera.getStatus() == STATUS.ERROR) {
+                sendBroadcast(new CrashedBroadcast("CameraService" + camera.getID()));
+                terminate();
+            }
+        }
+    }
+
     public void stopService() {
         terminate(); // This calls the protected method from MicroService
     }
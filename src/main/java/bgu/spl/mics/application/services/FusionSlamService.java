@@ -1,10 +1,13 @@
 package bgu.spl.mics.application.services;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import bgu.spl.mics.application.objects.CloudPoint;
 import bgu.spl.mics.MicroService;
-import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.SimulationContext;
 import bgu.spl.mics.application.messages.PoseEvent;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
@@ -21,9 +24,25 @@ import bgu.spl.mics.application.objects.TrackedObject;
  * This service receives TrackedObjectsEvents from LiDAR workers and PoseEvents
  * from the PoseService,
  * transforming and updating the map with new landmarks.
+ * 
+ * Tracked objects are placed with the pose of the tick they were detected at,
+ * which the PoseService publishes at the same tick. The objects that arrive
+ * during a tick are held until the next tick, by which every event of the
+ * tick has arrived, and then placed in the order of their detection time and
+ * ids. Since a landmark seen again is averaged with what it was, this makes
+ * the map independent of the order the events of one tick arrive in, such as
+ * those of two LiDAR workers, or a pose and the objects detected with it.
  */
 public class FusionSlamService extends MicroService {
+    // The order objects held at a tick are placed in, whichever event came first
+    private static final Comparator<TrackedObjectsEvent> PLACEMENT_ORDER = Comparator
+            .comparingInt(TrackedObjectsEvent::getCurrentTick)
+            .thenComparing(FusionSlamService::idsOf);
+
     private FusionSlam fusionSlam;
+    private final StatisticalFolder stats;
+    private final List<TrackedObjectsEvent> awaitingPlacement = new ArrayList<>(); // Only touched by the service's thread
+    private boolean terminating = false; // Set once the simulation ended, only touched by the service's thread
 
     /**
      * Constructor for FusionSlamService.
@@ -32,8 +51,23 @@ public class FusionSlamService extends MicroService {
      *                   map.
      */
     public FusionSlamService(FusionSlam fusionSlam) {
-        super("FusionSlamService");
+        this(fusionSlam, SimulationContext.global());
+    }
+
+    /**
+     * Constructor for the FusionSlamService of a given simulation, which
+     * updates the simulation's own map.
+     *
+     * @param context The simulation the service belongs to.
+     */
+    public FusionSlamService(SimulationContext context) {
+        this(context.getFusionSlam(), context);
+    }
+
+    private FusionSlamService(FusionSlam fusionSlam, SimulationContext context) {
+        super("FusionSlamService", context.getMessageBus());
         this.fusionSlam = fusionSlam;
+        this.stats = context.getStatisticalFolder();
     }
 
     /**
@@ -46,25 +80,29 @@ public class FusionSlamService extends MicroService {
     protected void initialize() {
         // Subscribe to TickBroadcast, TerminatedBroadcast, and CrashedBroadcast
         subscribeBroadcast(TickBroadcast.class, (tickBroadcast) -> {
-            // Update the systemRuntime in the StatisticalFolder
-            StatisticalFolder stats = StatisticalFolder.getInstance();
-            stats.incrementSystemRuntime();
+            // Update the systemRuntime in the StatisticalFolder, counting the skipped ticks as well
+            if (!terminating) {
+                stats.addSystemRuntime(tickBroadcast.getElapsedTicks());
+            }
+            // Every object of the previous ticks has arrived by now
+            placeAwaitingObjects(false);
         });
+        // The termination overtakes the poses and objects already queued, so
+        // the map is finished behind them
         subscribeBroadcast(TerminatedBroadcast.class, (terminatedBroadcast) -> {
-            terminate();
-            System.out.println("terminate fusion");
+            terminating = true;
+            runAfterQueued(() -> {
+                placeAwaitingObjects(true);
+                terminate();
+                System.out.println("terminate fusion");
+            });
         });
-        subscribeBroadcast(CrashedBroadcast.class, (crashedBroadcast) -> terminate());
+        // A crash ends the simulation at the end of its tick (see TimeService),
+        // so the objects tracked at that tick are still placed until then
 
         // Subscribe to TrackedObjectsEvent and PoseEvent
         subscribeEvent(TrackedObjectsEvent.class, event -> {
-            int currentTick = event.getCurrentTick();
-            for(TrackedObject trackedObject : event.getTrackedObjects()) {
-                String id = trackedObject.getID();
-                String description = trackedObject.getDescription();
-                List<CloudPoint> coordinates = trackedObject.getCoordinates();
-                fusionSlam.update(currentTick, id, description, coordinates);
-            }
+            awaitingPlacement.add(event); // Placed at the next tick
         });
 
         // Subscribe to PoseEvent
@@ -75,6 +113,45 @@ public class FusionSlamService extends MicroService {
 
     }
 
+    private void placeTrackedObjects(TrackedObjectsEvent event) {
+        int currentTick = event.getCurrentTick();
+        for(TrackedObject trackedObject : event.getTrackedObjects()) {
+            String id = trackedObject.getID();
+            String description = trackedObject.getDescription();
+            List<CloudPoint> coordinates = trackedObject.getCoordinates();
+            fusionSlam.update(currentTick, id, description, coordinates);
+        }
+    }
+
+    /**
+     * Places the objects held so far in the placement order, up to the first
+     * whose pose has not arrived yet, or all of them as the simulation ends,
+     * so those whose pose never arrived are still counted as landmarks.
+     *
+     * @param all Whether to place the objects whose pose has not arrived.
+     */
+    private void placeAwaitingObjects(boolean all) {
+        awaitingPlacement.sort(PLACEMENT_ORDER);
+        Iterator<TrackedObjectsEvent> awaiting = awaitingPlacement.iterator();
+        while (awaiting.hasNext()) {
+            TrackedObjectsEvent event = awaiting.next();
+            if (!all && !fusionSlam.hasPose(event.getCurrentTick())) {
+                break;
+            }
+            placeTrackedObjects(event);
+            awaiting.remove();
+        }
+    }
+
+    // The ids of an event's objects, in order, which tell apart the events of one detection time
+    private static String idsOf(TrackedObjectsEvent event) {
+        StringBuilder ids = new StringBuilder();
+        for (TrackedObject trackedObject : event.getTrackedObjects()) {
+            ids.append(trackedObject.getID()).append('\n');
+        }
+        return ids.toString();
+    }
+
     public void stopService() {
         terminate(); // This calls the protected method from MicroService
     }
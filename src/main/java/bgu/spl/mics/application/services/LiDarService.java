@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.SimulationContext;
 import bgu.spl.mics.application.objects.LiDarWorkerTracker;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
@@ -29,6 +30,7 @@ public class LiDarService extends MicroService {
     private int LiDarWorkerTrackerFreq;
     private int curTick;
     private List<TrackedObject> lastFrame;
+    private final StatisticalFolder stats;
     
     
 
@@ -39,11 +41,23 @@ public class LiDarService extends MicroService {
      *                           will use to process data.
      */
     public LiDarService(LiDarWorkerTracker LiDarWorkerTracker) {
-        super("LidarService" + LiDarWorkerTracker.getID());
+        this(LiDarWorkerTracker, SimulationContext.global());
+    }
+
+    /**
+     * Constructor for a LiDarService of a given simulation.
+     *
+     * @param LiDarWorkerTracker A LiDAR Tracker worker object that this service
+     *                           will use to process data.
+     * @param context            The simulation the service belongs to.
+     */
+    public LiDarService(LiDarWorkerTracker LiDarWorkerTracker, SimulationContext context) {
+        super("LidarService" + LiDarWorkerTracker.getID(), context.getMessageBus());
         this.LiDarWorkerTracker = LiDarWorkerTracker;
         this.LiDarWorkerTrackerFreq = LiDarWorkerTracker.getFrequency();
         this.curTick = 0;
         this.lastFrame = null;
+        this.stats = context.getStatisticalFolder();
 
     }
 
@@ -54,22 +68,21 @@ public class LiDarService extends MicroService {
      */
     @Override
     protected void initialize() {
-    // Subscribe to TickBroadcast
+    // Subscribe to TickBroadcast, only the latest tick matters
     subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
         curTick = tickBroadcast.getCurrentTick();
-    });
+    }, true);
 
     // Subscribe to TerminatedBroadcast
+    // The termination overtakes the detections already queued, so it is
+    // queued behind them
     subscribeBroadcast(TerminatedBroadcast.class, terminatedBroadcast -> {
         System.out.println("terminate Lidar");
-        terminate();
+        runAfterQueued(this::terminate);
     });
 
-    // Subscribe to CrashedBroadcast
-    subscribeBroadcast(CrashedBroadcast.class, crashedBroadcast -> {
-        LiDarWorkerTracker.setStatus(STATUS.DOWN);
-        terminate();
-    });
+    // A crash ends the simulation at the end of its tick (see TimeService),
+    // so the detections sent at that tick are still tracked until then
 
     // Subscribe to DetectObjectsEvent
     subscribeEvent(DetectObjectsEvent.class, detectObjectsEvent -> {
@@ -105,9 +118,9 @@ public class LiDarService extends MicroService {
 
             // If there are valid matching objects, send an event and log them
             if (!matchingObjects.isEmpty()) {
-                sendEvent(new TrackedObjectsEvent(matchingObjects));
+                sendOneWayEvent(new TrackedObjectsEvent(matchingObjects));
                 lastFrame = new LinkedList<>(matchingObjects);
-                StatisticalFolder.getInstance().logTrackedObjects(LiDarWorkerTracker.getID(),
+                stats.logTrackedObjects(LiDarWorkerTracker.getID(),
                         detectObjectsEvent.getDetectionTime(), matchingObjects);
             }
         }
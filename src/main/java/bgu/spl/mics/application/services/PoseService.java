@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.SimulationContext;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.PoseEvent;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
@@ -22,7 +23,17 @@ public class PoseService extends MicroService {
      * @param gpsimu The GPSIMU object that provides the robot's pose data.
      */
     public PoseService(GPSIMU gpsimu) {
-        super("PoseService");
+        this(gpsimu, SimulationContext.global());
+    }
+
+    /**
+     * Constructor for a PoseService of a given simulation.
+     *
+     * @param gpsimu  The GPSIMU object that provides the robot's pose data.
+     * @param context The simulation the service belongs to.
+     */
+    public PoseService(GPSIMU gpsimu, SimulationContext context) {
+        super("PoseService", context.getMessageBus());
         this.gpsimu = gpsimu;
     }
 
@@ -35,20 +46,23 @@ public class PoseService extends MicroService {
     protected void initialize() {
         // Subscribe to TickBroadcast
         subscribeBroadcast(TickBroadcast.class, tickBroadcast -> {
-            // Get the current pose from GPSIMU
-            int currentTime = tickBroadcast.getCurrentTick();
-            Pose currentPose = gpsimu.getPose(currentTime);
+            // Send the poses of the skipped ticks as well, in order
+            int lastTick = tickBroadcast.getCurrentTick();
+            for (int currentTime = lastTick - tickBroadcast.getElapsedTicks() + 1; currentTime <= lastTick; currentTime++) {
+                // Get the current pose from GPSIMU
+                Pose currentPose = gpsimu.getPose(currentTime);
 
-            if (currentPose == null) {
-                System.out.println("Pose not found at tick " + currentTime + ". Broadcasting TerminatedBroadcast.");
-                sendBroadcast(new TerminatedBroadcast());
-                terminate();
-                return;
-            }
+                if (currentPose == null) {
+                    System.out.println("Pose not found at tick " + currentTime + ". Broadcasting TerminatedBroadcast.");
+                    sendBroadcast(new TerminatedBroadcast());
+                    terminate();
+                    return;
+                }
 
-            // Send a PoseEvent with the current pose and time
-            PoseEvent poseEvent = new PoseEvent(currentPose);
-            sendEvent(poseEvent);
+                // Send a PoseEvent with the current pose and time
+                PoseEvent poseEvent = new PoseEvent(currentPose);
+                sendOneWayEvent(poseEvent);
+            }
         });
 
         // Subscribe to TerminatedBroadcast and CrashedBroadcast
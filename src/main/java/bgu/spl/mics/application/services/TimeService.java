@@ -1,6 +1,13 @@
 package bgu.spl.mics.application.services;
 
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import bgu.spl.mics.BusTracer;
+import bgu.spl.mics.MessageBusImpl;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.SimulationContext;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
@@ -9,21 +16,154 @@ import bgu.spl.mics.application.messages.TickBroadcast;
  * TimeService acts as the global timer for the system, broadcasting
  * TickBroadcast messages
  * at regular intervals and controlling the simulation's duration.
+ * <p>
+ * Ticks follow a fixed-rate schedule anchored at the first tick: tick n is
+ * due {@code (n - 1) * TickTime} after it, however long broadcasting the
+ * previous ticks took, so delays never add up into drift. How late each tick
+ * was sent is recorded (see {@link #getTickLateness()}).
+ * <p>
+ * With a virtual clock, a tick lasts only until every service has handled
+ * it and whatever it caused, so the simulation runs as fast as the services
+ * work while its output stays that of the wall clock.
+ * <p>
+ * When the ticks anything is due at are known in advance, the others may be
+ * skipped (see {@link #setTicks(int[])}): each TickBroadcast then tells how
+ * many ticks elapsed since the previous one.
+ * <p>
+ * A CrashedBroadcast ends the simulation in place of the next tick rather
+ * than right away, so every service still handles what was sent at the tick
+ * of the crash, and the output does not depend on which of them heard of the
+ * crash first.
  */
 public class TimeService extends MicroService {
+    private static final long SPIN_NANOS = 100_000; // waited by yielding rather than parking, for precision
+
+    /**
+     * The time source of the wall clock, replaced in tests by one they
+     * advance themselves.
+     */
+    interface Clock {
+        /**
+         * @return The current time, in nanoseconds from an arbitrary origin.
+         */
+        long nanoTime();
+
+        /**
+         * Waits until {@link #nanoTime()} reaches {@code deadline}.
+         *
+         * @param deadline The time to wait until.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void awaitDeadline(long deadline) throws InterruptedException;
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void awaitDeadline(long deadline) throws InterruptedException {
+            TimeService.awaitDeadline(deadline);
+        }
+    };
+
     private int TickTime;
     private int Duration;
+    private final MessageBusImpl messageBus;
+    private boolean virtualTime;
+    private TimeUnit tickUnit;
+    private int[] ticks; // the ticks to broadcast, or null for all of them
+    private Clock clock;
+    private volatile boolean crashed; // set by the service's own thread, read by the timer
+    private final LongSummaryStatistics tickLateness; // in nanoseconds, guarded by itself
 
     /**
      * Constructor for TimeService.
      *
-     * @param TickTime The duration of each tick in milliseconds.
+     * @param TickTime The duration of each tick, in seconds unless set
+     *                 otherwise with {@link #setTickUnit(TimeUnit)}.
      * @param Duration The total number of ticks before the service terminates.
      */
     public TimeService(int TickTime, int Duration) {
-        super("TimeService");
+        this(TickTime, Duration, SimulationContext.global());
+    }
+
+    /**
+     * Constructor for a TimeService of a given simulation.
+     *
+     * @param TickTime The duration of each tick, in seconds unless set
+     *                 otherwise with {@link #setTickUnit(TimeUnit)}.
+     * @param Duration The total number of ticks before the service terminates.
+     * @param context  The simulation the service belongs to.
+     */
+    public TimeService(int TickTime, int Duration, SimulationContext context) {
+        super("TimeService", context.getMessageBus());
         this.TickTime = TickTime;
         this.Duration = Duration;
+        this.messageBus = context.getMessageBus();
+        this.virtualTime = false;
+        this.tickUnit = TimeUnit.SECONDS;
+        this.ticks = null;
+        this.clock = SYSTEM_CLOCK;
+        this.crashed = false;
+        this.tickLateness = new LongSummaryStatistics();
+    }
+
+    /**
+     * Sets whether ticks follow a virtual clock, advancing once the message
+     * bus is quiescent, rather than every {@code TickTime}. Must be called
+     * before the service starts.
+     *
+     * @param virtualTime Whether to use a virtual clock.
+     */
+    public void setVirtualTime(boolean virtualTime) {
+        this.virtualTime = virtualTime;
+    }
+
+    /**
+     * Sets the unit {@code TickTime} is given in, e.g. milliseconds to replay
+     * sensors running at 10 to 100 Hz. Must be called before the service
+     * starts.
+     *
+     * @param tickUnit The unit of {@code TickTime}.
+     */
+    public void setTickUnit(TimeUnit tickUnit) {
+        this.tickUnit = tickUnit;
+    }
+
+    /**
+     * Sets the clock the ticks follow when they do not follow a virtual
+     * clock. Must be called before the service starts.
+     *
+     * @param clock The time source.
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the only ticks to broadcast, skipping the others. The last tick
+     * still lasts until the end of the duration. Must be called before the
+     * service starts.
+     *
+     * @param ticks The ticks to broadcast, in increasing order.
+     */
+    public void setTicks(int[] ticks) {
+        this.ticks = ticks.clone();
+    }
+
+    /**
+     * @return How late each tick was broadcast after the time it was due, in
+     *         nanoseconds. Empty with a virtual clock.
+     */
+    public LongSummaryStatistics getTickLateness() {
+        LongSummaryStatistics copy = new LongSummaryStatistics();
+        synchronized (tickLateness) {
+            copy.combine(tickLateness);
+        }
+        return copy;
     }
 
     /**
@@ -35,20 +175,55 @@ public class TimeService extends MicroService {
     protected void initialize() {
 
         Thread timerThread = new Thread(() -> {
-            for (int currentTick = 1; currentTick <= Duration; currentTick++) {
-                try {
+            long period = tickUnit.toNanos(TickTime);
+            long start = clock.nanoTime();
+            int previousTick = 0;
+            try {
+                for (int next = 0; ; next++) {
+                    int currentTick = ticks == null ? next + 1 : next < ticks.length ? ticks[next] : Duration + 1;
+                    if (currentTick > Duration) {
+                        break;
+                    }
+
+                    // Wait until the tick is due
+                    if (!virtualTime) {
+                        long due = start + (currentTick - 1) * period;
+                        clock.awaitDeadline(due);
+                        synchronized (tickLateness) {
+                            tickLateness.accept(clock.nanoTime() - due);
+                        }
+                    }
+
+                    // A crash ends the simulation in place of the next tick, so
+                    // the tick it happened at is handled to the end
+                    if (crashed) {
+                        break;
+                    }
+
                     // Broadcast the current tick
-                    sendBroadcast(new TickBroadcast(currentTick));
+                    if (BusTracer.ENABLED) {
+                        BusTracer.getInstance().setCurrentTick(currentTick);
+                    }
+                    // The tasks due by the tick are queued behind it, so they
+                    // see what the tick's subscribers did first
+                    sendBroadcast(new TickBroadcast(currentTick, currentTick - previousTick));
+                    messageBus.advanceClock(currentTick);
+                    previousTick = currentTick;
 
-                    // Sleep for the duration of the tick
-                    Thread.sleep(TickTime * 1000L);
+                    // With a virtual clock, the tick ends once it was handled
+                    if (virtualTime) {
+                        messageBus.awaitQuiescence();
+                    }
+                }
 
-                } catch (InterruptedException e) {
-                    // Graceful shutdown if interrupted
-                    Thread.currentThread().interrupt();
-                    System.out.println("TimeService interrupted");
-                    break;
+                // The last tick lasts as long as the others
+                if (!virtualTime && !crashed) {
+                    clock.awaitDeadline(start + Duration * period);
                 }
+            } catch (InterruptedException e) {
+                // Graceful shutdown if interrupted
+                Thread.currentThread().interrupt();
+                System.out.println("TimeService interrupted");
             }
 
             // After the duration ends, broadcast TerminatedBroadcast
@@ -64,10 +239,33 @@ public class TimeService extends MicroService {
             timerThread.interrupt();
             terminate();
         });
-        subscribeBroadcast(CrashedBroadcast.class, crashed -> {
-            timerThread.interrupt();
-            terminate();
-        });
+        // The rest of the tick is still handled by every service, whichever
+        // of them heard of the crash first, so the output does not depend on
+        // the order of the tick's messages
+        subscribeBroadcast(CrashedBroadcast.class, crashedBroadcast -> crashed = true);
         timerThread.start();
     }
+
+    /**
+     * Parks until shortly before {@code deadline}, a {@link System#nanoTime()}
+     * value, then yields until it passes, as parking may overshoot by more
+     * than a millisecond-long tick can afford. Thread.sleep is not used as it
+     * rounds to whole milliseconds before Java 21.
+     *
+     * @param deadline The time to wait until.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static void awaitDeadline(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package bgu.spl.mics.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+
+/**
+ * The hub of a simulation spread over several processes: it owns the main
+ * {@link MessageBusImpl}, and other processes join it with a
+ * {@link BusSpoke}, over TCP.
+ * <p>
+ * Every spoke is represented on the hub's bus by a proxy micro-service,
+ * which subscribes to the message types the spoke's micro-services subscribe
+ * to and forwards their messages to it. Messages a spoke sends are sent on
+ * the hub's bus, and so reach the hub's micro-services and the other spokes
+ * alike. Micro-services themselves do not change: they use their process's
+ * bus as usual.
+ * <p>
+ * A spoke announces its subscriptions when it connects, so the micro-services
+ * of every process must subscribe before it does, and the simulation should
+ * start only once {@link #awaitSpokes(int, long, TimeUnit)} returns.
+ */
+public final class BusHub implements Closeable, RemoteProxy.Listener {
+
+	//Fields
+	private final MessageBusImpl bus;
+	private final CodecRegistry codecs;
+	private final ServerSocket server;
+	private final List<RemoteProxy> spokes;
+	private int readySpokes;
+
+	//Constructor
+	/**
+	 * Starts accepting spokes.
+	 * <p>
+	 * @param bus     the bus spokes join.
+	 * @param codecs  the codecs of the types sent between processes.
+	 * @param address the address to listen on; port 0 picks a free port.
+	 * @throws IOException if the address cannot be listened on.
+	 */
+	public BusHub(MessageBusImpl bus, CodecRegistry codecs, InetSocketAddress address) throws IOException {
+		this.bus = bus;
+		this.codecs = codecs;
+		this.server = new ServerSocket();
+		this.server.bind(address);
+		this.spokes = new ArrayList<>();
+		this.readySpokes = 0;
+		Thread acceptor = new Thread(this::accept, "bus-hub-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	//Methods
+	/**
+	 * @return the port the hub listens on.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Waits until {@code count} spokes have connected and announced their
+	 * subscriptions.
+	 * <p>
+	 * @return false if they did not within the timeout.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public synchronized boolean awaitSpokes(int count, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (readySpokes < count) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Stops accepting spokes, and closes the link to every spoke once the
+	 * messages already forwarded to it are written.
+	 */
+	@Override
+	public void close() throws IOException {
+		server.close();
+		for (RemoteProxy spoke : snapshot()) {
+			spoke.close();
+		}
+	}
+
+	@Override
+	public void subscribed(RemoteProxy proxy, Class<? extends Message> type) {
+		// The other spokes may now send messages of the type here as well
+		for (RemoteProxy spoke : snapshot()) {
+			if (spoke != proxy) {
+				spoke.announce(type);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void ready(RemoteProxy proxy) {
+		readySpokes++;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void closed(RemoteProxy proxy) {
+		spokes.remove(proxy);
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				RemoteProxy spoke = new RemoteProxy("Spoke" + socket.getRemoteSocketAddress(), bus, codecs, socket,
+						false, this);
+				synchronized (this) {
+					spokes.add(spoke);
+				}
+				spoke.start();
+				// Spokes send here the messages of every type subscribed to so far
+				for (Class<? extends Message> type : bus.getSubscriptions().keySet()) {
+					spoke.announce(type);
+				}
+			} catch (IOException e) {
+				if (!server.isClosed()) {
+					System.err.println("The bus hub failed to accept a spoke: " + e);
+				}
+			}
+		}
+	}
+
+	private synchronized List<RemoteProxy> snapshot() {
+		return new ArrayList<>(spokes);
+	}
+}
@@ -0,0 +1,79 @@
+package bgu.spl.mics.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+
+/**
+ * Joins the bus of a process to a {@link BusHub}, so the micro-services on
+ * both exchange events, broadcasts and event results as if they shared a bus.
+ * <p>
+ * The hub is represented on the local bus by a proxy micro-service, which
+ * forwards to the hub the local messages of the types subscribed to at the
+ * hub or at other spokes. Events of a type the local micro-services subscribe
+ * to are handled locally rather than sent to the hub.
+ */
+public final class BusSpoke implements Closeable, RemoteProxy.Listener {
+
+	//Fields
+	private final RemoteProxy hub;
+	private final CountDownLatch disconnected;
+
+	//Constructor
+	/**
+	 * Connects to the hub, and announces the types the local micro-services
+	 * subscribe to, so they must subscribe before.
+	 * <p>
+	 * @param bus    the local bus.
+	 * @param codecs the codecs of the types sent between processes.
+	 * @throws IOException if the hub cannot be reached.
+	 */
+	public BusSpoke(MessageBusImpl bus, CodecRegistry codecs, String host, int port) throws IOException {
+		this.disconnected = new CountDownLatch(1);
+		this.hub = new RemoteProxy("Hub" + host + ":" + port, bus, codecs, new Socket(host, port), true, this);
+		hub.start();
+		for (Class<? extends Message> type : bus.getSubscriptions().keySet()) {
+			hub.announce(type);
+		}
+		hub.announceReady();
+	}
+
+	//Methods
+	/**
+	 * Waits until the hub closes the connection, e.g. after the simulation
+	 * ended.
+	 * <p>
+	 * @return false if it did not within the timeout.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public boolean awaitDisconnection(long timeout, TimeUnit unit) throws InterruptedException {
+		return disconnected.await(timeout, unit);
+	}
+
+	/**
+	 * Closes the connection once the messages already forwarded to the hub
+	 * are written.
+	 */
+	@Override
+	public void close() {
+		hub.close();
+	}
+
+	@Override
+	public void subscribed(RemoteProxy proxy, Class<? extends Message> type) {
+	}
+
+	@Override
+	public void ready(RemoteProxy proxy) {
+	}
+
+	@Override
+	public void closed(RemoteProxy proxy) {
+		disconnected.countDown();
+	}
+}
@@ -0,0 +1,57 @@
+package bgu.spl.mics.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes values of one type to a compact binary form and reads them back, so
+ * they can cross a {@link BusHub} link. A codec is registered for every
+ * message type, and every event result type, sent between processes (see
+ * {@link CodecRegistry}).
+ * <p>
+ * @param <T> the type of the values.
+ */
+public interface Codec<T> {
+
+	/**
+	 * Writes {@code value}, which is never null.
+	 */
+	void write(T value, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a value written by {@link #write(Object, DataOutput)}.
+	 */
+	T read(DataInput in) throws IOException;
+
+	/**
+	 * @return a codec made of the given halves, e.g. of two lambdas.
+	 */
+	static <T> Codec<T> of(Writer<T> writer, Reader<T> reader) {
+		return new Codec<T>() {
+			@Override
+			public void write(T value, DataOutput out) throws IOException {
+				writer.write(value, out);
+			}
+
+			@Override
+			public T read(DataInput in) throws IOException {
+				return reader.read(in);
+			}
+		};
+	}
+
+	/**
+	 * The writing half of a codec.
+	 */
+	interface Writer<T> {
+		void write(T value, DataOutput out) throws IOException;
+	}
+
+	/**
+	 * The reading half of a codec.
+	 */
+	interface Reader<T> {
+		T read(DataInput in) throws IOException;
+	}
+}
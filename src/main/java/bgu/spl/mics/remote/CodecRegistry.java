@@ -0,0 +1,130 @@
+package bgu.spl.mics.remote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the types sent between processes to their {@link Codec}s and to short
+ * numeric ids, which are written in front of every value instead of its class
+ * name. Every process of a simulation must register the same types under the
+ * same ids before connecting.
+ */
+public final class CodecRegistry {
+
+	private static final int NULL_ID = -1;
+
+	//Fields
+	private final Map<Class<?>, Registration<?>> byType;
+	private final Map<Integer, Registration<?>> byId;
+
+	//Constructor
+	public CodecRegistry() {
+		this.byType = new ConcurrentHashMap<>();
+		this.byId = new ConcurrentHashMap<>();
+	}
+
+	//Methods
+	/**
+	 * Registers {@code codec} for the values of exactly {@code type}.
+	 * <p>
+	 * @param id    the id of the type on the wire, from 0 to 32767.
+	 * @return this registry, to chain registrations.
+	 * @throws IllegalArgumentException if the id or the type is already
+	 *                                  registered, or the id is out of range.
+	 */
+	public synchronized <T> CodecRegistry register(int id, Class<T> type, Codec<T> codec) {
+		if (id < 0 || id > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("id must be between 0 and " + Short.MAX_VALUE);
+		}
+		if (byId.containsKey(id)) {
+			throw new IllegalArgumentException("id " + id + " is already registered");
+		}
+		if (byType.containsKey(type)) {
+			throw new IllegalArgumentException(type.getName() + " is already registered");
+		}
+		Registration<T> registration = new Registration<>(id, type, codec);
+		byId.put(id, registration);
+		byType.put(type, registration);
+		return this;
+	}
+
+	public boolean isRegistered(Class<?> type) {
+		return byType.containsKey(type);
+	}
+
+	/**
+	 * @return the id {@code type} is registered under.
+	 * @throws IllegalArgumentException if it is not registered.
+	 */
+	public int idOf(Class<?> type) {
+		return registration(type).id;
+	}
+
+	/**
+	 * @return the type registered under {@code id}.
+	 * @throws IOException if no type is, as the id was read from a peer.
+	 */
+	public Class<?> typeOf(int id) throws IOException {
+		return registration(id).type;
+	}
+
+	/**
+	 * Writes the id of {@code value}'s type followed by the value.
+	 * <p>
+	 * @param value a value of a registered type, or null.
+	 * @throws IllegalArgumentException if its type is not registered.
+	 */
+	public void write(Object value, DataOutput out) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_ID);
+			return;
+		}
+		Registration<?> registration = registration(value.getClass());
+		out.writeShort(registration.id);
+		registration.write(value, out);
+	}
+
+	/**
+	 * Reads a value written by {@link #write(Object, DataOutput)}.
+	 */
+	public Object read(DataInput in) throws IOException {
+		int id = in.readShort();
+		return id == NULL_ID ? null : registration(id).codec.read(in);
+	}
+
+	private Registration<?> registration(Class<?> type) {
+		Registration<?> registration = byType.get(type);
+		if (registration == null) {
+			throw new IllegalArgumentException("No codec is registered for " + type.getName());
+		}
+		return registration;
+	}
+
+	private Registration<?> registration(int id) throws IOException {
+		Registration<?> registration = byId.get(id);
+		if (registration == null) {
+			throw new IOException("No codec is registered under id " + id);
+		}
+		return registration;
+	}
+
+	// A registered type together with its id and codec
+	private static final class Registration<T> {
+		private final int id;
+		private final Class<T> type;
+		private final Codec<T> codec;
+
+		private Registration(int id, Class<T> type, Codec<T> codec) {
+			this.id = id;
+			this.type = type;
+			this.codec = codec;
+		}
+
+		private void write(Object value, DataOutput out) throws IOException {
+			codec.write(type.cast(value), out);
+		}
+	}
+}
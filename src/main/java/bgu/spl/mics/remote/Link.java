@@ -0,0 +1,164 @@
+package bgu.spl.mics.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection between two processes carrying length-prefixed frames, with a
+ * thread reading frames and a thread writing them.
+ * <p>
+ * Senders only queue their frames. The writer takes every frame queued by the
+ * time it wakes up and writes them all with a single flush, so a burst of
+ * small messages costs one system call rather than one each, without ever
+ * delaying a lone message.
+ */
+final class Link {
+
+	/**
+	 * Handles what the reading thread receives.
+	 */
+	interface Receiver {
+		/**
+		 * Handles one frame, on the reading thread.
+		 */
+		void received(DataInputStream frame) throws IOException;
+
+		/**
+		 * Called once, after the peer closed the link or it failed.
+		 */
+		void closed();
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] CLOSE = new byte[0]; // queued to close the writing side
+
+	//Fields
+	private final Socket socket;
+	private final String name;
+	private final Receiver receiver;
+	private final BlockingQueue<byte[]> outgoing;
+	private final AtomicInteger openSides; // the socket is closed once both threads end
+	private volatile boolean closing; // set once close() was called or the writer ended
+
+	//Constructor
+	Link(Socket socket, String name, Receiver receiver) throws IOException {
+		socket.setTcpNoDelay(true); // the writer batches frames itself
+		this.socket = socket;
+		this.name = name;
+		this.receiver = receiver;
+		this.outgoing = new LinkedBlockingQueue<>();
+		this.openSides = new AtomicInteger(2);
+		this.closing = false;
+	}
+
+	//Methods
+	void start() {
+		startThread(this::read, name + "-reader");
+		startThread(this::write, name + "-writer");
+	}
+
+	/**
+	 * Queues {@code frame} to be written. Safe to call from any thread; frames
+	 * sent after {@link #close()}, or once the link failed, are dropped
+	 * rather than queued with no writer left to take them.
+	 */
+	void send(byte[] frame) {
+		if (!closing) {
+			outgoing.offer(frame);
+		}
+	}
+
+	/**
+	 * Writes the frames already queued, and then closes the writing side. The
+	 * link is closed for good once the peer closes its side too.
+	 */
+	void close() {
+		closing = true;
+		outgoing.offer(CLOSE);
+	}
+
+	private void read() {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break; // the peer closed its side
+				}
+				byte[] frame = new byte[length];
+				in.readFully(frame);
+				receiver.received(new DataInputStream(new ByteArrayInputStream(frame)));
+			}
+		} catch (IOException e) {
+			if (!socket.isClosed()) {
+				System.err.println("Link " + name + " failed: " + e);
+			}
+		} finally {
+			close();
+			sideClosed();
+			receiver.closed();
+		}
+	}
+
+	private void write() {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+			while (true) {
+				byte[] frame = outgoing.take();
+				do {
+					if (frame == CLOSE) {
+						out.flush();
+						socket.shutdownOutput();
+						return;
+					}
+					out.writeInt(frame.length);
+					out.write(frame);
+				} while ((frame = outgoing.poll()) != null);
+				out.flush();
+			}
+		} catch (IOException e) {
+			if (!socket.isClosed()) {
+				System.err.println("Link " + name + " failed: " + e);
+			}
+			closeSocket(); // fails the reading side too
+		} catch (InterruptedException e) {
+			closeSocket();
+		} finally {
+			// Nothing takes frames any more, so the ones that raced with the
+			// close are dropped too
+			closing = true;
+			outgoing.clear();
+			sideClosed();
+		}
+	}
+
+	private void sideClosed() {
+		if (openSides.decrementAndGet() == 0) {
+			closeSocket();
+		}
+	}
+
+	private void closeSocket() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing more can be done with the socket
+		}
+	}
+
+	private static void startThread(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,295 @@
+package bgu.spl.mics.remote;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring of message frames in a memory-mapped file, through which one writer
+ * process passes messages to reader processes on the same host without any
+ * system call or copy through the kernel.
+ * <p>
+ * The file starts with a header holding the ring's shape, the sequence number
+ * of the next frame to be published, and a cursor per reader. Frames live in
+ * fixed-size slots, each stamped with its sequence number. The writer fills a
+ * slot, then stamps it, then advances the published sequence; readers poll
+ * the published sequence and advance their cursor once they copied a frame
+ * out. The writer never overwrites a slot an active reader has not read yet,
+ * waiting for the slowest reader instead.
+ * <p>
+ * Every counter sits on its own cache line, and has a single writing process.
+ * Java 8 has no fences for mapped memory, so a volatile access orders the
+ * counters against the frames, as it keeps both the JIT and the processor
+ * from reordering memory accesses across it.
+ */
+public final class MappedRing implements Closeable {
+
+	/**
+	 * The target of a frame meant for every reader.
+	 */
+	public static final int ALL_READERS = -1;
+
+	private static final int MAGIC = 0x4d52494e; // "MRIN"
+	private static final int LINE = 64;
+	private static final int SLOT_COUNT = 4;
+	private static final int SLOT_SIZE = 8;
+	private static final int MAX_READERS = 12;
+	private static final int PUBLISHED = LINE;
+	private static final int CURSORS = 2 * LINE;
+	private static final int SLOT_HEADER = 16; // sequence, target, length
+	private static final long INACTIVE = -1;
+	private static final int SPINS_BEFORE_YIELD = 100;
+	private static final int YIELDS_BEFORE_PARK = 100;
+	private static final long PARK_NANOS = 10_000;
+
+	private static volatile int fence; // accessed only for its ordering
+
+	//Fields
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+	private final int slotSize;
+	private final int maxReaders;
+	private final int slotsStart;
+	private long next; // the next sequence to publish, for the writer
+
+	//Constructor
+	private MappedRing(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a mapped ring file");
+		}
+		this.channel = channel;
+		this.buffer = buffer;
+		this.slotCount = buffer.getInt(SLOT_COUNT);
+		this.slotSize = buffer.getInt(SLOT_SIZE);
+		this.maxReaders = buffer.getInt(MAX_READERS);
+		this.slotsStart = CURSORS + maxReaders * LINE;
+		this.next = buffer.getLong(PUBLISHED);
+	}
+
+	//Methods
+	/**
+	 * Creates the ring file, replacing any previous one, for the writer.
+	 * <p>
+	 * @param slotCount  the number of slots, a power of two.
+	 * @param slotSize   the size of a slot in bytes, a multiple of 64; frames
+	 *                   may be up to 16 bytes shorter.
+	 * @param maxReaders the number of readers that may attach.
+	 * @throws IOException if the file cannot be created or mapped.
+	 */
+	public static MappedRing create(Path file, int slotCount, int slotSize, int maxReaders) throws IOException {
+		if (slotCount < 1 || Integer.bitCount(slotCount) != 1) {
+			throw new IllegalArgumentException("slotCount must be a power of two");
+		}
+		if (slotSize <= SLOT_HEADER || slotSize % LINE != 0) {
+			throw new IllegalArgumentException("slotSize must be a multiple of " + LINE);
+		}
+		if (maxReaders < 1) {
+			throw new IllegalArgumentException("maxReaders must be positive");
+		}
+		long size = CURSORS + (long) maxReaders * LINE + (long) slotCount * slotSize;
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.putInt(SLOT_COUNT, slotCount);
+		buffer.putInt(SLOT_SIZE, slotSize);
+		buffer.putInt(MAX_READERS, maxReaders);
+		buffer.putLong(PUBLISHED, 0);
+		for (int i = 0; i < maxReaders; i++) {
+			buffer.putLong(CURSORS + i * LINE, INACTIVE);
+		}
+		fence = 0;
+		buffer.putInt(0, MAGIC); // written last, so an opened ring is complete
+		return new MappedRing(channel, buffer);
+	}
+
+	/**
+	 * Opens a ring file created by {@link #create(Path, int, int, int)}, for
+	 * a reader.
+	 * <p>
+	 * @throws IOException if the file cannot be mapped or is not a ring.
+	 */
+	public static MappedRing open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		return new MappedRing(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+	}
+
+	/**
+	 * @return the largest frame a slot holds, in bytes.
+	 */
+	public int getMaxFrameSize() {
+		return slotSize - SLOT_HEADER;
+	}
+
+	/**
+	 * Publishes {@code frame}, waiting while the slowest active reader is a
+	 * whole ring behind. Must only be called by the single writer.
+	 * <p>
+	 * @param target the id of the reader the frame is for, or
+	 *               {@link #ALL_READERS}.
+	 * @throws IllegalArgumentException if the frame does not fit in a slot.
+	 */
+	public void publish(byte[] frame, int target) {
+		if (frame.length > getMaxFrameSize()) {
+			throw new IllegalArgumentException("A frame of " + frame.length + " bytes does not fit in a slot");
+		}
+		long sequence = next;
+		for (int idle = 0; sequence - slowestCursor(sequence) >= slotCount; idle++) {
+			backOff(idle);
+		}
+		int offset = slotOffset(sequence);
+		buffer.putInt(offset + 8, target);
+		buffer.putInt(offset + 12, frame.length);
+		for (int i = 0; i < frame.length; i++) {
+			buffer.put(offset + SLOT_HEADER + i, frame[i]);
+		}
+		fence = 0; // the frame before its stamp
+		buffer.putLong(offset, sequence);
+		fence = 0; // the stamp before the published sequence
+		buffer.putLong(PUBLISHED, sequence + 1);
+		next = sequence + 1;
+	}
+
+	/**
+	 * @return the ids of the readers currently attached.
+	 */
+	public int[] activeReaders() {
+		int count = 0;
+		int[] active = new int[maxReaders];
+		for (int i = 0; i < maxReaders; i++) {
+			if (cursor(i) != INACTIVE) {
+				active[count++] = i;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(active, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Attaches reader {@code id}, which reads the frames published from now
+	 * on. Every reader process must use an id of its own.
+	 */
+	public Reader reader(int id) {
+		if (id < 0 || id >= maxReaders) {
+			throw new IllegalArgumentException("reader id must be between 0 and " + (maxReaders - 1));
+		}
+		return new Reader(id);
+	}
+
+	/**
+	 * Unmaps nothing (the mapping lives until collected), but closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Waits a little, the longer the more times in a row it was called.
+	 */
+	static void backOff(int idle) {
+		if (idle < SPINS_BEFORE_YIELD) {
+			return;
+		}
+		if (idle < SPINS_BEFORE_YIELD + YIELDS_BEFORE_PARK) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+	private long slowestCursor(long sequence) {
+		long slowest = sequence;
+		for (int i = 0; i < maxReaders; i++) {
+			long cursor = cursor(i);
+			if (cursor != INACTIVE) {
+				slowest = Math.min(slowest, cursor);
+			}
+		}
+		return slowest;
+	}
+
+	private long cursor(int reader) {
+		long cursor = buffer.getLong(CURSORS + reader * LINE);
+		int ordered = fence; // the cursor before the slot is reused
+		return cursor;
+	}
+
+	private int slotOffset(long sequence) {
+		return slotsStart + (int) (sequence & (slotCount - 1)) * slotSize;
+	}
+
+	/**
+	 * The cursor of one reader process into the ring. Not thread-safe: a
+	 * reader is used by a single thread.
+	 */
+	public final class Reader implements Closeable {
+		private final int id;
+		private final int cursorOffset;
+		private long position; // the sequence of the next frame to read
+
+		// The writer may have checked the cursors before this one was stored,
+		// and then reuse the slot of the sequence read, so the cursor is
+		// stored again until the published sequence stays the same across it
+		private Reader(int id) {
+			this.id = id;
+			this.cursorOffset = CURSORS + id * LINE;
+			long published = buffer.getLong(PUBLISHED);
+			do {
+				position = published;
+				buffer.putLong(cursorOffset, position);
+				fence = 0;
+				int ordered = fence; // the cursor before the published sequence is read again
+				published = buffer.getLong(PUBLISHED);
+			} while (published != position);
+		}
+
+		/**
+		 * @return the next frame meant for this reader, or null if none was
+		 *         published yet.
+		 */
+		public byte[] poll() {
+			while (true) {
+				long published = buffer.getLong(PUBLISHED);
+				int ordered = fence; // the published sequence before the frame
+				if (position >= published) {
+					return null;
+				}
+				int offset = slotOffset(position);
+				if (buffer.getLong(offset) != position) {
+					throw new IllegalStateException("Reader " + id + " was overrun at sequence " + position);
+				}
+				int target = buffer.getInt(offset + 8);
+				byte[] frame = null;
+				if (target == ALL_READERS || target == id) {
+					frame = new byte[buffer.getInt(offset + 12)];
+					for (int i = 0; i < frame.length; i++) {
+						frame[i] = buffer.get(offset + SLOT_HEADER + i);
+					}
+				}
+				fence = 0; // the frame is copied before the slot is released
+				buffer.putLong(cursorOffset, ++position);
+				if (frame != null) {
+					return frame;
+				}
+			}
+		}
+
+		/**
+		 * Detaches the reader, so the writer stops waiting for it.
+		 */
+		@Override
+		public void close() {
+			buffer.putLong(cursorOffset, INACTIVE);
+		}
+
+		public int getId() {
+			return id;
+		}
+	}
+}
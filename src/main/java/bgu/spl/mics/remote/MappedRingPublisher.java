@@ -0,0 +1,109 @@
+package bgu.spl.mics.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Publishes the messages of some types sent on the local bus to a
+ * {@link MappedRing}, from which {@link MappedRingSubscriber}s in other
+ * processes on the same host send them on their own bus.
+ * <p>
+ * It subscribes to the types like any micro-service. Every broadcast goes to
+ * every subscriber process; every event to a single one, chosen by the
+ * event's routing key when it has one and in turn otherwise. The ring only
+ * flows one way, so events are one-way: their local {@link bgu.spl.mics.Future}
+ * is resolved with null once published.
+ */
+public final class MappedRingPublisher extends MicroService {
+
+	//Fields
+	private final MappedRing ring;
+	private final CodecRegistry codecs;
+	private final List<Class<? extends Message>> types;
+	private int nextReader;
+	private Thread thread;
+
+	//Constructor
+	/**
+	 * @param bus    the local bus.
+	 * @param codecs the codecs of the published types.
+	 * @param ring   a ring this process created.
+	 * @param types  the types to publish.
+	 */
+	public MappedRingPublisher(MessageBusImpl bus, CodecRegistry codecs, MappedRing ring,
+			List<Class<? extends Message>> types) {
+		super("MappedRingPublisher", bus);
+		this.ring = ring;
+		this.codecs = codecs;
+		this.types = types;
+		this.nextReader = 0;
+	}
+
+	//Methods
+	@Override
+	protected void initialize() {
+	}
+
+	/**
+	 * Subscribes to the published types, and starts publishing.
+	 */
+	@SuppressWarnings("unchecked")
+	public void start() {
+		for (Class<? extends Message> type : types) {
+			if (Broadcast.class.isAssignableFrom(type)) {
+				subscribeBroadcast((Class<Broadcast>) type,
+						broadcast -> publish(broadcast, MappedRing.ALL_READERS));
+			} else {
+				subscribeEvent((Class<Event<Object>>) (Class<?>) type, event -> publish(event, targetOf(event)));
+			}
+		}
+		thread = new Thread(this, getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops publishing; the ring itself stays open.
+	 */
+	public void close() {
+		terminate();
+		if (thread != null) {
+			thread.interrupt(); // wakes the event loop, which then ends
+		}
+	}
+
+	private int targetOf(Event<?> event) {
+		int[] readers = ring.activeReaders();
+		if (readers.length == 0) {
+			return MappedRing.ALL_READERS; // nobody to read it anyway
+		}
+		Object key = event.getRoutingKey();
+		if (key != null) {
+			return readers[Math.floorMod(key.hashCode(), readers.length)];
+		}
+		return readers[nextReader++ % readers.length];
+	}
+
+	private void publish(Message message, int target) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try {
+			codecs.write(message, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // never thrown by a byte array
+		}
+		try {
+			ring.publish(bytes.toByteArray(), target);
+		} catch (IllegalArgumentException e) {
+			System.err.println(getName() + " cannot publish a " + message.getClass().getSimpleName() + ": "
+					+ e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package bgu.spl.mics.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+
+/**
+ * Sends on the local bus the messages a {@link MappedRingPublisher} in another
+ * process publishes to a {@link MappedRing}, as if a local micro-service sent
+ * them.
+ * <p>
+ * A thread polls the ring's published sequence, spinning at first, then
+ * yielding, then parking for a few microseconds at a time while nothing is
+ * published, so a message sent right after another is picked up within
+ * nanoseconds without keeping a core busy when the ring is idle.
+ */
+public final class MappedRingSubscriber implements Closeable {
+
+	//Fields
+	private final MessageBusImpl bus;
+	private final CodecRegistry codecs;
+	private final MappedRing.Reader reader;
+	private final Thread thread;
+	private volatile boolean running;
+
+	//Constructor
+	/**
+	 * Attaches to the ring and starts polling it.
+	 * <p>
+	 * @param bus      the local bus.
+	 * @param codecs   the codecs of the published types.
+	 * @param ring     a ring opened by this process.
+	 * @param readerId the id of this process among the ring's readers.
+	 */
+	public MappedRingSubscriber(MessageBusImpl bus, CodecRegistry codecs, MappedRing ring, int readerId) {
+		this.bus = bus;
+		this.codecs = codecs;
+		this.reader = ring.reader(readerId);
+		this.running = true;
+		this.thread = new Thread(this::poll, "mapped-ring-reader-" + readerId);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	//Methods
+	/**
+	 * Stops polling, and detaches from the ring so the publisher no longer
+	 * waits for this process.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void poll() {
+		int idle = 0;
+		while (running) {
+			byte[] frame = reader.poll();
+			if (frame == null) {
+				MappedRing.backOff(idle++);
+				continue;
+			}
+			idle = 0;
+			try {
+				send((Message) codecs.read(new DataInputStream(new ByteArrayInputStream(frame))));
+			} catch (IOException e) {
+				System.err.println(thread.getName() + " cannot read a message: " + e);
+			}
+		}
+	}
+
+	private void send(Message message) {
+		if (message instanceof Broadcast) {
+			bus.sendBroadcast((Broadcast) message);
+		} else {
+			bus.sendOneWayEvent((Event<?>) message);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package bgu.spl.mics.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Stands in, on the local bus, for the micro-services at the other end of a
+ * {@link Link}.
+ * <p>
+ * When the peer announces it subscribes to a message type, the proxy
+ * subscribes to it on the local bus, and forwards every message of that type
+ * it receives. Messages received from the peer are sent on the local bus as
+ * if by a local micro-service. The proxy never forwards a broadcast back to
+ * the peer it came from, and completes an event's local {@link Future} when
+ * the peer completes the event.
+ */
+final class RemoteProxy extends MicroService implements Link.Receiver {
+
+	/**
+	 * Notified of what the peer of a proxy does.
+	 */
+	interface Listener {
+		void subscribed(RemoteProxy proxy, Class<? extends Message> type);
+
+		void ready(RemoteProxy proxy);
+
+		void closed(RemoteProxy proxy);
+	}
+
+	// Frame kinds
+	private static final byte SUBSCRIBE = 1;
+	private static final byte READY = 2;
+	private static final byte EVENT = 3;
+	private static final byte BROADCAST = 4;
+	private static final byte COMPLETE = 5;
+
+	private static final long ONE_WAY = 0; // the id of events nobody waits for
+
+	//Fields
+	private final MessageBusImpl bus;
+	private final CodecRegistry codecs;
+	private final boolean localFirst;
+	private final Listener listener;
+	private final Link link;
+	private final Set<Class<? extends Message>> subscribed;
+	private final Set<Message> injected; // broadcasts received from the peer
+	private final Map<Long, Future<Object>> pending; // forwarded events, by id
+	private final AtomicLong lastId;
+	private Thread thread;
+
+	//Constructor
+	/**
+	 * @param localFirst whether event types the local bus already has
+	 *                   subscribers for are kept local, rather than also
+	 *                   routed to the peer.
+	 */
+	RemoteProxy(String name, MessageBusImpl bus, CodecRegistry codecs, Socket socket, boolean localFirst,
+			Listener listener) throws IOException {
+		super(name, bus);
+		this.bus = bus;
+		this.codecs = codecs;
+		this.localFirst = localFirst;
+		this.listener = listener;
+		this.link = new Link(socket, name, this);
+		this.subscribed = ConcurrentHashMap.newKeySet();
+		this.injected = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+		this.pending = new ConcurrentHashMap<>();
+		this.lastId = new AtomicLong(ONE_WAY);
+	}
+
+	//Methods
+	@Override
+	protected void initialize() {
+	}
+
+	/**
+	 * Registers the proxy on the local bus, and starts its event loop and its
+	 * link.
+	 */
+	void start() {
+		bus.register(this);
+		thread = new Thread(this, getName());
+		thread.setDaemon(true);
+		thread.start();
+		link.start();
+	}
+
+	/**
+	 * Tells the peer that the local bus has subscribers of {@code type}, if
+	 * it has a codec; the peer then forwards its messages of that type here.
+	 */
+	void announce(Class<? extends Message> type) {
+		if (codecs.isRegistered(type)) {
+			link.send(frame(SUBSCRIBE, out -> out.writeShort(codecs.idOf(type))));
+		}
+	}
+
+	/**
+	 * Tells the peer that every subscription was announced.
+	 */
+	void announceReady() {
+		link.send(frame(READY, out -> { }));
+	}
+
+	/**
+	 * Closes the link, after the messages already forwarded are written.
+	 */
+	void close() {
+		link.close();
+	}
+
+	@Override
+	public void received(DataInputStream in) throws IOException {
+		switch (in.readByte()) {
+			case SUBSCRIBE:
+				subscribePeer(codecs.typeOf(in.readShort()).asSubclass(Message.class));
+				break;
+			case READY:
+				listener.ready(this);
+				break;
+			case EVENT:
+				long id = in.readLong();
+				inject(id, (Event<?>) codecs.read(in));
+				break;
+			case BROADCAST:
+				Broadcast broadcast = (Broadcast) codecs.read(in);
+				injected.add(broadcast);
+				sendBroadcast(broadcast);
+				break;
+			case COMPLETE:
+				Future<Object> future = pending.remove(in.readLong());
+				Object result = codecs.read(in);
+				if (future != null) {
+					future.resolve(result);
+				}
+				break;
+			default:
+				throw new IOException("Unknown frame kind");
+		}
+	}
+
+	@Override
+	public void closed() {
+		// The peer will never complete the events still pending
+		for (Long id : pending.keySet()) {
+			Future<Object> future = pending.remove(id);
+			if (future != null) {
+				future.resolve(null);
+			}
+		}
+		terminate();
+		if (thread != null) {
+			thread.interrupt(); // wakes the event loop, which then ends
+		}
+		listener.closed(this);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void subscribePeer(Class<? extends Message> type) {
+		if (!subscribed.add(type)) {
+			return;
+		}
+		if (Broadcast.class.isAssignableFrom(type)) {
+			subscribeBroadcast((Class<Broadcast>) type, this::forwardBroadcast);
+		} else if (!localFirst || !hasLocalSubscribers(type)) {
+			subscribeEvent((Class<Event<Object>>) (Class<?>) type, this::forwardEvent);
+		}
+		listener.subscribed(this, type);
+	}
+
+	private boolean hasLocalSubscribers(Class<? extends Message> type) {
+		List<MicroService> subscribers = bus.getSubscriptions().get(type);
+		return subscribers != null && !subscribers.isEmpty();
+	}
+
+	private void forwardBroadcast(Broadcast broadcast) {
+		if (!injected.remove(broadcast)) { // not one the peer sent
+			link.send(frame(BROADCAST, out -> codecs.write(broadcast, out)));
+		}
+	}
+
+	// Takes over the event's future, so the bus does not resolve it once this
+	// callback returns, until the peer completes the event
+	@SuppressWarnings("unchecked")
+	private void forwardEvent(Event<Object> event) {
+		Future<Object> future = (Future<Object>) bus.getFutures().remove(event);
+		long id = ONE_WAY;
+		if (future != null) {
+			id = lastId.incrementAndGet();
+			pending.put(id, future);
+		}
+		long eventId = id;
+		link.send(frame(EVENT, out -> {
+			out.writeLong(eventId);
+			codecs.write(event, out);
+		}));
+	}
+
+	private void inject(long id, Event<?> event) {
+		if (id == ONE_WAY) {
+			sendOneWayEvent(event);
+			return;
+		}
+		Future<?> future = sendEvent(event);
+		if (future == null) {
+			reply(id, null); // nobody here subscribes to it anymore
+		} else {
+			future.onComplete(result -> reply(id, result));
+		}
+	}
+
+	private void reply(long id, Object result) {
+		link.send(frame(COMPLETE, out -> {
+			out.writeLong(id);
+			try {
+				codecs.write(result, out);
+			} catch (IllegalArgumentException e) {
+				System.err.println(getName() + " cannot send the result of an event: " + e.getMessage());
+				codecs.write(null, out);
+			}
+		}));
+	}
+
+	private static byte[] frame(byte kind, Body body) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(kind);
+			body.write(out);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); // never thrown by a byte array
+		}
+		return bytes.toByteArray();
+	}
+
+	// Writes the body of a frame
+	private interface Body {
+		void write(DataOutputStream out) throws IOException;
+	}
+}
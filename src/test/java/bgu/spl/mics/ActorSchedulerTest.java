@@ -0,0 +1,97 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ActorSchedulerTest {
+
+    // An event type only the services of these tests subscribe to
+    private static class PingEvent implements Event<String> {
+    }
+
+    // Ends the services of these tests
+    private static class StopBroadcast implements Broadcast {
+    }
+
+    //Checks that a message sent while the actor gives up its worker still schedules it.
+    @Test
+    void testMessageSentDuringReleaseIsHandled() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        Semaphore handled = new Semaphore(0);
+        MicroService service = new MicroService("ponger", bus) {
+            @Override
+            protected void initialize() {
+                subscribeEvent(PingEvent.class, ping -> handled.release());
+                subscribeBroadcast(StopBroadcast.class, stop -> terminate());
+            }
+        };
+        ActorScheduler scheduler = new ActorScheduler(2);
+        scheduler.start(service);
+        service.awaitInitialized();
+
+        // Each message is sent as soon as the previous one was handled, so
+        // most land while the actor releases its worker. A lost wake-up would
+        // leave one waiting in the mailbox
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(bus.sendOneWayEvent(new PingEvent()));
+            assertTrue(handled.tryAcquire(5, TimeUnit.SECONDS), "Message " + i + " was never handled.");
+        }
+
+        bus.sendBroadcast(new StopBroadcast());
+        scheduler.awaitTermination();
+        assertFalse(bus.getQueues().containsKey(service));
+    }
+
+    //Checks that a service whose callback throws is reported and shut down, without stopping the others.
+    @Test
+    void testFailingServiceIsShutDown() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        AtomicInteger handled = new AtomicInteger();
+        MicroService failing = new MicroService("failing", bus) {
+            @Override
+            protected void initialize() {
+                subscribeEvent(PingEvent.class, ping -> {
+                    throw new IllegalStateException("broken");
+                });
+            }
+        };
+        MicroService healthy = new MicroService("healthy", bus) {
+            @Override
+            protected void initialize() {
+                subscribeBroadcast(StopBroadcast.class, stop -> {
+                    handled.incrementAndGet();
+                    terminate();
+                });
+            }
+        };
+        ActorScheduler scheduler = new ActorScheduler(1);
+        scheduler.start(failing);
+        scheduler.start(healthy);
+        failing.awaitInitialized();
+        healthy.awaitInitialized();
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(output, true));
+        try {
+            bus.sendOneWayEvent(new PingEvent());
+            bus.sendBroadcast(new StopBroadcast());
+            scheduler.awaitTermination();
+        } finally {
+            System.setErr(err);
+        }
+
+        // The failure is one line naming the service, the healthy one still ran
+        String report = output.toString().trim();
+        assertTrue(report.startsWith("failing failed: java.lang.IllegalStateException: broken at "), report);
+        assertFalse(report.contains("\n"), report);
+        assertEquals(1, handled.get());
+        assertTrue(bus.getQueues().isEmpty());
+    }
+}
@@ -0,0 +1,193 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+class FutureTest {
+
+    // Runs an action and returns what it printed on the standard error
+    private static String errorOutput(Runnable action) {
+        PrintStream err = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(captured, true));
+        try {
+            action.run();
+        } finally {
+            System.setErr(err);
+        }
+        return captured.toString();
+    }
+
+    /************** testing onComplete **************/
+
+    //Checks that a callback runs when the future is resolved, and right away once it is.
+    @Test
+    void testOnCompleteCallsCallback() {
+        Future<String> future = new Future<>();
+        AtomicReference<String> before = new AtomicReference<>();
+        AtomicReference<String> after = new AtomicReference<>();
+
+        // Register a callback before the future is resolved
+        future.onComplete(before::set);
+        assertNull(before.get());
+
+        // Resolving the future calls it
+        future.resolve("done");
+        assertEquals("done", before.get());
+
+        // A callback registered afterwards is called immediately
+        future.onComplete(after::set);
+        assertEquals("done", after.get());
+    }
+
+    /************** testing resolve **************/
+
+    //Checks that a throwing callback does not keep the later ones from running, and is reported instead of thrown.
+    @Test
+    void testResolveCallsEveryCallbackDespiteFailures() {
+        Future<String> future = new Future<>();
+        List<String> called = new ArrayList<>();
+        RuntimeException first = new IllegalStateException("first");
+        RuntimeException second = new IllegalStateException("second");
+
+        // Register failing callbacks between working ones
+        future.onComplete(result -> called.add("a"));
+        future.onComplete(result -> { throw first; });
+        future.onComplete(result -> called.add("b"));
+        future.onComplete(result -> { throw second; });
+        future.onComplete(result -> called.add("c"));
+
+        // Every callback ran in order, and each failure is reported on a line of its own
+        String[] reports = errorOutput(() -> future.resolve("done")).split(System.lineSeparator());
+        assertEquals(2, reports.length);
+        assertTrue(reports[0].startsWith("Future callback failed: " + first));
+        assertTrue(reports[1].startsWith("Future callback failed: " + second));
+        assertEquals(Arrays.asList("a", "b", "c"), called);
+        assertEquals("done", future.get());
+
+        // A callback registered afterwards runs on the caller, and is reported too
+        assertTrue(errorOutput(() -> future.onComplete(result -> { throw first; }))
+                .startsWith("Future callback failed: " + first));
+    }
+
+    //Checks that the waiting threads are woken before the callbacks run.
+    @Test
+    void testResolveWakesWaitersBeforeCallbacks() throws InterruptedException {
+        Future<String> future = new Future<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch woken = new CountDownLatch(1);
+        AtomicReference<String> seen = new AtomicReference<>();
+
+        // A thread waiting for the result
+        Thread waiter = new Thread(() -> {
+            waiting.countDown();
+            seen.set(future.get());
+            woken.countDown();
+        });
+        waiter.start();
+        waiting.await();
+        while (future.waiterCount() == 0) {
+            Thread.yield();
+        }
+
+        // A slow callback only finishes once the waiter has its result
+        AtomicReference<Boolean> wokenFirst = new AtomicReference<>();
+        future.onComplete(result -> {
+            try {
+                wokenFirst.set(woken.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        future.resolve("done");
+        waiter.join();
+
+        assertTrue(wokenFirst.get());
+        assertEquals("done", seen.get());
+    }
+
+    /************** testing get with a timeout **************/
+
+    //Checks that a timed wait that gives up leaves no trace, while the other waiters stay.
+    @Test
+    void testTimedGetUnlinksItsNode() {
+        Future<String> future = new Future<>();
+        List<String> called = new ArrayList<>();
+        future.onComplete(called::add);
+
+        // Time out many times, with the callback below the nodes
+        for (int i = 0; i < 100; i++) {
+            assertNull(future.get(1, TimeUnit.MICROSECONDS));
+        }
+        assertEquals(1, future.waiterCount());
+
+        // The callback is still called, and nothing waits once resolved
+        future.resolve("done");
+        assertEquals(Collections.singletonList("done"), called);
+        assertEquals(0, future.waiterCount());
+        assertEquals("done", future.get(0, TimeUnit.SECONDS));
+    }
+
+    /************** testing thenApply **************/
+    @Test
+    void testThenApplyTransformsResult() {
+        Future<Integer> future = new Future<>();
+        Future<String> applied = future.thenApply(result -> "result " + result);
+        assertFalse(applied.isDone());
+
+        future.resolve(7);
+        assertTrue(applied.isDone());
+        assertEquals("result 7", applied.get());
+    }
+
+    //Checks that a throwing function resolves the derived future with null, and its exception is reported.
+    @Test
+    void testThenApplyFailureResolvesWithNull() {
+        Future<Integer> future = new Future<>();
+        RuntimeException failure = new IllegalStateException("failed");
+        Future<String> applied = future.thenApply(result -> { throw failure; });
+
+        assertTrue(errorOutput(() -> future.resolve(7)).startsWith("Future callback failed: " + failure));
+        assertTrue(applied.isDone());
+        assertNull(applied.get());
+    }
+
+    /************** testing allOf and anyOf **************/
+    @Test
+    void testAllOfAndAnyOf() throws InterruptedException {
+        Future<Integer> first = new Future<>();
+        Future<Integer> second = new Future<>();
+        List<Future<Integer>> futures = Arrays.asList(first, second);
+        Future<List<Integer>> all = Future.allOf(futures);
+        Future<Integer> any = Future.anyOf(futures);
+
+        // Resolve the second future from another thread
+        Thread resolver = new Thread(() -> second.resolve(2));
+        resolver.start();
+        resolver.join();
+
+        // anyOf is resolved by the first result, allOf still waits
+        assertEquals(2, any.get(1, TimeUnit.SECONDS));
+        assertNull(all.get(10, TimeUnit.MILLISECONDS));
+
+        first.resolve(1);
+        assertEquals(Arrays.asList(1, 2), all.get());
+    }
+
+    //Checks that allOf of no futures is resolved right away, and anyOf of none is rejected.
+    @Test
+    void testAllOfAndAnyOfWithoutFutures() {
+        assertEquals(Collections.emptyList(), Future.allOf(Collections.emptyList()).get());
+        assertThrows(IllegalArgumentException.class, () -> Future.anyOf(Collections.emptyList()));
+    }
+}
@@ -0,0 +1,34 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    //Checks that percentiles are reported within a factor of two of the recorded values.
+    @Test
+    void testPercentilesAreWithinBucketBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50_500, histogram.getMean());
+        assertEquals(100_000, histogram.getMax());
+
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 50_000 && p50 < 100_000, "p50 was " + p50);
+        long p99 = histogram.percentile(99);
+        assertTrue(p99 >= 99_000 && p99 <= 100_000, "p99 was " + p99);
+    }
+
+    //Checks that an empty histogram reports zeros.
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.getMean());
+    }
+}
@@ -2,8 +2,14 @@ package bgu.spl.mics;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import bgu.spl.mics.application.objects.Pose;
 import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.services.TimeService;
 
@@ -11,6 +17,40 @@ import bgu.spl.mics.application.services.TimeService;
 
 class MessageBusImplTest {
 
+    // An event type no service of the simulation subscribes to
+    private static class OneWayEvent implements Event<String> {
+    }
+
+    // An event type only testTerminationResolvesRestOfBatch subscribes to
+    private static class StopEvent implements Event<String> {
+    }
+
+    // A normal priority broadcast no service of the simulation subscribes to
+    private static class DataBroadcast implements Broadcast {
+    }
+
+    // A broadcast type only testLateSubscriberSkipsEarlierBroadcasts subscribes to
+    private static class NoticeBroadcast implements Broadcast {
+    }
+
+    // An event type only testLeastLoadedRoutingSkipsBusySubscriber subscribes to
+    private static class RoutedEvent implements Event<String> {
+    }
+
+    // An event type only the consistent-hash routing tests subscribe to
+    private static class KeyedEvent implements Event<String> {
+        private final String key;
+
+        KeyedEvent(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object getRoutingKey() {
+            return key;
+        }
+    }
+
     // }
     /************** testing subscribeBroadcast **************/
     @Test
@@ -95,4 +135,747 @@ class MessageBusImplTest {
         assertEquals(30.0f, result.getYaw());
         assertEquals(40, result.getTime());
     }
+
+    /************** testing bounded queues **************/
+
+    //Checks that a full DROP_OLDEST queue drops its oldest message to make room.
+    @Test
+    void testDropOldestWhenQueueIsFull() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService listener = new MicroService("listener") {
+            @Override
+            protected void initialize() {
+            }
+        };
+        bus.setMailboxSettings(listener.getClass(), new MailboxSettings(2, OverflowPolicy.DROP_OLDEST));
+        long rejectedBefore = bus.getRejectedCount(OverflowPolicy.DROP_OLDEST);
+
+        // Register the service
+        bus.register(listener);
+        bus.subscribeBroadcast(DataBroadcast.class, listener);
+
+        // Send one more broadcast than the queue can hold
+        Broadcast first = new DataBroadcast();
+        Broadcast second = new DataBroadcast();
+        Broadcast third = new DataBroadcast();
+        bus.sendBroadcast(first);
+        bus.sendBroadcast(second);
+        bus.sendBroadcast(third);
+
+        // The first broadcast was dropped
+        assertEquals(second, bus.awaitMessage(listener));
+        assertEquals(third, bus.awaitMessage(listener));
+        assertEquals(rejectedBefore + 1, bus.getRejectedCount(OverflowPolicy.DROP_OLDEST));
+
+        bus.unregister(listener);
+    }
+
+    //Checks that a DROP_OLDEST queue full of high priority messages makes the sender wait instead of dropping them.
+    @Test
+    void testDropOldestWaitsBehindUrgentMessages() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = idleService("listener", bus);
+        bus.setMailboxSettings(listener.getClass(), new MailboxSettings(2, OverflowPolicy.DROP_OLDEST));
+        bus.register(listener);
+        bus.subscribeEvent(OneWayEvent.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        // Fill the queue with high priority messages, then send an event
+        Broadcast first = new TerminatedBroadcast();
+        Broadcast second = new TerminatedBroadcast();
+        bus.sendBroadcast(first);
+        bus.sendBroadcast(second);
+        Event<String> data = new OneWayEvent();
+        Thread sender = new Thread(() -> bus.sendOneWayEvent(data));
+        sender.start();
+
+        // The sender parks rather than spins, until a message is taken
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sender.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, sender.getState());
+        assertEquals(first, bus.awaitMessage(listener));
+        sender.join();
+
+        // Nothing was dropped
+        assertEquals(second, bus.awaitMessage(listener));
+        assertEquals(data, bus.awaitMessage(listener));
+        assertEquals(0, bus.getRejectedCount(OverflowPolicy.DROP_OLDEST));
+    }
+
+    //Checks that every event a DROP_OLDEST queue drops under concurrent senders has its future resolved.
+    @Test
+    void testDropOldestResolvesEveryDroppedEvent() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = idleService("listener", bus);
+        bus.setMailboxSettings(listener.getClass(), new MailboxSettings(1, OverflowPolicy.DROP_OLDEST));
+        bus.register(listener);
+        bus.subscribeEvent(RoutedEvent.class, listener);
+
+        // Senders race for the single place in the queue
+        int senders = 4;
+        int eventsEach = 2000;
+        List<List<Future<String>>> futures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[senders];
+        for (int i = 0; i < senders; i++) {
+            List<Future<String>> sent = new ArrayList<>();
+            futures.add(sent);
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < eventsEach; j++) {
+                    sent.add(bus.sendEvent(new RoutedEvent()));
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Only the events still queued are unresolved, and each drop was counted
+        int waiting = bus.getQueues().get(listener).size();
+        int unresolved = 0;
+        for (List<Future<String>> sent : futures) {
+            for (Future<String> future : sent) {
+                if (!future.isDone()) {
+                    unresolved++;
+                }
+            }
+        }
+        assertEquals(waiting, unresolved);
+        assertEquals(senders * eventsEach - waiting, bus.getRejectedCount(OverflowPolicy.DROP_OLDEST));
+    }
+
+    /************** testing coalesced broadcasts **************/
+
+    //Checks that a lagging coalescing subscriber only receives the latest broadcast.
+    @Test
+    void testCoalescedBroadcastKeepsLatest() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService listener = new TimeService(1, 30);
+
+        // Register the service
+        bus.register(listener);
+        bus.subscribeBroadcast(TickBroadcast.class, listener, true);
+
+        // Send several broadcasts before the service takes any of them
+        bus.sendBroadcast(new TickBroadcast(1));
+        bus.sendBroadcast(new TickBroadcast(2));
+        Broadcast latest = new TickBroadcast(3);
+        bus.sendBroadcast(latest);
+
+        // Only the latest broadcast is waiting
+        assertEquals(1, bus.getQueues().get(listener).size());
+        assertEquals(latest, bus.awaitMessage(listener));
+        assertTrue(bus.getQueues().get(listener).isEmpty());
+
+        bus.unregister(listener);
+    }
+
+    /************** testing sendOneWayEvent **************/
+
+    //Checks that a one-way event is delivered without creating a future.
+    @Test
+    void testSendOneWayEventCreatesNoFuture() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService subscriber = new TimeService(1, 30);
+        Event<String> event = new OneWayEvent();
+
+        // Register the subscriber and subscribe it to the event type
+        bus.register(subscriber);
+        bus.subscribeEvent(OneWayEvent.class, subscriber);
+
+        // Send the event and verify no future was stored for it
+        assertTrue(bus.sendOneWayEvent(event));
+        assertFalse(bus.getFutures().containsKey(event));
+
+        // The event still reaches the subscriber
+        assertEquals(event, bus.awaitMessage(subscriber));
+
+        bus.unregister(subscriber);
+    }
+
+    //Checks that unregistering resolves the futures of the events left in the queue with null.
+    @Test
+    void testUnregisterResolvesWaitingEvents() {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService subscriber = new TimeService(1, 30);
+
+        // Queue an event the subscriber never handles
+        bus.register(subscriber);
+        bus.subscribeEvent(OneWayEvent.class, subscriber);
+        Event<String> event = new OneWayEvent();
+        Future<String> future = bus.sendEvent(event);
+
+        // Its sender is not left waiting, and the bus forgets it
+        bus.unregister(subscriber);
+        assertTrue(future.isDone());
+        assertNull(future.get());
+        assertFalse(bus.getFutures().containsKey(event));
+    }
+
+    /************** testing routing policies **************/
+
+    //Checks that least-loaded routing sends events to the subscriber with the shortest queue.
+    @Test
+    void testLeastLoadedRoutingSkipsBusySubscriber() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService busy = new TimeService(1, 30);
+        MicroService idle = new TimeService(1, 30);
+        bus.setRoutingPolicy(RoutedEvent.class, RoutingPolicy.LEAST_LOADED);
+
+        // Register both subscribers, and give the first one a backlog
+        bus.register(busy);
+        bus.register(idle);
+        bus.subscribeEvent(RoutedEvent.class, busy);
+        bus.subscribeEvent(RoutedEvent.class, idle);
+        bus.subscribeBroadcast(DataBroadcast.class, busy);
+        bus.sendBroadcast(new DataBroadcast());
+        bus.sendBroadcast(new DataBroadcast());
+
+        // Both events go to the idle subscriber, as it stays the least loaded
+        bus.sendOneWayEvent(new RoutedEvent());
+        bus.sendOneWayEvent(new RoutedEvent());
+        assertEquals(2, bus.getQueues().get(busy).size());
+        assertEquals(2, bus.getQueues().get(idle).size());
+
+        bus.unregister(busy);
+        bus.unregister(idle);
+    }
+
+    //Checks that consistent-hash routing sends events with the same key to the same subscriber.
+    @Test
+    void testConsistentHashRoutingKeepsKeysTogether() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService[] subscribers = new MicroService[4];
+        bus.setRoutingPolicy(KeyedEvent.class, RoutingPolicy.CONSISTENT_HASH);
+
+        // Register the subscribers, named apart as names place them on the ring
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = idleService("keeper" + i, bus);
+            bus.register(subscribers[i]);
+            bus.subscribeEvent(KeyedEvent.class, subscribers[i]);
+        }
+
+        // Every event with the key lands in a single queue
+        for (int i = 0; i < 10; i++) {
+            bus.sendOneWayEvent(new KeyedEvent("Wall_1"));
+        }
+        MicroService owner = null;
+        for (MicroService subscriber : subscribers) {
+            int size = bus.getQueues().get(subscriber).size();
+            if (size > 0) {
+                assertNull(owner, "Events with the same key went to more than one subscriber.");
+                assertEquals(10, size);
+                owner = subscriber;
+            }
+        }
+        assertNotNull(owner);
+
+        // Unregistering another subscriber does not move the key
+        for (MicroService subscriber : subscribers) {
+            if (subscriber != owner) {
+                bus.unregister(subscriber);
+                break;
+            }
+        }
+        bus.sendOneWayEvent(new KeyedEvent("Wall_1"));
+        assertEquals(11, bus.getQueues().get(owner).size());
+
+        for (MicroService subscriber : subscribers) {
+            bus.unregister(subscriber);
+        }
+    }
+
+    //Checks that consistent-hash routing sends a key to the service of the same name on every bus.
+    @Test
+    void testConsistentHashRoutingIsStableAcrossBuses() {
+        String[] owners = new String[2];
+        for (int run = 0; run < owners.length; run++) {
+            MessageBusImpl bus = new MessageBusImpl();
+            bus.setRoutingPolicy(KeyedEvent.class, RoutingPolicy.CONSISTENT_HASH);
+
+            // Register services of the same names on a fresh bus
+            MicroService[] subscribers = new MicroService[4];
+            for (int i = 0; i < subscribers.length; i++) {
+                subscribers[i] = idleService("worker" + i, bus);
+                bus.register(subscribers[i]);
+                bus.subscribeEvent(KeyedEvent.class, subscribers[i]);
+            }
+
+            // Find the service the key went to
+            bus.sendOneWayEvent(new KeyedEvent("Wall_1"));
+            for (MicroService subscriber : subscribers) {
+                if (bus.getQueues().get(subscriber).size() > 0) {
+                    owners[run] = subscriber.getName();
+                }
+            }
+        }
+
+        assertNotNull(owners[0]);
+        assertEquals(owners[0], owners[1]);
+    }
+
+    //Checks that consistent-hash routing spreads keys over services that share a name.
+    @Test
+    void testConsistentHashRoutingSpreadsSameNamedServices() {
+        MessageBusImpl bus = new MessageBusImpl();
+        bus.setRoutingPolicy(KeyedEvent.class, RoutingPolicy.CONSISTENT_HASH);
+
+        // Register services that all have the same name
+        MicroService[] subscribers = new MicroService[4];
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = idleService("twin", bus);
+            bus.register(subscribers[i]);
+            bus.subscribeEvent(KeyedEvent.class, subscribers[i]);
+        }
+
+        // Every one of them gets keys of its own
+        for (int i = 0; i < 200; i++) {
+            bus.sendOneWayEvent(new KeyedEvent("Wall_" + i));
+        }
+        for (MicroService subscriber : subscribers) {
+            assertTrue(bus.getQueues().get(subscriber).size() > 0);
+        }
+    }
+
+    /************** testing priority lanes **************/
+
+    //Checks that a high priority broadcast overtakes the data waiting in the queue.
+    @Test
+    void testHighPriorityBroadcastOvertakesBacklog() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = new TimeService(1, 30);
+        Broadcast terminated = new TerminatedBroadcast();
+
+        // Register the service
+        bus.register(listener);
+        bus.subscribeEvent(OneWayEvent.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        // Queue a backlog of data, then the termination notice
+        Event<String> data = new OneWayEvent();
+        bus.sendOneWayEvent(data);
+        bus.sendOneWayEvent(new OneWayEvent());
+        bus.sendBroadcast(terminated);
+
+        // The termination notice is taken first, the backlog keeps its order
+        assertEquals(terminated, bus.awaitMessage(listener));
+        assertEquals(data, bus.awaitMessage(listener));
+    }
+
+    //Checks that ticks are normal priority data, and that a termination does not overtake a tick published before it.
+    @Test
+    void testTerminationFollowsEarlierTick() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = new TimeService(1, 30);
+
+        // Register the service, ticks are read from the ring
+        bus.register(listener);
+        bus.subscribeEvent(OneWayEvent.class, listener);
+        bus.subscribeBroadcast(TickBroadcast.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        // A tick behind some data, then the termination it caused
+        Event<String> data = new OneWayEvent();
+        Broadcast tick = new TickBroadcast(1);
+        Broadcast terminated = new TerminatedBroadcast();
+        bus.sendOneWayEvent(data);
+        bus.sendBroadcast(tick);
+        bus.sendBroadcast(terminated);
+        assertEquals(MessagePriority.NORMAL, tick.getPriority());
+
+        // The tick comes first, then the termination overtakes the data
+        assertEquals(tick, bus.awaitMessage(listener));
+        assertEquals(terminated, bus.awaitMessage(listener));
+        assertEquals(data, bus.awaitMessage(listener));
+    }
+
+    //Checks that a termination does not overtake a task due at the tick, even one not added yet.
+    @Test
+    void testTerminationFollowsDueTask() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = idleService("listener", bus);
+        bus.register(listener);
+        bus.subscribeEvent(OneWayEvent.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        // A task due at tick 1 behind some data, then a termination
+        ScheduledTask task = new ScheduledTask(listener, () -> { });
+        bus.schedule(task, 1);
+        Event<String> data = new OneWayEvent();
+        bus.sendOneWayEvent(data);
+        bus.advanceClock(1);
+        Broadcast terminated = new TerminatedBroadcast();
+        bus.sendBroadcast(terminated);
+
+        // The termination waits for the task, so for the data before it
+        assertEquals(data, bus.awaitMessage(listener));
+        assertEquals(task, bus.awaitMessage(listener));
+        assertEquals(terminated, bus.awaitMessage(listener));
+
+        // A task announced but not added yet holds the termination back too
+        Mailbox queue = bus.getQueues().get(listener);
+        queue.announceTask();
+        bus.sendBroadcast(terminated);
+        assertNull(bus.awaitMessage(listener, 10, TimeUnit.MILLISECONDS));
+        ScheduledTask late = new ScheduledTask(listener, () -> { });
+        queue.add(late);
+        assertEquals(late, bus.awaitMessage(listener));
+        assertEquals(terminated, bus.awaitMessage(listener));
+    }
+
+    //Checks that a task run after the queued messages follows them, whatever the clock says.
+    @Test
+    void testTaskAfterQueuedMessages() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService listener = idleService("listener", bus);
+        bus.register(listener);
+        bus.subscribeEvent(OneWayEvent.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        // Data, then a termination that overtakes it
+        Event<String> data = new OneWayEvent();
+        bus.sendOneWayEvent(data);
+        Broadcast terminated = new TerminatedBroadcast();
+        bus.sendBroadcast(terminated);
+        assertEquals(terminated, bus.awaitMessage(listener));
+
+        // The task it queues, before any tick, comes behind the data
+        ScheduledTask task = new ScheduledTask(listener, () -> { });
+        bus.enqueueTask(task);
+        assertEquals(data, bus.awaitMessage(listener));
+        assertEquals(task, bus.awaitMessage(listener));
+        assertTrue(bus.getQueues().get(listener).isEmpty());
+    }
+
+    /************** testing the broadcast ring **************/
+
+    //Checks that the constant-time depth counts the broadcasts to read from the ring, as size does.
+    @Test
+    void testDepthCountsRingBroadcasts() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService reader = idleService("reader", bus);
+        bus.register(reader);
+        bus.subscribeBroadcast(DataBroadcast.class, reader);
+        bus.subscribeEvent(OneWayEvent.class, reader);
+        Mailbox queue = bus.getQueues().get(reader);
+
+        // Broadcasts read from the ring and an added event
+        bus.sendBroadcast(new DataBroadcast());
+        bus.sendOneWayEvent(new OneWayEvent());
+        bus.sendBroadcast(new DataBroadcast());
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.depth());
+
+        // Taking them counts down both
+        bus.awaitMessage(reader);
+        bus.awaitMessage(reader);
+        assertEquals(1, queue.depth());
+        bus.awaitMessage(reader);
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.depth());
+    }
+
+    //Checks that broadcasts a subscriber did not read yet survive the ring wrapping around.
+    @Test
+    void testBroadcastRingKeepsUnreadBroadcasts() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService reader = new TimeService(1, 30);
+        MicroService laggard = new TimeService(1, 30);
+
+        // Register both services, their broadcasts are read from the ring
+        bus.register(reader);
+        bus.register(laggard);
+        bus.subscribeBroadcast(DataBroadcast.class, reader);
+        bus.subscribeBroadcast(DataBroadcast.class, laggard);
+
+        // Send more broadcasts than the ring holds, only one service keeps up
+        int count = BroadcastRing.DEFAULT_CAPACITY * 2;
+        Broadcast[] sent = new Broadcast[count];
+        for (int i = 0; i < count; i++) {
+            sent[i] = new DataBroadcast();
+            bus.sendBroadcast(sent[i]);
+            assertEquals(sent[i], bus.awaitMessage(reader));
+        }
+
+        // The lagging service still receives every broadcast, in order
+        for (int i = 0; i < count; i++) {
+            assertEquals(sent[i], bus.awaitMessage(laggard));
+        }
+        assertTrue(bus.getQueues().get(laggard).isEmpty());
+
+        bus.unregister(reader);
+        bus.unregister(laggard);
+    }
+
+    //Checks that a broadcast read from the ring is taken between the events sent before and after it.
+    @Test
+    void testRingBroadcastKeepsItsPlaceAmongEvents() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService service = new TimeService(1, 30);
+
+        // Register the service, its broadcasts are read from the ring
+        bus.register(service);
+        bus.subscribeBroadcast(DataBroadcast.class, service);
+        bus.subscribeEvent(OneWayEvent.class, service);
+
+        // Send an event, a broadcast and another event
+        Event<String> first = new OneWayEvent();
+        Broadcast data = new DataBroadcast();
+        Event<String> last = new OneWayEvent();
+        bus.sendOneWayEvent(first);
+        bus.sendBroadcast(data);
+        bus.sendOneWayEvent(last);
+
+        // They are taken in the order they were sent
+        assertEquals(3, bus.getQueues().get(service).size());
+        assertEquals(first, bus.awaitMessage(service));
+        assertEquals(data, bus.awaitMessage(service));
+        assertEquals(last, bus.awaitMessage(service));
+        assertTrue(bus.getQueues().get(service).isEmpty());
+    }
+
+    //Checks that a service reading a type from the ring only gets the broadcasts published after it subscribed.
+    @Test
+    void testLateSubscriberSkipsEarlierBroadcasts() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        MicroService early = new TimeService(1, 30);
+        MicroService late = new TimeService(1, 30);
+
+        // Both services read from the ring, only one of them reads notices
+        bus.register(early);
+        bus.register(late);
+        bus.subscribeBroadcast(NoticeBroadcast.class, early);
+        bus.subscribeBroadcast(DataBroadcast.class, late);
+
+        // A notice published before the late service subscribes to notices
+        bus.sendBroadcast(new NoticeBroadcast());
+        bus.subscribeBroadcast(NoticeBroadcast.class, late);
+        Broadcast notice = new NoticeBroadcast();
+        bus.sendBroadcast(notice);
+
+        // Only the later notice is waiting, and counted, for the late service
+        Mailbox queue = bus.getQueues().get(late);
+        assertEquals(1, queue.size());
+        assertEquals(notice, bus.awaitMessage(late));
+        assertEquals(0, queue.size());
+        assertTrue(queue.isEmpty());
+    }
+
+    /************** testing wait strategies **************/
+
+    //Checks that a spinning service still receives a message sent while it waits.
+    @Test
+    void testSpinningServiceReceivesMessage() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService listener = new MicroService("spinner") {
+            @Override
+            protected void initialize() {
+            }
+        };
+        bus.setMailboxSettings(listener.getClass(),
+                new MailboxSettings(MailboxSettings.UNBOUNDED, OverflowPolicy.BLOCK, WaitStrategy.SPIN_YIELD));
+
+        // Register the service
+        bus.register(listener);
+        bus.subscribeBroadcast(DataBroadcast.class, listener);
+
+        // Send a broadcast after a delay, while the service is waiting
+        Broadcast data = new DataBroadcast();
+        Thread senderThread = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                bus.sendBroadcast(data);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        senderThread.start();
+
+        assertEquals(data, bus.awaitMessage(listener));
+        assertNull(bus.awaitMessage(listener, 10, TimeUnit.MILLISECONDS));
+
+        senderThread.join();
+        bus.unregister(listener);
+    }
+
+    /************** testing the stall watchdog **************/
+
+    //Checks that the watchdog reports, once, a service that blocks while messages wait for it.
+    @Test
+    void testStallWatchdogReportsBlockedService() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        MicroService stuck = new MicroService("stuck") {
+            @Override
+            protected void initialize() {
+            }
+        };
+        bus.register(stuck);
+        bus.subscribeBroadcast(DataBroadcast.class, stuck);
+
+        // The service takes one broadcast and then blocks, as if on a future that is never resolved
+        CountDownLatch release = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                bus.awaitMessage(stuck);
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        consumer.start();
+        bus.sendBroadcast(new DataBroadcast());
+        Mailbox queue = bus.getQueues().get(stuck);
+        while (queue.getTakenCount() == 0 || consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        bus.sendBroadcast(new DataBroadcast());
+        bus.sendBroadcast(new DataBroadcast());
+
+        // Reported only after the threshold passes without progress, and only once
+        StallWatchdog watchdog = new StallWatchdog(1, TimeUnit.SECONDS);
+        long now = System.nanoTime();
+        assertNull(reportOf(watchdog.sample(now)));
+        String report = reportOf(watchdog.sample(now + TimeUnit.SECONDS.toNanos(2)));
+        assertNotNull(report);
+        assertTrue(report.contains("WAITING"));
+        assertTrue(report.contains("CountDownLatch"));
+        assertTrue(report.contains("DataBroadcast"));
+        assertNull(reportOf(watchdog.sample(now + TimeUnit.SECONDS.toNanos(3))));
+
+        release.countDown();
+        consumer.join();
+        bus.unregister(stuck);
+    }
+
+    /************** testing separate buses **************/
+
+    //Checks that a service on a bus of its own sees none of the shared bus's messages.
+    @Test
+    void testSeparateBusesAreIndependent() throws InterruptedException {
+        MessageBusImpl shared = MessageBusImpl.getInstance();
+        MessageBusImpl separate = new MessageBusImpl();
+        MicroService listener = new MicroService("separate", separate) {
+            @Override
+            protected void initialize() {
+            }
+        };
+
+        // Subscribe the service on its own bus only
+        separate.register(listener);
+        separate.subscribeBroadcast(DataBroadcast.class, listener);
+        assertFalse(shared.getQueues().containsKey(listener));
+
+        // Broadcasts on the shared bus do not reach it, those on its own bus do
+        shared.sendBroadcast(new DataBroadcast());
+        assertNull(separate.awaitMessage(listener, 10, TimeUnit.MILLISECONDS));
+        Broadcast data = new DataBroadcast();
+        separate.sendBroadcast(data);
+        assertEquals(data, separate.awaitMessage(listener));
+
+        separate.unregister(listener);
+    }
+
+    //Checks that the bus is quiescent only once the messages a broadcast caused are handled as well.
+    @Test
+    void testAwaitQuiescenceWaitsForCausedMessages() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        CountDownLatch handled = new CountDownLatch(1);
+        MicroService relay = new MicroService("relay", bus) {
+            @Override
+            protected void initialize() {
+                subscribeBroadcast(DataBroadcast.class, data -> sendOneWayEvent(new OneWayEvent()));
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+            }
+        };
+        MicroService sink = new MicroService("sink", bus) {
+            @Override
+            protected void initialize() {
+                subscribeEvent(OneWayEvent.class, event -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    handled.countDown();
+                });
+                subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+            }
+        };
+        Thread relayThread = new Thread(relay);
+        Thread sinkThread = new Thread(sink);
+        relayThread.start();
+        sinkThread.start();
+        relay.awaitInitialized();
+        sink.awaitInitialized();
+
+        bus.sendBroadcast(new DataBroadcast());
+        bus.awaitQuiescence();
+        assertEquals(0, handled.getCount());
+
+        bus.sendBroadcast(new TerminatedBroadcast());
+        relayThread.join();
+        sinkThread.join();
+    }
+
+    //Checks that the events left in a batch when the service terminates have their futures resolved.
+    @Test
+    void testTerminationResolvesRestOfBatch() throws InterruptedException {
+        MessageBusImpl bus = new MessageBusImpl();
+        CountDownLatch gate = new CountDownLatch(1);
+        MicroService service = new MicroService("stopper", bus) {
+            @Override
+            protected void initialize() {
+                subscribeEvent(OneWayEvent.class, event -> {
+                    try {
+                        gate.await(); // the next events pile up meanwhile
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                subscribeEvent(StopEvent.class, event -> terminate());
+            }
+        };
+        Thread thread = new Thread(service);
+        thread.start();
+        service.awaitInitialized();
+
+        // Hold the service on a first event, so the next three are taken in one batch
+        bus.sendEvent(new OneWayEvent());
+        while (!bus.getQueues().get(service).isEmpty()) {
+            Thread.yield();
+        }
+        Future<String> stop = bus.sendEvent(new StopEvent());
+        Future<String> skipped = bus.sendEvent(new StopEvent());
+        Future<String> alsoSkipped = bus.sendEvent(new StopEvent());
+        gate.countDown();
+        thread.join();
+
+        // The skipped events are resolved with null, not left pending
+        assertTrue(stop.isDone());
+        assertTrue(skipped.isDone());
+        assertNull(skipped.get());
+        assertTrue(alsoSkipped.isDone());
+    }
+
+    // A micro-service that subscribes to nothing by itself
+    private static MicroService idleService(String name, MessageBusImpl bus) {
+        return new MicroService(name, bus) {
+            @Override
+            protected void initialize() {
+            }
+        };
+    }
+
+    private static String reportOf(List<String> reports) {
+        return reports.stream().filter(report -> report.startsWith("Stall: stuck ")).findFirst().orElse(null);
+    }
 }
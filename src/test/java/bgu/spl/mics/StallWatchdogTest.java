@@ -0,0 +1,130 @@
+package bgu.spl.mics;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class StallWatchdogTest {
+
+    private static final long THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+
+    // An event type only the watched service subscribes to
+    private static class PingEvent implements Event<String> {
+    }
+
+    private final MessageBusImpl bus = new MessageBusImpl();
+    private final MicroService service = new MicroService("watched", bus) {
+        @Override
+        protected void initialize() {
+        }
+    };
+
+    private Mailbox register() {
+        bus.register(service);
+        bus.subscribeEvent(PingEvent.class, service);
+        return bus.getQueues().get(service);
+    }
+
+    //Checks that a service is reported once the threshold passes without progress, and only once.
+    @Test
+    void testSampleReportsOncePerStall() {
+        register();
+        bus.sendOneWayEvent(new PingEvent());
+        StallWatchdog watchdog = new StallWatchdog(bus, 1, TimeUnit.SECONDS);
+
+        // First seen at 0, still within the threshold just before 1 s
+        assertTrue(watchdog.sample(0).isEmpty());
+        assertTrue(watchdog.sample(THRESHOLD - 1).isEmpty());
+
+        // Reported at the threshold, then not again for the same stall
+        List<String> reports = watchdog.sample(THRESHOLD);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).startsWith("Stall: watched took no message for 1000 ms while 1 waited"));
+        assertTrue(reports.get(0).contains("no thread took a message from it yet"));
+        assertTrue(reports.get(0).contains("PingEvent"));
+        assertTrue(watchdog.sample(2 * THRESHOLD).isEmpty());
+    }
+
+    //Checks that taking a message or an empty mailbox restarts the wait before a report.
+    @Test
+    void testSampleRestartsOnProgress() throws InterruptedException {
+        register();
+        StallWatchdog watchdog = new StallWatchdog(bus, 1, TimeUnit.SECONDS);
+
+        // An empty mailbox is never reported
+        assertTrue(watchdog.sample(0).isEmpty());
+        assertTrue(watchdog.sample(2 * THRESHOLD).isEmpty());
+
+        // Messages wait from 2 s on, one is taken at 2.5 s
+        bus.sendOneWayEvent(new PingEvent());
+        bus.sendOneWayEvent(new PingEvent());
+        assertTrue(watchdog.sample(2 * THRESHOLD).isEmpty());
+        bus.awaitMessage(service);
+        assertTrue(watchdog.sample(2 * THRESHOLD + THRESHOLD / 2).isEmpty());
+
+        // So the stall counts from 2.5 s, and the report shows the taking thread
+        assertTrue(watchdog.sample(3 * THRESHOLD).isEmpty());
+        List<String> reports = watchdog.sample(3 * THRESHOLD + THRESHOLD / 2);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).contains("thread " + Thread.currentThread().getName() + " is RUNNABLE"));
+        assertTrue(reports.get(0).contains("StallWatchdogTest.testSampleRestartsOnProgress"));
+    }
+
+    //Checks that a service between two runs on a worker pool is reported as waiting for a worker.
+    @Test
+    void testSampleReportsUnscheduledActor() throws InterruptedException {
+        Mailbox queue = register();
+        bus.sendOneWayEvent(new PingEvent());
+        bus.sendOneWayEvent(new PingEvent());
+        bus.awaitMessage(service);
+        queue.bindConsumer(null); // as the ActorScheduler does once a run ends
+        StallWatchdog watchdog = new StallWatchdog(bus, 1, TimeUnit.SECONDS);
+
+        assertTrue(watchdog.sample(0).isEmpty());
+        List<String> reports = watchdog.sample(THRESHOLD);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).contains("no thread is running it, it waits to be scheduled on a worker"));
+    }
+
+    //Checks that a consumer thread that ended is reported as such.
+    @Test
+    void testSampleReportsDeadConsumer() throws InterruptedException {
+        register();
+        bus.sendOneWayEvent(new PingEvent());
+        bus.sendOneWayEvent(new PingEvent());
+        Thread consumer = new Thread(() -> {
+            try {
+                bus.awaitMessage(service);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "gone");
+        consumer.start();
+        consumer.join();
+        StallWatchdog watchdog = new StallWatchdog(bus, 1, TimeUnit.SECONDS);
+
+        assertTrue(watchdog.sample(0).isEmpty());
+        List<String> reports = watchdog.sample(THRESHOLD);
+        assertEquals(1, reports.size());
+        assertTrue(reports.get(0).contains("thread gone is no longer alive"));
+    }
+
+    //Checks that the mailboxes of unregistered services are forgotten.
+    @Test
+    void testSampleForgetsUnregisteredServices() {
+        register();
+        bus.sendOneWayEvent(new PingEvent());
+        StallWatchdog watchdog = new StallWatchdog(bus, 1, TimeUnit.SECONDS);
+        assertTrue(watchdog.sample(0).isEmpty());
+
+        // Registered again after unregistering, the service starts over
+        bus.unregister(service);
+        assertTrue(watchdog.sample(THRESHOLD / 2).isEmpty());
+        register();
+        bus.sendOneWayEvent(new PingEvent());
+        assertTrue(watchdog.sample(THRESHOLD).isEmpty());
+        assertEquals(1, watchdog.sample(THRESHOLD + THRESHOLD).size());
+    }
+}
@@ -0,0 +1,100 @@
+package bgu.spl.mics;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class TimingWheelTest {
+
+    //Checks that entries at every level, and beyond the top one, fire exactly at their tick, in order.
+    @Test
+    void testEntriesFireAtTheirTick() {
+        TimingWheel<Long> wheel = new TimingWheel<>();
+        List<Long> ticks = Arrays.asList(1L, 63L, 64L, 65L, 4095L, 4096L, 5000L, 300_000L, 20_000_000L, 40_000_000L);
+        for (Long tick : ticks) {
+            assertTrue(wheel.schedule(tick, tick));
+        }
+
+        List<Long> fired = new ArrayList<>();
+        for (Long tick : ticks) {
+            wheel.advanceTo(tick - 1, fired);
+            assertEquals(ticks.indexOf(tick), fired.size(), "fired before tick " + tick);
+            wheel.advanceTo(tick, fired);
+            assertEquals(tick, fired.get(fired.size() - 1));
+        }
+        assertEquals(ticks, fired);
+        assertEquals(0, wheel.size());
+    }
+
+    //Checks that a jump fires every entry skipped over, and that past ticks are due right away.
+    @Test
+    void testJumpFiresSkippedEntries() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        wheel.schedule(10, "a");
+        wheel.schedule(10, "b");
+        wheel.schedule(700, "c");
+        List<String> fired = new ArrayList<>();
+        wheel.advanceTo(1000, fired);
+        assertEquals(Arrays.asList("a", "b", "c"), fired);
+        assertEquals(1000, wheel.getCurrentTick());
+        assertFalse(wheel.schedule(1000, "late"));
+    }
+
+    //Checks that an entry three levels up moves down one level at a time, firing only at its own tick.
+    @Test
+    void testMultiLevelCascade() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        long tick = 3 * 64 * 64 + 2 * 64 + 7; // slot 3 of level 2, then slot 2 of level 1, then slot 7 of level 0
+        wheel.schedule(tick, "deep");
+        wheel.schedule(3 * 64 * 64, "span");
+        List<String> fired = new ArrayList<>();
+
+        wheel.advanceTo(3 * 64 * 64 - 1, fired);
+        assertTrue(fired.isEmpty());
+        wheel.advanceTo(3 * 64 * 64, fired);
+        assertEquals(Arrays.asList("span"), fired);
+        wheel.advanceTo(3 * 64 * 64 + 2 * 64, fired);
+        assertEquals(1, fired.size());
+        wheel.advanceTo(tick - 1, fired);
+        assertEquals(1, fired.size());
+        wheel.advanceTo(tick, fired);
+        assertEquals(Arrays.asList("span", "deep"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    //Checks that a single jump past the top level fires the overflow entries on the way, and keeps the later ones.
+    @Test
+    void testJumpPastOverflow() {
+        TimingWheel<Long> wheel = new TimingWheel<>();
+        long top = 1L << 24; // the reach of the top level
+        List<Long> ticks = Arrays.asList(5L, top + 5, 3 * top + 70, 5 * top);
+        for (Long tick : ticks) {
+            wheel.schedule(tick, tick);
+        }
+        List<Long> fired = new ArrayList<>();
+
+        wheel.advanceTo(4 * top, fired);
+        assertEquals(ticks.subList(0, 3), fired);
+        assertEquals(1, wheel.size());
+        wheel.advanceTo(5 * top - 1, fired);
+        assertEquals(3, fired.size());
+        wheel.advanceTo(5 * top, fired);
+        assertEquals(ticks, fired);
+    }
+
+    //Checks that a jump over billions of ticks only visits the ticks something happens at.
+    @Test
+    void testLongJumpSkipsEmptyTicks() {
+        TimingWheel<String> wheel = new TimingWheel<>();
+        long far = 1L << 40;
+        wheel.schedule(far, "far");
+        List<String> fired = new ArrayList<>();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> wheel.advanceTo(far + 1000, fired));
+        assertEquals(Arrays.asList("far"), fired);
+        assertEquals(far + 1000, wheel.getCurrentTick());
+    }
+}
@@ -0,0 +1,241 @@
+package bgu.spl.mics.application;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.TrackedObject;
+import bgu.spl.mics.application.services.CameraService;
+import bgu.spl.mics.application.services.LiDarService;
+
+class GurionRockRunnerTest {
+
+    private static final Path EXAMPLE_INPUT = Paths.get("example input");
+    private static final Path CRASH_INPUT = Paths.get("example_input_2"); // Camera 1 crashes at tick 9
+    private static final double TOLERANCE = 1e-9;
+
+    @TempDir
+    Path dir;
+
+    private JsonObject runExample(Consumer<JsonObject> configure) throws Exception {
+        return run(EXAMPLE_INPUT, "output_file.json", configure);
+    }
+
+    private JsonObject runCrash(Consumer<JsonObject> configure) throws Exception {
+        return run(CRASH_INPUT, "OutputError.json", configure);
+    }
+
+    // Copies an input to a directory of its own, lets the test change its
+    // configuration, runs it and returns the output file
+    private JsonObject run(Path input, String outputFile, Consumer<JsonObject> configure) throws Exception {
+        Path runDir = Files.createTempDirectory(dir, "run");
+        try (Stream<Path> files = Files.list(input)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, runDir.resolve(file.getFileName()));
+            }
+        }
+        Path configFile = runDir.resolve("configuration_file.json");
+        JsonObject config = read(configFile);
+        configure.accept(config);
+        try (Writer writer = Files.newBufferedWriter(configFile)) {
+            writer.write(config.toString());
+        }
+        Files.deleteIfExists(runDir.resolve("output_file.json")); // The expected output, kept in EXAMPLE_INPUT
+
+        GurionRockRunner.run(configFile.toString(), runDir.toString(), new SimulationContext());
+        return read(runDir.resolve(outputFile));
+    }
+
+    private static JsonObject read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    // The expected output counts 22 ticks, one past tick 21, the first without
+    // a pose, at which PoseService ends the simulation. Ticks 1 to 21 are
+    // handled, and the original runner counts the same 21
+    private static void assertSameMap(JsonObject expected, JsonObject actual) {
+        assertEquals(22, expected.get("systemRuntime").getAsInt());
+        assertEquals(21, actual.get("systemRuntime").getAsInt());
+        assertEquals(expected.get("numDetectedObjects"), actual.get("numDetectedObjects"));
+        assertEquals(expected.get("numTrackedObjects"), actual.get("numTrackedObjects"));
+        assertEquals(expected.get("numLandmarks"), actual.get("numLandmarks"));
+
+        Map<String, JsonArray> expectedLandmarks = landmarks(expected);
+        Map<String, JsonArray> actualLandmarks = landmarks(actual);
+        assertEquals(expectedLandmarks.keySet(), actualLandmarks.keySet());
+        for (String id : expectedLandmarks.keySet()) {
+            JsonArray expectedPoints = expectedLandmarks.get(id);
+            JsonArray actualPoints = actualLandmarks.get(id);
+            assertEquals(expectedPoints.size(), actualPoints.size(), id);
+            for (int i = 0; i < expectedPoints.size(); i++) {
+                JsonObject expectedPoint = expectedPoints.get(i).getAsJsonObject();
+                JsonObject actualPoint = actualPoints.get(i).getAsJsonObject();
+                assertEquals(expectedPoint.get("x").getAsDouble(), actualPoint.get("x").getAsDouble(), TOLERANCE, id);
+                assertEquals(expectedPoint.get("y").getAsDouble(), actualPoint.get("y").getAsDouble(), TOLERANCE, id);
+            }
+        }
+    }
+
+    // The coordinates of every landmark by its id. The expected output keeps
+    // the landmarks in an object keyed by id, the runner writes an array
+    private static Map<String, JsonArray> landmarks(JsonObject output) {
+        JsonElement landMarks = output.get("landMarks");
+        Iterable<JsonElement> list = landMarks.isJsonArray()
+                ? landMarks.getAsJsonArray()
+                : landMarks.getAsJsonObject().asMap().values();
+        Map<String, JsonArray> coordinates = new HashMap<>();
+        for (JsonElement landmark : list) {
+            JsonObject object = landmark.getAsJsonObject();
+            coordinates.put(object.get("id").getAsString(), object.getAsJsonArray("coordinates"));
+        }
+        return coordinates;
+    }
+
+    @Test
+    void testVirtualTimeBuildsTheExpectedMap() throws Exception {
+        JsonObject expected = read(EXAMPLE_INPUT.resolve("output_file.json"));
+        JsonObject output = runExample(config -> config.addProperty("VirtualTime", true));
+
+        assertSameMap(expected, output);
+    }
+
+    // The simulation ends at the tick after the last pose, and a clock that
+    // stalls catches up with ticks in a burst, so a tick must be long enough
+    // for a stall not to end the run before the last detection reaches the map
+    @Test
+    void testWallClockBuildsTheExpectedMap() throws Exception {
+        JsonObject expected = read(EXAMPLE_INPUT.resolve("output_file.json"));
+        JsonObject output = runExample(GurionRockRunnerTest::configureWallClock);
+
+        assertSameMap(expected, output);
+    }
+
+    @Test
+    void testSkipIdleTicksBuildsTheExpectedMap() throws Exception {
+        JsonObject expected = read(EXAMPLE_INPUT.resolve("output_file.json"));
+        JsonObject output = runExample(config -> {
+            config.addProperty("VirtualTime", true);
+            config.addProperty("SkipIdleTicks", true);
+        });
+
+        assertSameMap(expected, output);
+    }
+
+    // Sets a wall-clock tick long enough for a stall not to end the run early
+    private static void configureWallClock(JsonObject config) {
+        config.addProperty("TickTime", 50);
+        config.addProperty("TickTimeUnit", "MILLISECONDS");
+    }
+
+    //Checks that virtual time writes the same output file as the wall clock.
+    @Test
+    void testVirtualTimeMatchesWallClock() throws Exception {
+        JsonObject virtual = runExample(config -> config.addProperty("VirtualTime", true));
+        JsonObject wallClock = runExample(GurionRockRunnerTest::configureWallClock);
+
+        assertEquals(wallClock, virtual);
+    }
+
+    //Checks that virtual time writes the same error output as the wall clock when a sensor crashes.
+    @Test
+    void testVirtualTimeMatchesWallClockOnCrash() throws Exception {
+        JsonObject virtual = runCrash(config -> config.addProperty("VirtualTime", true));
+        JsonObject wallClock = runCrash(GurionRockRunnerTest::configureWallClock);
+
+        assertEquals(wallClock, virtual);
+    }
+
+    //Checks that the frames due at the tick of a crash are still sent, as in the expected output.
+    @Test
+    void testCrashKeepsFramesDueAtItsTick() throws Exception {
+        JsonObject expected = read(CRASH_INPUT.resolve("error_output.json"));
+        JsonObject output = runCrash(config -> config.addProperty("VirtualTime", true));
+
+        assertEquals(expected.get("error"), output.get("error"));
+        assertEquals(expected.get("faultySensor"), output.get("faultySensor"));
+        // Camera 2 sends its frame at 7 at tick 9, when Camera 1 crashes
+        assertEquals(expected.get("lastCameraFrames"), output.get("lastCamerasFrames"));
+        assertEquals(expected.getAsJsonArray("poses").size(), output.getAsJsonArray("poses").size());
+        JsonObject expectedStatistics = expected.getAsJsonObject("statistics");
+        JsonObject statistics = output.getAsJsonObject("statistics");
+        assertEquals(expectedStatistics.get("systemRuntime"), statistics.get("systemRuntime"));
+        assertEquals(expectedStatistics.get("numDetectedObjects"), statistics.get("numDetectedObjects"));
+        assertEquals(expectedStatistics.get("numLandmarks"), statistics.get("numLandmarks"));
+    }
+
+    //Checks that the due ticks include the frames, their ready ticks and the error records, up to the end.
+    @Test
+    void testComputeDueTicks() {
+        SimulationContext context = new SimulationContext();
+        // Frames at 3, 5 (an error), 7 and 8, sent 2 ticks later
+        Camera camera = new Camera(1, 2, new ArrayList<>(Arrays.asList(
+                frame(3, "Wall_1"), frame(5, "ERROR"), frame(7, "Wall_2"), frame(8, "Wall_3"))));
+        // Records at 4 and an error at 6
+        LiDarWorkerTracker lidar = new LiDarWorkerTracker(1, 1, new ArrayList<>(Arrays.asList(
+                record("Wall_1", 4), record("ERROR", 6))));
+        // Poses up to tick 8, so the simulation ends at tick 9
+        List<Pose> poses = new ArrayList<>();
+        for (int time = 1; time <= 8; time++) {
+            poses.add(new Pose(0, 0, 0, time));
+        }
+
+        int[] ticks = GurionRockRunner.computeDueTicks(20,
+                new CameraService[] { new CameraService(camera, context) },
+                new LiDarService[] { new LiDarService(lidar, context) }, poses);
+
+        // The frame at 7 is sent at the last tick, the one at 8 would be sent after it
+        assertArrayEquals(new int[] { 3, 4, 5, 6, 7, 8, 9 }, ticks);
+    }
+
+    //Checks that the duration ends the due ticks when every tick has a pose.
+    @Test
+    void testComputeDueTicksStopsAtDuration() {
+        SimulationContext context = new SimulationContext();
+        Camera camera = new Camera(1, 0, new ArrayList<>(Arrays.asList(frame(2, "Wall_1"), frame(12, "Wall_2"))));
+        List<Pose> poses = new ArrayList<>();
+        for (int time = 1; time <= 20; time++) {
+            poses.add(new Pose(0, 0, 0, time));
+        }
+
+        int[] ticks = GurionRockRunner.computeDueTicks(10,
+                new CameraService[] { new CameraService(camera, context) }, new LiDarService[0], poses);
+
+        assertArrayEquals(new int[] { 2, 10 }, ticks);
+    }
+
+    private static StampedDetectedObjects frame(int time, String id) {
+        return new StampedDetectedObjects(time, Collections.singletonList(new DetectedObject(id, id)));
+    }
+
+    private static TrackedObject record(String id, int time) {
+        return new TrackedObject(id, time, id, Collections.emptyList());
+    }
+}
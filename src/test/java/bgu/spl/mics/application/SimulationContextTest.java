@@ -0,0 +1,30 @@
+package bgu.spl.mics.application;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.mics.application.objects.LiDarDataBase;
+
+class SimulationContextTest {
+
+    private static final String LIDAR_DATA = "example input/lidar_data.json";
+    private static final String OTHER_LIDAR_DATA = "example_input_2/lidar_data.json";
+
+    //Checks that the LiDAR database is loaded once, and that asking for another file is rejected.
+    @Test
+    void testLiDarDataBaseIsOfOneFile() {
+        SimulationContext context = new SimulationContext();
+        LiDarDataBase dataBase = context.getLiDarDataBase(LIDAR_DATA);
+
+        // The same file, however it is written, gives the same database
+        assertSame(dataBase, context.getLiDarDataBase(LIDAR_DATA));
+        assertSame(dataBase, context.getLiDarDataBase("./" + LIDAR_DATA));
+
+        // Another file is not silently given the first one's database
+        assertThrows(IllegalArgumentException.class, () -> context.getLiDarDataBase(OTHER_LIDAR_DATA));
+
+        // Another context loads its own
+        assertNotSame(dataBase, new SimulationContext().getLiDarDataBase(OTHER_LIDAR_DATA));
+    }
+}
@@ -0,0 +1,152 @@
+package bgu.spl.mics.application.services;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.SimulationContext;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+
+/**
+ * Test class for the fixed-rate schedule of the TimeService, driven by a
+ * clock the test controls instead of the wall clock.
+ */
+class TimeServiceTest {
+
+    /**
+     * A clock that jumps straight to every deadline it is asked to wait for,
+     * and arrives late at the deadlines it was told to.
+     */
+    private static class ManualClock implements TimeService.Clock {
+        private static final long ORIGIN = 1_000_000_000L; // any origin works
+        private final Map<Long, Long> overruns = new HashMap<>(); // by deadline, from the origin
+        private final List<Long> deadlines = new ArrayList<>(); // from the origin
+        private long now = ORIGIN;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void awaitDeadline(long deadline) {
+            deadlines.add(deadline - ORIGIN);
+            now = Math.max(now, deadline) + overruns.getOrDefault(deadline - ORIGIN, 0L);
+        }
+    }
+
+    // Runs a TimeService on the clock until it terminates, and returns the
+    // ticks a listener received
+    private static List<TickBroadcast> run(TimeService timeService, MessageBusImpl bus) throws InterruptedException {
+        MicroService listener = new MicroService("listener", bus) {
+            @Override
+            protected void initialize() {
+            }
+        };
+        bus.register(listener);
+        bus.subscribeBroadcast(TickBroadcast.class, listener);
+        bus.subscribeBroadcast(TerminatedBroadcast.class, listener);
+
+        Thread thread = new Thread(timeService);
+        thread.start();
+        thread.join();
+
+        List<TickBroadcast> ticks = new ArrayList<>();
+        Message message;
+        while (!((message = bus.awaitMessage(listener)) instanceof TerminatedBroadcast)) {
+            ticks.add((TickBroadcast) message);
+        }
+        bus.unregister(listener);
+        return ticks;
+    }
+
+    /**
+     * Tests that the ticks after an overrun are sent right away until the
+     * schedule is caught up, one broadcast and one elapsed tick each, and
+     * that the lateness of each is recorded.
+     */
+    @Test
+    void testCatchUpAfterOverrun() throws InterruptedException {
+        SimulationContext context = new SimulationContext();
+        TimeService timeService = new TimeService(10, 6, context);
+        timeService.setTickUnit(TimeUnit.MILLISECONDS);
+        ManualClock clock = new ManualClock();
+        long period = TimeUnit.MILLISECONDS.toNanos(10);
+        clock.overruns.put(2 * period, 25 * period / 10); // tick 3 is sent 2.5 ticks late
+        timeService.setClock(clock);
+
+        List<TickBroadcast> ticks = run(timeService, context.getMessageBus());
+
+        // Every tick is sent once, in order, none of them skipped
+        assertEquals(6, ticks.size());
+        for (int i = 0; i < ticks.size(); i++) {
+            assertEquals(i + 1, ticks.get(i).getCurrentTick());
+            assertEquals(1, ticks.get(i).getElapsedTicks());
+        }
+
+        // The deadlines stay on the grid, then the last tick lasts its period
+        assertEquals(Arrays.asList(0L, period, 2 * period, 3 * period, 4 * period, 5 * period, 6 * period),
+                clock.deadlines);
+
+        // Ticks 4 and 5 are sent at 4.5 periods, late by 1.5 and 0.5, tick 6 on time
+        LongSummaryStatistics lateness = timeService.getTickLateness();
+        assertEquals(6, lateness.getCount());
+        assertEquals(25 * period / 10, lateness.getMax());
+        assertEquals(25 * period / 10 + 15 * period / 10 + 5 * period / 10, lateness.getSum());
+    }
+
+    /**
+     * Tests that a tick shorter than a millisecond keeps its exact period.
+     */
+    @Test
+    void testSubMillisecondTicks() throws InterruptedException {
+        SimulationContext context = new SimulationContext();
+        TimeService timeService = new TimeService(250, 4, context);
+        timeService.setTickUnit(TimeUnit.MICROSECONDS);
+        ManualClock clock = new ManualClock();
+        timeService.setClock(clock);
+
+        List<TickBroadcast> ticks = run(timeService, context.getMessageBus());
+
+        assertEquals(4, ticks.size());
+        assertEquals(Arrays.asList(0L, 250_000L, 500_000L, 750_000L, 1_000_000L), clock.deadlines);
+        assertEquals(0, timeService.getTickLateness().getMax());
+    }
+
+    /**
+     * Tests that with skipped ticks the tick after an overrun is sent right
+     * away, and carries every tick elapsed since the previous one.
+     */
+    @Test
+    void testElapsedTicksAfterLateSkippedTick() throws InterruptedException {
+        SimulationContext context = new SimulationContext();
+        TimeService timeService = new TimeService(1, 10, context);
+        timeService.setTicks(new int[] { 2, 6, 7 });
+        ManualClock clock = new ManualClock();
+        long period = TimeUnit.SECONDS.toNanos(1);
+        clock.overruns.put(period, 6 * period); // tick 2 is sent at 7 s
+        timeService.setClock(clock);
+
+        List<TickBroadcast> ticks = run(timeService, context.getMessageBus());
+
+        assertEquals(3, ticks.size());
+        assertEquals(2, ticks.get(0).getElapsedTicks());
+        assertEquals(6, ticks.get(1).getCurrentTick());
+        assertEquals(4, ticks.get(1).getElapsedTicks());
+        assertEquals(7, ticks.get(2).getCurrentTick());
+        assertEquals(1, ticks.get(2).getElapsedTicks());
+        // Ticks 6 and 7 were due at 5 and 6 s, and sent at 7 s
+        assertEquals(6 * period + 2 * period + period, timeService.getTickLateness().getSum());
+        assertEquals(Arrays.asList(period, 5 * period, 6 * period, 10 * period), clock.deadlines);
+    }
+}
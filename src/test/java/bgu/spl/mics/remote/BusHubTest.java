@@ -0,0 +1,117 @@
+package bgu.spl.mics.remote;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+class BusHubTest {
+
+    private static class PingEvent implements Event<Integer> {
+        private final int value;
+
+        PingEvent(int value) {
+            this.value = value;
+        }
+    }
+
+    private static class NoteBroadcast implements Broadcast {
+        private final String text;
+
+        NoteBroadcast(String text) {
+            this.text = text;
+        }
+    }
+
+    private static CodecRegistry codecs() {
+        return new CodecRegistry()
+                .register(1, PingEvent.class, Codec.of((ping, out) -> out.writeInt(ping.value), in -> new PingEvent(in.readInt())))
+                .register(2, NoteBroadcast.class, Codec.of((note, out) -> out.writeUTF(note.text), in -> new NoteBroadcast(in.readUTF())))
+                .register(3, Integer.class, Codec.of((value, out) -> out.writeInt(value), in -> in.readInt()));
+    }
+
+    private static BusHub startHub(MessageBusImpl bus) throws Exception {
+        return new BusHub(bus, codecs(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private static MicroService listener(String name, MessageBusImpl bus) {
+        MicroService listener = new MicroService(name, bus) {
+            @Override
+            protected void initialize() {
+            }
+        };
+        bus.register(listener);
+        return listener;
+    }
+
+    // Waits until {@code count} micro-services subscribe to {@code type} on {@code bus}
+    private static void awaitSubscribers(MessageBusImpl bus, Class<? extends Message> type, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            List<MicroService> subscribers = bus.getSubscriptions().get(type);
+            if (subscribers != null && subscribers.size() >= count) {
+                return;
+            }
+            assertTrue(System.nanoTime() < deadline, "no subscription to " + type.getSimpleName());
+            Thread.sleep(5);
+        }
+    }
+
+    //Checks that an event sent in a spoke is handled at the hub, and its future resolved in the spoke.
+    @Test
+    void testEventCrossesToHubAndIsCompleted() throws Exception {
+        MessageBusImpl hubBus = new MessageBusImpl();
+        MessageBusImpl spokeBus = new MessageBusImpl();
+        MicroService doubler = listener("doubler", hubBus);
+        hubBus.subscribeEvent(PingEvent.class, doubler);
+
+        try (BusHub hub = startHub(hubBus);
+                BusSpoke spoke = new BusSpoke(spokeBus, codecs(), "localhost", hub.getPort())) {
+            assertTrue(hub.awaitSpokes(1, 5, TimeUnit.SECONDS));
+            awaitSubscribers(spokeBus, PingEvent.class, 1);
+
+            Future<Integer> future = spokeBus.sendEvent(new PingEvent(21));
+            assertNotNull(future);
+            PingEvent received = (PingEvent) hubBus.awaitMessage(doubler, 5, TimeUnit.SECONDS);
+            assertEquals(21, received.value);
+            hubBus.complete(received, received.value * 2);
+            assertEquals(42, future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    //Checks that a spoke's broadcast reaches the hub and the other spokes, but is not echoed back.
+    @Test
+    void testBroadcastReachesEveryProcessOnce() throws Exception {
+        MessageBusImpl hubBus = new MessageBusImpl();
+        MessageBusImpl firstBus = new MessageBusImpl();
+        MessageBusImpl secondBus = new MessageBusImpl();
+        MicroService atHub = listener("atHub", hubBus);
+        MicroService atFirst = listener("atFirst", firstBus);
+        MicroService atSecond = listener("atSecond", secondBus);
+        hubBus.subscribeBroadcast(NoteBroadcast.class, atHub);
+        firstBus.subscribeBroadcast(NoteBroadcast.class, atFirst);
+        secondBus.subscribeBroadcast(NoteBroadcast.class, atSecond);
+
+        try (BusHub hub = startHub(hubBus);
+                BusSpoke first = new BusSpoke(firstBus, codecs(), "localhost", hub.getPort());
+                BusSpoke second = new BusSpoke(secondBus, codecs(), "localhost", hub.getPort())) {
+            assertTrue(hub.awaitSpokes(2, 5, TimeUnit.SECONDS));
+            awaitSubscribers(firstBus, NoteBroadcast.class, 2); // the listener and the hub's proxy
+
+            firstBus.sendBroadcast(new NoteBroadcast("hello"));
+            assertEquals("hello", ((NoteBroadcast) firstBus.awaitMessage(atFirst, 5, TimeUnit.SECONDS)).text);
+            assertEquals("hello", ((NoteBroadcast) hubBus.awaitMessage(atHub, 5, TimeUnit.SECONDS)).text);
+            assertEquals("hello", ((NoteBroadcast) secondBus.awaitMessage(atSecond, 5, TimeUnit.SECONDS)).text);
+            assertNull(firstBus.awaitMessage(atFirst, 200, TimeUnit.MILLISECONDS));
+        }
+    }
+}
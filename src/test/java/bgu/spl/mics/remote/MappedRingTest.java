@@ -0,0 +1,135 @@
+package bgu.spl.mics.remote;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+class MappedRingTest {
+
+    private static class PingEvent implements Event<Integer> {
+        private final int value;
+
+        PingEvent(int value) {
+            this.value = value;
+        }
+    }
+
+    private static class NoteBroadcast implements Broadcast {
+        private final String text;
+
+        NoteBroadcast(String text) {
+            this.text = text;
+        }
+    }
+
+    private static CodecRegistry codecs() {
+        return new CodecRegistry()
+                .register(1, PingEvent.class, Codec.of((ping, out) -> out.writeInt(ping.value), in -> new PingEvent(in.readInt())))
+                .register(2, NoteBroadcast.class, Codec.of((note, out) -> out.writeUTF(note.text), in -> new NoteBroadcast(in.readUTF())));
+    }
+
+    //Checks that a reader mapping the file separately gets every frame in order, as the writer wraps around the ring many times.
+    @Test
+    void testReaderGetsEveryFrameInOrder(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("ring");
+        int frames = 10_000;
+        try (MappedRing writer = MappedRing.create(file, 8, 64, 2);
+                MappedRing opened = MappedRing.open(file)) {
+            MappedRing.Reader reader = opened.reader(1);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < frames; i++) {
+                    writer.publish(ByteBuffer.allocate(4).putInt(i).array(), MappedRing.ALL_READERS);
+                }
+            });
+            producer.start();
+            for (int i = 0; i < frames; ) {
+                byte[] frame = reader.poll();
+                if (frame != null) {
+                    assertEquals(i++, ByteBuffer.wrap(frame).getInt());
+                }
+            }
+            producer.join();
+            assertNull(reader.poll());
+            assertArrayEquals(new int[] {1}, writer.activeReaders());
+            reader.close();
+            assertEquals(0, writer.activeReaders().length);
+        }
+    }
+
+    //Checks that a reader attaching while the writer publishes reads on from where it attached, never overrun.
+    @Test
+    void testReaderAttachesWhileWriterPublishes(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("ring");
+        try (MappedRing writer = MappedRing.create(file, 2, 64, 1);
+                MappedRing opened = MappedRing.open(file)) {
+            AtomicBoolean stop = new AtomicBoolean(false);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    writer.publish(ByteBuffer.allocate(4).putInt(i).array(), MappedRing.ALL_READERS);
+                }
+            });
+            producer.start();
+            try {
+                // Attach again and again, each time reading a few consecutive frames
+                for (int attach = 0; attach < 2_000; attach++) {
+                    MappedRing.Reader reader = opened.reader(0);
+                    int previous = -1;
+                    for (int read = 0; read < 3; ) {
+                        byte[] frame = reader.poll();
+                        if (frame != null) {
+                            int value = ByteBuffer.wrap(frame).getInt();
+                            assertTrue(previous < 0 || value == previous + 1);
+                            previous = value;
+                            read++;
+                        }
+                    }
+                    reader.close();
+                }
+            } finally {
+                stop.set(true);
+                producer.join();
+            }
+        }
+    }
+
+    //Checks that messages published on one bus are sent on the bus of a subscriber, broadcasts and events alike.
+    @Test
+    void testMessagesCrossToSubscriberBus(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("ring");
+        MessageBusImpl publisherBus = new MessageBusImpl();
+        MessageBusImpl subscriberBus = new MessageBusImpl();
+        MicroService listener = new MicroService("listener", subscriberBus) {
+            @Override
+            protected void initialize() {
+            }
+        };
+        subscriberBus.register(listener);
+        subscriberBus.subscribeBroadcast(NoteBroadcast.class, listener);
+        subscriberBus.subscribeEvent(PingEvent.class, listener);
+
+        List<Class<? extends Message>> types = Arrays.asList(NoteBroadcast.class, PingEvent.class);
+        try (MappedRing ring = MappedRing.create(file, 16, 128, 1);
+                MappedRing opened = MappedRing.open(file);
+                MappedRingSubscriber subscriber = new MappedRingSubscriber(subscriberBus, codecs(), opened, 0)) {
+            MappedRingPublisher publisher = new MappedRingPublisher(publisherBus, codecs(), ring, types);
+            publisher.start();
+            publisherBus.sendBroadcast(new NoteBroadcast("hello"));
+            publisherBus.sendEvent(new PingEvent(7));
+            assertEquals("hello", ((NoteBroadcast) subscriberBus.awaitMessage(listener, 5, TimeUnit.SECONDS)).text);
+            assertEquals(7, ((PingEvent) subscriberBus.awaitMessage(listener, 5, TimeUnit.SECONDS)).value);
+            publisher.close();
+        }
+    }
+}